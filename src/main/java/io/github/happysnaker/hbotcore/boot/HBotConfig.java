@@ -2,11 +2,22 @@ package io.github.happysnaker.hbotcore.boot;
 
 import io.github.happysnaker.hbotcore.command.HBotCommandEventHandlerManager;
 import io.github.happysnaker.hbotcore.cron.HBotCronJob;
+import io.github.happysnaker.hbotcore.handler.RegexCondition;
+import io.github.happysnaker.hbotcore.logger.FileAppender;
 import io.github.happysnaker.hbotcore.logger.Logger;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+import io.github.happysnaker.hbotcore.proxy.EventDeduplicator;
+import io.github.happysnaker.hbotcore.proxy.EventDispatcher;
+import io.github.happysnaker.hbotcore.proxy.MessageSender;
 import io.github.happysnaker.hbotcore.utils.IOUtil;
+import io.github.happysnaker.hbotcore.utils.ImageCache;
+import io.github.happysnaker.hbotcore.utils.MessageTemplate;
+import io.github.happysnaker.hbotcore.utils.ResourceCache;
 import io.github.happysnaker.hbotcore.utils.StringUtil;
 import jakarta.annotation.PostConstruct;
 import net.mamoe.mirai.Bot;
+import net.mamoe.mirai.event.ConcurrencyKind;
+import net.mamoe.mirai.event.EventPriority;
 import net.mamoe.mirai.utils.MiraiLogger;
 import net.mamoe.mirai.utils.PlatformLogger;
 import org.springframework.beans.factory.annotation.Value;
@@ -144,6 +155,153 @@ public class HBotConfig {
     }
 
 
+    public static void setLogCallerInfo0(boolean callerInfo) {
+        self.setLogCallerInfo(callerInfo);
+    }
+
+    @Value("${hrobot.logging.callerInfo:true}")
+    public void setLogCallerInfo(boolean callerInfo) {
+        Logger.callerInfo = callerInfo;
+    }
+
+    public static void setLogJsonLines0(boolean jsonLines) {
+        self.setLogJsonLines(jsonLines);
+    }
+
+    @Value("${hrobot.logging.jsonLines:false}")
+    public void setLogJsonLines(boolean jsonLines) {
+        Logger.jsonLines = jsonLines;
+    }
+
+    public static void setLogQueueCapacity0(int capacity) {
+        self.setLogQueueCapacity(capacity);
+    }
+
+    @Value("${hrobot.logging.queueCapacity:8192}")
+    public void setLogQueueCapacity(int capacity) {
+        if (capacity > 0)
+            FileAppender.queueCapacity = capacity;
+    }
+
+    public static void setLogOverflowPolicy0(String policy) {
+        self.setLogOverflowPolicy(policy);
+    }
+
+    @Value("${hrobot.logging.overflowPolicy:block}")
+    public void setLogOverflowPolicy(String policy) {
+        if (!StringUtil.isNullOrEmpty(policy))
+            FileAppender.overflowPolicy = FileAppender.OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+    }
+
+
+    public static void setMetricsEnable0(boolean enable) {
+        self.setMetricsEnable(enable);
+    }
+
+    @Value("${hrobot.metrics.enable:true}")
+    public void setMetricsEnable(boolean enable) {
+        Metrics.enable = enable;
+    }
+
+
+    public static void setTemplateCacheSize0(int size) {
+        self.setTemplateCacheSize(size);
+    }
+
+    @Value("${hrobot.template.cacheSize:1024}")
+    public void setTemplateCacheSize(int size) {
+        MessageTemplate.cacheSize = size;
+        MessageTemplate.invalidate();
+    }
+
+
+    public static void setTemplateDeadlineMillis0(long millis) {
+        self.setTemplateDeadlineMillis(millis);
+    }
+
+    @Value("${hrobot.template.deadlineMillis:5000}")
+    public void setTemplateDeadlineMillis(long millis) {
+        MessageTemplate.deadlineMillis = millis;
+    }
+
+    public static void setResourceTtl0(long seconds) {
+        self.setResourceTtl(seconds);
+    }
+
+    @Value("${hrobot.template.resourceTtl:60}")
+    public void setResourceTtl(long seconds) {
+        ResourceCache.ttlSeconds = Math.max(0, seconds);
+    }
+
+    public static void setResourceMaxEntries0(int maxEntries) {
+        self.setResourceMaxEntries(maxEntries);
+    }
+
+    @Value("${hrobot.template.resourceMaxEntries:256}")
+    public void setResourceMaxEntries(int maxEntries) {
+        ResourceCache.maxEntries = maxEntries;
+        ResourceCache.invalidate();
+    }
+
+    public static void setResourceMaxSize0(String size) {
+        self.setResourceMaxSize(size);
+    }
+
+    @Value("${hrobot.template.resourceMaxSize:32mb}")
+    public void setResourceMaxSize(String size) {
+        size = size.toLowerCase(Locale.ROOT).trim();
+        try {
+            if (size.endsWith("mb")) {
+                ResourceCache.maxSize = 1024L * 1024 * Integer.parseInt(size.replace("mb", ""));
+            } else if (size.endsWith("kb")) {
+                ResourceCache.maxSize = 1024L * Integer.parseInt(size.replace("kb", ""));
+            } else {
+                throw new RuntimeException();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unexpected size holder: " + size);
+        }
+        ResourceCache.invalidate();
+    }
+
+    public static void setResourceDiskCache0(boolean enable) {
+        self.setResourceDiskCache(enable);
+    }
+
+    @Value("${hrobot.template.resourceDiskCache:false}")
+    public void setResourceDiskCache(boolean enable) {
+        ResourceCache.diskCache = enable;
+    }
+
+
+    public static void setImageCacheEnable0(boolean enable) {
+        self.setImageCacheEnable(enable);
+    }
+
+    @Value("${hrobot.image.cache:true}")
+    public void setImageCacheEnable(boolean enable) {
+        ImageCache.enable = enable;
+    }
+
+    public static void setImageCacheMaxEntries0(int maxEntries) {
+        self.setImageCacheMaxEntries(maxEntries);
+    }
+
+    @Value("${hrobot.image.maxEntries:4096}")
+    public void setImageCacheMaxEntries(int maxEntries) {
+        ImageCache.maxEntries = Math.max(0, maxEntries);
+    }
+
+    public static void setImageCacheMaxAgeHours0(long hours) {
+        self.setImageCacheMaxAgeHours(hours);
+    }
+
+    @Value("${hrobot.image.maxAgeHours:72}")
+    public void setImageCacheMaxAgeHours(long hours) {
+        ImageCache.maxAgeHours = Math.max(0, hours);
+    }
+
+
     public static void setPeriodMinute0(int periodMinute) {
         self.setPeriodMinute(periodMinute);
     }
@@ -162,4 +320,239 @@ public class HBotConfig {
     public void setPeriodEnable(boolean enable) {
         HBotCronJob.enable = enable;
     }
+
+
+    public static void setRegexSlowThresholdMs0(long ms) {
+        self.setRegexSlowThresholdMs(ms);
+    }
+
+    @Value("${hrobot.interest.regexSlowThresholdMs:50}")
+    public void setRegexSlowThresholdMs(long ms) {
+        if (ms > 0)
+            RegexCondition.slowThresholdNanos = ms * 1_000_000L;
+    }
+
+
+    public static void setRegexCacheSize0(int size) {
+        self.setRegexCacheSize(size);
+    }
+
+    @Value("${hrobot.interest.regexCacheSize:1024}")
+    public void setRegexCacheSize(int size) {
+        if (size > 0)
+            RegexCondition.maxCached = size;
+    }
+
+
+    public static void setDispatchMode0(String mode) {
+        self.setDispatchMode(mode);
+    }
+
+    @Value("${hrobot.dispatch.mode:pool}")
+    public void setDispatchMode(String mode) {
+        if (!StringUtil.isNullOrEmpty(mode))
+            EventDispatcher.mode = EventDispatcher.Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public static void setDispatchThreads0(int threads) {
+        self.setDispatchThreads(threads);
+    }
+
+    @Value("${hrobot.dispatch.threads:0}")
+    public void setDispatchThreads(int threads) {
+        if (threads > 0)
+            EventDispatcher.threads = threads;
+    }
+
+    public static void setDispatchQueueCapacity0(int capacity) {
+        self.setDispatchQueueCapacity(capacity);
+    }
+
+    @Value("${hrobot.dispatch.queueCapacity:64}")
+    public void setDispatchQueueCapacity(int capacity) {
+        if (capacity > 0)
+            EventDispatcher.queueCapacity = capacity;
+    }
+
+    public static void setDispatchOverflowPolicy0(String policy) {
+        self.setDispatchOverflowPolicy(policy);
+    }
+
+    @Value("${hrobot.dispatch.overflowPolicy:drop_oldest}")
+    public void setDispatchOverflowPolicy(String policy) {
+        if (!StringUtil.isNullOrEmpty(policy))
+            EventDispatcher.overflowPolicy = EventDispatcher.OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public static void setDispatchBlockTimeoutMillis0(long timeout) {
+        self.setDispatchBlockTimeoutMillis(timeout);
+    }
+
+    @Value("${hrobot.dispatch.blockTimeoutMillis:1000}")
+    public void setDispatchBlockTimeoutMillis(long timeout) {
+        if (timeout >= 0)
+            EventDispatcher.blockTimeoutMillis = timeout;
+    }
+
+    public static void setDedupEnable0(boolean enable) {
+        self.setDedupEnable(enable);
+    }
+
+    @Value("${hrobot.dedup.enable:true}")
+    public void setDedupEnable(boolean enable) {
+        EventDeduplicator.enable = enable;
+    }
+
+    public static void setDedupOwner0(String owner) {
+        self.setDedupOwner(owner);
+    }
+
+    @Value("${hrobot.dedup.owner:first}")
+    public void setDedupOwner(String owner) {
+        if (!StringUtil.isNullOrEmpty(owner))
+            EventDeduplicator.owner = EventDeduplicator.Owner.valueOf(owner.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public static void setDedupOwners0(String owners) {
+        self.setDedupOwners(owners);
+    }
+
+    @Value("${hrobot.dedup.owners:}")
+    public void setDedupOwners(String owners) {
+        EventDeduplicator.setOwners(owners);
+    }
+
+    public static void setDedupWindowSeconds0(long seconds) {
+        self.setDedupWindowSeconds(seconds);
+    }
+
+    @Value("${hrobot.dedup.windowSeconds:60}")
+    public void setDedupWindowSeconds(long seconds) {
+        if (seconds > 0)
+            EventDeduplicator.windowSeconds = seconds;
+    }
+
+    public static void setListenerPriority0(String priority) {
+        self.setListenerPriority(priority);
+    }
+
+    @Value("${hrobot.dispatch.listenerPriority:normal}")
+    public void setListenerPriority(String priority) {
+        if (!StringUtil.isNullOrEmpty(priority))
+            EventDispatcher.listenerPriority = EventPriority.valueOf(priority.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public static void setListenerConcurrency0(String concurrency) {
+        self.setListenerConcurrency(concurrency);
+    }
+
+    @Value("${hrobot.dispatch.listenerConcurrency:concurrent}")
+    public void setListenerConcurrency(String concurrency) {
+        if (!StringUtil.isNullOrEmpty(concurrency))
+            EventDispatcher.listenerConcurrency = ConcurrencyKind.valueOf(concurrency.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public static void setSenderAsync0(boolean async) {
+        self.setSenderAsync(async);
+    }
+
+    @Value("${hrobot.sender.async:true}")
+    public void setSenderAsync(boolean async) {
+        MessageSender.async = async;
+    }
+
+    public static void setSenderThreads0(int threads) {
+        self.setSenderThreads(threads);
+    }
+
+    @Value("${hrobot.sender.threads:4}")
+    public void setSenderThreads(int threads) {
+        if (threads > 0)
+            MessageSender.threads = threads;
+    }
+
+    public static void setSenderPermitsPerSecond0(double permits) {
+        self.setSenderPermitsPerSecond(permits);
+    }
+
+    @Value("${hrobot.sender.permitsPerSecond:5}")
+    public void setSenderPermitsPerSecond(double permits) {
+        MessageSender.permitsPerSecond = permits;
+    }
+
+    public static void setSenderBurst0(int burst) {
+        self.setSenderBurst(burst);
+    }
+
+    @Value("${hrobot.sender.burst:10}")
+    public void setSenderBurst(int burst) {
+        MessageSender.burst = Math.max(1, burst);
+    }
+
+    public static void setSenderQueueCapacity0(int capacity) {
+        self.setSenderQueueCapacity(capacity);
+    }
+
+    @Value("${hrobot.sender.queueCapacity:256}")
+    public void setSenderQueueCapacity(int capacity) {
+        if (capacity > 0)
+            MessageSender.queueCapacity = capacity;
+    }
+
+    public static void setSenderMaxRetries0(int retries) {
+        self.setSenderMaxRetries(retries);
+    }
+
+    @Value("${hrobot.sender.maxRetries:3}")
+    public void setSenderMaxRetries(int retries) {
+        MessageSender.maxRetries = Math.max(0, retries);
+    }
+
+    public static void setSenderRetryBackoffMillis0(long millis) {
+        self.setSenderRetryBackoffMillis(millis);
+    }
+
+    @Value("${hrobot.sender.retryBackoffMillis:1000}")
+    public void setSenderRetryBackoffMillis(long millis) {
+        MessageSender.retryBackoffMillis = Math.max(0, millis);
+    }
+
+    public static void setSenderRouting0(String routing) {
+        self.setSenderRouting(routing);
+    }
+
+    @Value("${hrobot.sender.routing:none}")
+    public void setSenderRouting(String routing) {
+        if (!StringUtil.isNullOrEmpty(routing))
+            MessageSender.routing = MessageSender.Routing.valueOf(routing.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public static void setSenderFailureCooldownMillis0(long millis) {
+        self.setSenderFailureCooldownMillis(millis);
+    }
+
+    @Value("${hrobot.sender.failureCooldownMillis:30000}")
+    public void setSenderFailureCooldownMillis(long millis) {
+        MessageSender.failureCooldownMillis = Math.max(0, millis);
+    }
+
+    public static void setSenderDeadLetterMaxSize0(String size) {
+        self.setSenderDeadLetterMaxSize(size);
+    }
+
+    @Value("${hrobot.sender.deadLetterMaxSize:1mb}")
+    public void setSenderDeadLetterMaxSize(String size) {
+        size = size.toLowerCase(Locale.ROOT).trim();
+        try {
+            if (size.endsWith("mb")) {
+                MessageSender.deadLetterMaxSize = 1024L * 1024 * Integer.parseInt(size.replace("mb", ""));
+            } else if (size.endsWith("kb")) {
+                MessageSender.deadLetterMaxSize = 1024L * Integer.parseInt(size.replace("kb", ""));
+            } else {
+                throw new RuntimeException();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Unexpected size holder: " + size);
+        }
+    }
 }
@@ -3,11 +3,14 @@ package io.github.happysnaker.hbotcore.boot;
 
 import io.github.happysnaker.hbotcore.config.ConfigManager;
 import io.github.happysnaker.hbotcore.cron.HBotCronJob;
-import io.github.happysnaker.hbotcore.handler.MessageEventHandler;
 import io.github.happysnaker.hbotcore.logger.Logger;
 import io.github.happysnaker.hbotcore.plugin.HBotPluginLoader;
 
 import io.github.happysnaker.hbotcore.plugin.HBotPluginRegister;
+import io.github.happysnaker.hbotcore.proxy.EventDispatcher;
+import io.github.happysnaker.hbotcore.proxy.MessageHandlerProxy;
+import io.github.happysnaker.hbotcore.utils.MemberDirectory;
+import kotlin.coroutines.EmptyCoroutineContext;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import net.mamoe.mirai.event.GlobalEventChannel;
@@ -53,13 +56,16 @@ public class HBotStarter {
         // 后台任务
         HBotCronJob.cronIfEnable();
 
+        // 群成员目录随成员变化事件更新
+        MemberDirectory.subscribe();
+
         // 登录机器人被放在最后执行
         HBot.autoLogin();
 
-        // 最后，订阅群聊消息事件
-        GlobalEventChannel.INSTANCE.subscribeAlways(GroupMessageEvent.class, event -> {
-            ((MessageEventHandler) HBot.applicationContext.getBean("proxyHandler")).handleMessageEvent(event, null);
-        });
+        // 最后，订阅群聊消息事件，消息经由 EventDispatcher 按群排队执行
+        MessageHandlerProxy proxy = (MessageHandlerProxy) HBot.applicationContext.getBean("proxyHandler");
+        GlobalEventChannel.INSTANCE.subscribeAlways(GroupMessageEvent.class, EmptyCoroutineContext.INSTANCE,
+                EventDispatcher.listenerConcurrency, EventDispatcher.listenerPriority, proxy::dispatch);
     }
 
 
@@ -5,6 +5,7 @@ import io.github.happysnaker.hbotcore.exception.InsufficientPermissionsException
 import io.github.happysnaker.hbotcore.exception.NoDispatchActionException;
 import io.github.happysnaker.hbotcore.handler.Interest;
 import io.github.happysnaker.hbotcore.proxy.Context;
+import io.github.happysnaker.hbotcore.proxy.EventView;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
 import net.mamoe.mirai.message.data.MessageChain;
 
@@ -52,7 +53,7 @@ public abstract class AdaptInterestCommandEventHandler extends HBotCommandEventH
 
     @Override
     public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
-        return interest.isInterest(event);
+        return interest.isInterest(EventView.of(event, ctx));
     }
 
     public Interest getInterest() {
@@ -60,6 +61,10 @@ public abstract class AdaptInterestCommandEventHandler extends HBotCommandEventH
     }
 
     public void setInterest(Interest interest) {
+        // 注册时预先编译，避免首个事件承担编译开销
+        if (interest != null) {
+            interest.compile();
+        }
         this.interest = interest;
     }
 }
@@ -0,0 +1,102 @@
+package io.github.happysnaker.hbotcore.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 命令的只读视图，由命令前缀之后的文本解析而来，不会修改原始事件
+ * <p>命令的第一个以空白分隔的词为命令名，其余部分为参数，例如 <code>#音乐 晴天 周杰伦</code> 的命令名为 <code>音乐</code>，
+ * 参数为 <code>晴天 周杰伦</code></p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see io.github.happysnaker.hbotcore.proxy.HandlerIndex
+ */
+public final class CommandView {
+    /**
+     * 去除命令前缀与首尾空格后的文本
+     */
+    private final String body;
+    private final String name;
+    private final int argsStart;
+    private List<String> argList;
+
+    private CommandView(String body) {
+        this.body = body;
+        int i = 0;
+        while (i < body.length() && !Character.isWhitespace(body.charAt(i))) {
+            i++;
+        }
+        this.name = body.substring(0, i);
+        while (i < body.length() && Character.isWhitespace(body.charAt(i))) {
+            i++;
+        }
+        this.argsStart = i;
+    }
+
+    /**
+     * 解析命令
+     *
+     * @param plain  去除首尾空格后的纯文本
+     * @param prefix 命令前缀，按字面量匹配
+     * @return 命令视图，如果文本不以前缀开头则返回 null
+     */
+    public static CommandView parse(String plain, String prefix) {
+        if (plain == null || prefix == null || !plain.startsWith(prefix)) {
+            return null;
+        }
+        return new CommandView(plain.substring(prefix.length()).trim());
+    }
+
+    /**
+     * @return 去除命令前缀后的完整文本
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return 命令名，即第一个以空白分隔的词
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 命令名之后的参数文本，没有参数时为空串
+     */
+    public String getArgs() {
+        return body.substring(argsStart);
+    }
+
+    /**
+     * @return 以空白分隔的参数列表，只读
+     */
+    public List<String> getArgList() {
+        List<String> list = argList;
+        if (list == null) {
+            list = new ArrayList<>();
+            int i = argsStart, n = body.length();
+            while (i < n) {
+                int j = i;
+                while (j < n && !Character.isWhitespace(body.charAt(j))) {
+                    j++;
+                }
+                list.add(body.substring(i, j));
+                while (j < n && Character.isWhitespace(body.charAt(j))) {
+                    j++;
+                }
+                i = j;
+            }
+            argList = list = Collections.unmodifiableList(list);
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return body;
+    }
+}
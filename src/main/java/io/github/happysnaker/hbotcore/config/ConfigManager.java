@@ -223,16 +223,30 @@ public class ConfigManager {
      * @return
      */
     public static Object getConfig(String fieldName) {
+        try {
+            return getConfigField(fieldName).get(null);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 获取配置（包含插件配置）对应的类变量，如果与插件冲突，则以主配置类为主；需要频繁读取同一个配置时可以缓存此字段
+     *
+     * @param fieldName 配置名
+     * @return 已设置为可访问的字段
+     */
+    public static Field getConfigField(String fieldName) {
         try {
             Field field = configClass.getDeclaredField(fieldName);
             field.setAccessible(true);
-            return field.get(null);
+            return field;
         } catch (Exception e) {
             for (Class<?> aClass : pluginClass) {
                 try {
                     Field field = aClass.getDeclaredField(fieldName);
                     field.setAccessible(true);
-                    return field.get(null);
+                    return field;
                 } catch (Exception ex) {
                     continue;
                 }
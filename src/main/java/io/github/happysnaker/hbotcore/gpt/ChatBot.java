@@ -174,7 +174,7 @@ public class ChatBot {
         }};
 
         Logger.debug("Sending the payload");
-        Logger.debug(JSONUtil.toJsonPrettyStr(data));
+        Logger.debug(() -> JSONUtil.toJsonPrettyStr(data));
 
         this.conversationIdPrevQueue.offer(MapUtil.getStr(data, "conversation_id"));
         this.parentIdPrevQueue.offer(MapUtil.getStr(data, "parent_message_id"));
@@ -2,6 +2,7 @@ package io.github.happysnaker.hbotcore.handler;
 
 import io.github.happysnaker.hbotcore.logger.Logger;
 import io.github.happysnaker.hbotcore.proxy.Context;
+import io.github.happysnaker.hbotcore.proxy.EventView;
 import io.github.happysnaker.hbotcore.utils.StringUtil;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
 import net.mamoe.mirai.message.data.MessageChain;
@@ -24,6 +25,10 @@ public class AdaptInterestMessageEventHandler extends GroupMessageEventHandler {
     }
 
     public void setInterest(Interest interest) {
+        // 注册时预先编译，避免首个事件承担编译开销
+        if (interest != null) {
+            interest.compile();
+        }
         this.interest = interest;
     }
 
@@ -55,6 +60,6 @@ public class AdaptInterestMessageEventHandler extends GroupMessageEventHandler {
 
     @Override
     public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
-        return interest.isInterest(event);
+        return interest.isInterest(EventView.of(event, ctx));
     }
 }
@@ -0,0 +1,233 @@
+package io.github.happysnaker.hbotcore.handler;
+
+import io.github.happysnaker.hbotcore.boot.HBot;
+import io.github.happysnaker.hbotcore.exception.InsufficientPermissionsException;
+import io.github.happysnaker.hbotcore.permisson.Permission;
+import io.github.happysnaker.hbotcore.permisson.PermissionManager;
+import io.github.happysnaker.hbotcore.proxy.Context;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.event.events.MessageEvent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link Interest#action(GroupMessageEvent, Object, Object...)} 的回调调用器
+ * <p>每个（处理器类，回调函数名，参数类型）只会解析一次：查找方法、计算参数注入方案、读取 {@link Permission} 注解，
+ * 并将方法转换为 {@link MethodHandle} 缓存起来，此后的调用只需要按照方案拷贝参数并执行方法句柄</p>
+ * <p>方法的查找规则与以前保持一致：优先查找签名与实参类型完全一致的方法，否则遍历同名方法，
+ * 按照参数类型注入事件、{@link Interest.DispatchArgs} 或类型完全相同的实参，第一个所有参数都能注入的方法被选中</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class CallbackInvoker {
+    /**
+     * 参数来源：事件本身，其余非负数表示实参下标，下标 0 是 DispatchArgs
+     */
+    private static final int EVENT = -1;
+    private static final MethodType GENERIC = MethodType.methodType(Object.class, Object.class, Object[].class);
+    private static final CallbackInvoker MISSING = new CallbackInvoker(null, null, -1, null);
+
+    private static final ClassValue<Map<Object, CallbackInvoker>> CACHE = new ClassValue<>() {
+        @Override
+        protected Map<Object, CallbackInvoker> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private static volatile PermissionManager permissionManager;
+
+    /**
+     * 签名为 (Object, Object[])Object 的方法句柄
+     */
+    private final MethodHandle handle;
+    /**
+     * 每个形参的来源
+     */
+    private final int[] binding;
+    /**
+     * 权限检查时使用的 Context 所在的实参下标，-1 表示没有
+     */
+    private final int contextArg;
+    /**
+     * 方法要求的权限，null 表示不需要检查
+     */
+    private final Permission permission;
+
+    private CallbackInvoker(MethodHandle handle, int[] binding, int contextArg, Permission permission) {
+        this.handle = handle;
+        this.binding = binding;
+        this.contextArg = contextArg;
+        this.permission = permission;
+    }
+
+    /**
+     * 获取某个类中回调函数的调用器，结果会被缓存
+     *
+     * @param type       处理器类
+     * @param methodName 回调函数名
+     * @param args       实参，下标 0 是 {@link Interest.DispatchArgs}
+     * @return 调用器
+     * @throws NoSuchMethodException 找不到可以调用的方法
+     */
+    public static CallbackInvoker resolve(Class<?> type, String methodName, Object[] args) throws NoSuchMethodException {
+        Map<Object, CallbackInvoker> cache = CACHE.get(type);
+        // 绝大多数回调只有 DispatchArgs 一个实参，直接以函数名为键，避免构造签名
+        Object key = args.length == 1 ? methodName : new Signature(methodName, args);
+        CallbackInvoker invoker = cache.get(key);
+        if (invoker == null) {
+            invoker = cache.computeIfAbsent(key, k -> create(type, methodName, args));
+        }
+        if (invoker == MISSING) {
+            throw new NoSuchMethodException("Can not invoke method " + methodName);
+        }
+        return invoker;
+    }
+
+    /**
+     * 检查权限并调用回调函数
+     *
+     * @param target 回调函数所在的对象
+     * @param event  事件
+     * @param args   实参，类型必须与 {@link #resolve(Class, String, Object[])} 时一致
+     * @return 回调函数的返回值
+     * @throws InvocationTargetException        回调函数抛出了异常
+     * @throws InsufficientPermissionsException 权限不足
+     */
+    public Object invoke(Object target, GroupMessageEvent event, Object[] args)
+            throws InvocationTargetException, InsufficientPermissionsException {
+        Object[] bound = new Object[binding.length];
+        for (int i = 0; i < binding.length; i++) {
+            bound[i] = binding[i] == EVENT ? event : args[binding[i]];
+        }
+        if (permission != null) {
+            PermissionManager bean = permissionManager();
+            Context ctx = contextArg < 0 ? null : (Context) args[contextArg];
+            if (!bean.hasPermission(permission.value(), event, ctx)) {
+                throw new InsufficientPermissionsException("权限不足");
+            }
+        }
+        try {
+            return handle.invokeExact(target, bound);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    private static PermissionManager permissionManager() {
+        PermissionManager pm = permissionManager;
+        if (pm == null) {
+            permissionManager = pm = HBot.applicationContext.getBean(PermissionManager.class);
+        }
+        return pm;
+    }
+
+    private static CallbackInvoker create(Class<?> type, String methodName, Object[] args) {
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i++) {
+            types[i] = args[i] == null ? null : args[i].getClass();
+        }
+        Method method = null;
+        int[] binding = null;
+        if (Arrays.stream(types).allMatch(t -> t != null)) {
+            try {
+                method = type.getDeclaredMethod(methodName, types);
+                binding = new int[args.length];
+                Arrays.setAll(binding, i -> i);
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+        if (method == null) {
+            for (Method m : type.getDeclaredMethods()) {
+                if (m.getName().equals(methodName) && (binding = bind(m.getParameterTypes(), types)) != null) {
+                    method = m;
+                    break;
+                }
+            }
+        }
+        if (method == null) {
+            return MISSING;
+        }
+        int contextArg = -1;
+        for (int source : binding) {
+            if (source != EVENT && types[source] != null && Context.class.isAssignableFrom(types[source])) {
+                contextArg = source;
+            }
+        }
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = MethodHandles.lookup().unreflect(method)
+                    .asSpreader(Object[].class, binding.length)
+                    .asType(GENERIC);
+            return new CallbackInvoker(handle, binding, contextArg, method.getAnnotation(Permission.class));
+        } catch (IllegalAccessException | RuntimeException e) {
+            return MISSING;
+        }
+    }
+
+    /**
+     * 为形参计算注入方案，无法注入时返回 null
+     */
+    private static int[] bind(Class<?>[] parameters, Class<?>[] types) {
+        int[] binding = new int[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Class<?> p = parameters[i];
+            if (p == GroupMessageEvent.class || p == MessageEvent.class) {
+                binding[i] = EVENT;
+            } else if (p == Interest.DispatchArgs.class) {
+                binding[i] = 0;
+            } else {
+                int source = -1;
+                for (int j = 0; j < types.length; j++) {
+                    if (p.equals(types[j])) {
+                        source = j;
+                        break;
+                    }
+                }
+                if (source < 0) {
+                    return null;
+                }
+                binding[i] = source;
+            }
+        }
+        return binding;
+    }
+
+    /**
+     * 回调函数名与实参类型组成的缓存键
+     */
+    private static final class Signature {
+        private final String name;
+        private final Class<?>[] types;
+        private final int hash;
+
+        Signature(String name, Object[] args) {
+            this.name = name;
+            this.types = new Class<?>[args.length];
+            int h = name.hashCode();
+            for (int i = 0; i < args.length; i++) {
+                types[i] = args[i] == null ? null : args[i].getClass();
+                h = 31 * h + (types[i] == null ? 0 : types[i].hashCode());
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Signature s && hash == s.hash && name.equals(s.name) && Arrays.equals(types, s.types);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -2,8 +2,9 @@ package io.github.happysnaker.hbotcore.handler;
 
 
 import io.github.happysnaker.hbotcore.exception.InsufficientPermissionsException;
+import io.github.happysnaker.hbotcore.proxy.EventView;
 import io.github.happysnaker.hbotcore.utils.HBotUtil;
-import net.mamoe.mirai.Bot;
+import io.github.happysnaker.hbotcore.utils.MemberDirectory;
 import net.mamoe.mirai.contact.ContactList;
 import net.mamoe.mirai.contact.Group;
 import net.mamoe.mirai.contact.MemberPermission;
@@ -12,7 +13,6 @@ import net.mamoe.mirai.event.events.GroupMessageEvent;
 import net.mamoe.mirai.message.data.At;
 import net.mamoe.mirai.message.data.AtAll;
 import net.mamoe.mirai.message.data.MessageSource;
-import net.mamoe.mirai.message.data.SingleMessage;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -42,14 +42,7 @@ public abstract class GroupMessageEventHandler extends HBotUtil implements Messa
      * @return 真则被 at
      */
     protected boolean isAt(GroupMessageEvent event, String qq) {
-        for (SingleMessage message : event.getMessage()) {
-            if (message instanceof At at) {
-                if (Long.parseLong(qq) == at.getTarget()) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return EventView.of(event).isAt(Long.parseLong(qq));
     }
 
 
@@ -59,12 +52,7 @@ public abstract class GroupMessageEventHandler extends HBotUtil implements Messa
      * @return 真则被 at，请注意 at all 不会被此方法检测
      */
     protected boolean isAtBot(GroupMessageEvent event) {
-        for (Bot bot : Bot.getInstances()) {
-            if (isAt(event, String.valueOf(bot.getId()))) {
-                return true;
-            }
-        }
-        return false;
+        return EventView.of(event).isAtBot();
     }
 
 
@@ -83,23 +71,16 @@ public abstract class GroupMessageEventHandler extends HBotUtil implements Messa
 
     /**
      * 获取所有群成员的昵称，如果成员未设置群昵称，则使用该成员的个人名片中的昵称替代
+     * <p>由 {@link MemberDirectory} 维护，不会访问网络</p>
      *
      * @param event 群消息事件
      * @return 所有群成员的昵称，不包括机器人
      */
     protected List<String> getMemberGroupName(GroupMessageEvent event) {
-        ContactList<NormalMember> members = null;
-        List<String> ans = new ArrayList<>();
-        if ((members = getMembers(event)) != null) {
-            for (NormalMember member : members) {
-                String s = member.getNameCard();
-                if (s.isEmpty()) {
-                    s = member.queryProfile().getNickname();
-                }
-                ans.add(s);
-            }
+        if (event == null) {
+            return new ArrayList<>();
         }
-        return ans;
+        return MemberDirectory.getDisplayNames(event.getGroup());
     }
 
     /**
@@ -126,20 +107,13 @@ public abstract class GroupMessageEventHandler extends HBotUtil implements Messa
      * @param event     群消息事件
      * @param groupName 群成员的群名片，如果成员未配置群昵称，则为群成员的昵称
      * @return 群成员的 QQ，未搜索到返回 -1
+     * @see MemberDirectory#getMemberId(Group, String)
      */
     protected Long getMemberQQByName(GroupMessageEvent event, String groupName) {
-        ContactList<NormalMember> members;
-        long ans = -1;
-        if ((members = getMembers(event)) != null) {
-            for (NormalMember member : members) {
-                String s = member.getNameCard();
-                if (s.isEmpty())
-                    s = member.queryProfile().getNickname();
-                if (s.equals(groupName))
-                    return member.getId();
-            }
+        if (event == null) {
+            return -1L;
         }
-        return ans;
+        return MemberDirectory.getMemberId(event.getGroup(), groupName);
     }
 
 
@@ -150,7 +124,7 @@ public abstract class GroupMessageEventHandler extends HBotUtil implements Messa
      * @return 返回处理后的消息，消息将去除首尾空格
      */
     public String getPlantContent(GroupMessageEvent event) {
-        return getOnlyPlainContent(event).trim();
+        return EventView.of(event).getPlain();
     }
 
     /**
@@ -222,11 +196,9 @@ public abstract class GroupMessageEventHandler extends HBotUtil implements Messa
      * @param durationSecond 秒
      */
     protected void mute(String qq, Group group, int durationSecond) {
-        for (NormalMember member : group.getMembers()) {
-            if (member.getId() == Long.parseLong(qq)) {
-                member.mute(durationSecond);
-                return;
-            }
+        NormalMember member = MemberDirectory.getMember(group, Long.parseLong(qq));
+        if (member != null) {
+            member.mute(durationSecond);
         }
     }
 
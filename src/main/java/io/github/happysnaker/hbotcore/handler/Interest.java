@@ -1,21 +1,17 @@
 package io.github.happysnaker.hbotcore.handler;
 
-import io.github.happysnaker.hbotcore.boot.HBot;
 import io.github.happysnaker.hbotcore.exception.InsufficientPermissionsException;
 import io.github.happysnaker.hbotcore.exception.NoDispatchActionException;
-import io.github.happysnaker.hbotcore.permisson.Permission;
-import io.github.happysnaker.hbotcore.permisson.PermissionManager;
-import io.github.happysnaker.hbotcore.permisson.PermissionProxy;
 import io.github.happysnaker.hbotcore.proxy.Context;
+import io.github.happysnaker.hbotcore.proxy.EventView;
 import io.github.happysnaker.hbotcore.utils.HBotUtil;
 import io.github.happysnaker.hbotcore.utils.Pair;
-import io.github.happysnaker.hbotcore.utils.StringUtil;
 import lombok.*;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
-import net.mamoe.mirai.event.events.MessageEvent;
 
 
 import javax.naming.CannotProceedException;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
 import java.util.*;
 
@@ -25,31 +21,32 @@ import java.util.*;
  * 则函数将不被允许调用 {@link #action(GroupMessageEvent, Object, Object...)} 方法，因为需要匹配多个条件无法确定需要调用那个条件的回调函数，
  * 可以通过复杂的嵌套 Interest 来实现这个需求
  * </p><p>此类是基于检测事件的文本信息进行匹配，<strong>at 或者图片等非文本将会被忽略</strong></p>
+ * <p>第一次匹配时条件会被编译为 {@link InterestMatcher} 并缓存。无论是通过建造器、setter 还是直接修改 getMatchAnyXxx 返回的 Map，
+ * 条件（包括嵌套的子条件）被修改后下一次匹配都会自动重新编译；setter 会复制传入的 Map，此后请通过 getter 返回的 Map 修改</p>
  *
  * @Author happysnaker
  * @Date 2023/4/7
  * @Email happysnaker@foxmail.com
  */
 @Data
-@AllArgsConstructor
 @NoArgsConstructor
 public class Interest {
     // 包含某字符串
-    private Map<String, Pair<String, Boolean>> matchAnyContains = new HashMap<>();
+    private Map<String, Pair<String, Boolean>> matchAnyContains = new TrackedMap<>(null);
     // 完全匹配某字符串
-    private Map<String, Pair<String, Boolean>> matchAnyEquals = new HashMap<>();
+    private Map<String, Pair<String, Boolean>> matchAnyEquals = new TrackedMap<>(null);
     // 前缀匹配某字符串
-    private Map<String, Pair<String, Boolean>> matchAnyPrefix = new HashMap<>();
+    private Map<String, Pair<String, Boolean>> matchAnyPrefix = new TrackedMap<>(null);
     // 后缀匹配某字符串
-    private Map<String, Pair<String, Boolean>> matchAnySuffix = new HashMap<>();
+    private Map<String, Pair<String, Boolean>> matchAnySuffix = new TrackedMap<>(null);
     // 正则匹配某模式串
-    private Map<String, Pair<String, Boolean>> matchAnyRegex = new HashMap<>();
+    private Map<String, Pair<String, Boolean>> matchAnyRegex = new TrackedMap<>(null);
     // 匹配发送人
-    private Map<String, Pair<String, Boolean>> matchAnySender = new HashMap<>();
+    private Map<String, Pair<String, Boolean>> matchAnySender = new TrackedMap<>(null);
     // 匹配发生群组
-    private Map<String, Pair<String, Boolean>> matchAnyGroup = new HashMap<>();
+    private Map<String, Pair<String, Boolean>> matchAnyGroup = new TrackedMap<>(null);
     // 复杂匹配，自由组合
-    private Map<Interest, Pair<String, Boolean>> matchAnyInterest = new HashMap<>();
+    private Map<Interest, Pair<String, Boolean>> matchAnyInterest = new TrackedMap<>(null);
 
 
     /**
@@ -67,6 +64,125 @@ public class Interest {
      */
     private boolean matchAllCallback = true;
 
+    /**
+     * 此条件或者其嵌套的子条件每被修改一次递增一次，编译结果记录编译时的版本，版本不一致时重新编译
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient volatile long version;
+
+    /**
+     * 编译后的匹配器缓存，见 {@link #compile()}
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private transient volatile Compiled compiled;
+
+    /**
+     * 编译时引用了此条件的父条件，此条件被修改时一同递增它们的版本
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private final transient List<WeakReference<Interest>> parents = new ArrayList<>();
+
+    public Interest(Map<String, Pair<String, Boolean>> matchAnyContains, Map<String, Pair<String, Boolean>> matchAnyEquals,
+                    Map<String, Pair<String, Boolean>> matchAnyPrefix, Map<String, Pair<String, Boolean>> matchAnySuffix,
+                    Map<String, Pair<String, Boolean>> matchAnyRegex, Map<String, Pair<String, Boolean>> matchAnySender,
+                    Map<String, Pair<String, Boolean>> matchAnyGroup, Map<Interest, Pair<String, Boolean>> matchAnyInterest,
+                    boolean matchAll, String matchAllAction, boolean matchAllCallback) {
+        this.matchAnyContains = track(matchAnyContains);
+        this.matchAnyEquals = track(matchAnyEquals);
+        this.matchAnyPrefix = track(matchAnyPrefix);
+        this.matchAnySuffix = track(matchAnySuffix);
+        this.matchAnyRegex = track(matchAnyRegex);
+        this.matchAnySender = track(matchAnySender);
+        this.matchAnyGroup = track(matchAnyGroup);
+        this.matchAnyInterest = track(matchAnyInterest);
+        this.matchAll = matchAll;
+        this.matchAllAction = matchAllAction;
+        this.matchAllCallback = matchAllCallback;
+    }
+
+    public void setMatchAnyContains(Map<String, Pair<String, Boolean>> matchAnyContains) {
+        synchronized (Interest.class) {
+            this.matchAnyContains = track(matchAnyContains);
+            modified();
+        }
+    }
+
+    public void setMatchAnyEquals(Map<String, Pair<String, Boolean>> matchAnyEquals) {
+        synchronized (Interest.class) {
+            this.matchAnyEquals = track(matchAnyEquals);
+            modified();
+        }
+    }
+
+    public void setMatchAnyPrefix(Map<String, Pair<String, Boolean>> matchAnyPrefix) {
+        synchronized (Interest.class) {
+            this.matchAnyPrefix = track(matchAnyPrefix);
+            modified();
+        }
+    }
+
+    public void setMatchAnySuffix(Map<String, Pair<String, Boolean>> matchAnySuffix) {
+        synchronized (Interest.class) {
+            this.matchAnySuffix = track(matchAnySuffix);
+            modified();
+        }
+    }
+
+    public void setMatchAnyRegex(Map<String, Pair<String, Boolean>> matchAnyRegex) {
+        synchronized (Interest.class) {
+            this.matchAnyRegex = track(matchAnyRegex);
+            modified();
+        }
+    }
+
+    public void setMatchAnySender(Map<String, Pair<String, Boolean>> matchAnySender) {
+        synchronized (Interest.class) {
+            this.matchAnySender = track(matchAnySender);
+            modified();
+        }
+    }
+
+    public void setMatchAnyGroup(Map<String, Pair<String, Boolean>> matchAnyGroup) {
+        synchronized (Interest.class) {
+            this.matchAnyGroup = track(matchAnyGroup);
+            modified();
+        }
+    }
+
+    public void setMatchAnyInterest(Map<Interest, Pair<String, Boolean>> matchAnyInterest) {
+        synchronized (Interest.class) {
+            this.matchAnyInterest = track(matchAnyInterest);
+            modified();
+        }
+    }
+
+    public void setMatchAll(boolean matchAll) {
+        synchronized (Interest.class) {
+            this.matchAll = matchAll;
+            modified();
+        }
+    }
+
+    public void setMatchAllAction(String matchAllAction) {
+        synchronized (Interest.class) {
+            this.matchAllAction = matchAllAction;
+            modified();
+        }
+    }
+
+    public void setMatchAllCallback(boolean matchAllCallback) {
+        synchronized (Interest.class) {
+            this.matchAllCallback = matchAllCallback;
+            modified();
+        }
+    }
+
     public enum MODE {
         /**
          * 事件文本消息是否包含某内容
@@ -128,20 +244,17 @@ public class Interest {
          * @param action     动作，可以是 callback，也可以是 output
          * @param isCallback 是否是回调函数，否则是 output 直接输出
          */
-        @SuppressWarnings("unchecked")
         public InterestBuilder onCondition(MODE mode, String condition, String action, boolean isCallback) {
-            for (Field field : interest.getClass().getDeclaredFields()) {
-                if (field.getName().toUpperCase().contains(mode.name().toUpperCase())) {
-                    field.setAccessible(true);
-                    try {
-                        Map map = (Map) field.get(interest);
-                        map.put(condition, Pair.of(action, isCallback));
-                        break;
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }
+            Map<String, Pair<String, Boolean>> map = switch (mode) {
+                case CONTAINS -> interest.matchAnyContains;
+                case EQUALS -> interest.matchAnyEquals;
+                case PREFIX -> interest.matchAnyPrefix;
+                case SUFFIX -> interest.matchAnySuffix;
+                case REGEX -> interest.matchAnyRegex;
+                case SENDER -> interest.matchAnySender;
+                case GROUP -> interest.matchAnyGroup;
+            };
+            map.put(condition, Pair.of(action, isCallback));
             return this;
         }
 
@@ -222,7 +335,7 @@ public class Interest {
          * @param matchAll 默认为 false
          */
         public InterestBuilder matchAll(boolean matchAll) {
-            this.interest.matchAll = matchAll;
+            this.interest.setMatchAll(matchAll);
             return this;
         }
 
@@ -235,9 +348,9 @@ public class Interest {
          * @param isCallback 该动作是回调函数，还是直接 output 输出
          */
         public InterestBuilder matchAll(boolean matchAll, String action, boolean isCallback) {
-            this.interest.matchAll = matchAll;
-            this.interest.matchAllAction = action;
-            this.interest.matchAllCallback = isCallback;
+            this.interest.setMatchAll(matchAll);
+            this.interest.setMatchAllAction(action);
+            this.interest.setMatchAllCallback(isCallback);
             return this;
         }
     }
@@ -257,138 +370,97 @@ public class Interest {
 
 
     /**
-     * @return null if has no action but on condition.
-     * or dispatch action if on condition;
-     * null if not on condition;
+     * 编译此条件，编译结果会被缓存，直到此条件或者其嵌套的子条件被修改
+     *
+     * @return 编译后的匹配器
      */
-    @SuppressWarnings("unchecked")
-    private Pair<Object, Pair<String, Boolean>> checkCondition(Object condition, GroupMessageEvent event, MODE mode) {
-        String plain = HBotUtil.getOnlyPlainContent(event);
-        String sender = HBotUtil.getSenderId(event);
-        String gid = String.valueOf(event.getGroup().getId());
-        if (condition == null || plain == null) {
-            return null;
-        }
-        if (condition instanceof Map map) {
-            if (map.isEmpty()) {
-                throw new RuntimeException("Not has this condition");
-            }
-            if (map.keySet().iterator().next() instanceof Interest) {
-                for (Object key : map.keySet()) {
-                    Interest interest = (Interest) (key);
-                    if (interest.isInterest(event)) {
-                        return Pair.of(interest, map.get(interest) == null ? null : (Pair<String, Boolean>) map.get(interest));
-                    }
-                }
-                return null;
+    public InterestMatcher compile() {
+        Compiled c = compiled;
+        if (c != null && c.version == version) {
+            return c.matcher;
+        }
+        synchronized (Interest.class) {
+            // 修改与编译持有同一把锁，编译读取到的条件一定与版本号一致
+            long v = version;
+            c = compiled;
+            if (c == null || c.version != v) {
+                InterestMatcher matcher = InterestMatcher.compile(this);
+                link(Collections.newSetFromMap(new IdentityHashMap<>()));
+                c = compiled = new Compiled(matcher, v);
             }
-            Set<String> keySet = map.keySet();
-            return switch (mode) {
-                case CONTAINS -> {
-                    for (String str : keySet)
-                        if (plain.contains(str))
-                            yield Pair.of(str, map.get(str) == null ? null : (Pair<String, Boolean>) map.get(str));
-                    yield null;
-                }
-                case EQUALS -> {
-                    for (String str : keySet)
-                        if (plain.equals(str))
-                            yield Pair.of(str, map.get(str) == null ? null : (Pair<String, Boolean>) map.get(str));
-                    yield null;
-                }
-                case PREFIX -> {
-                    for (String str : keySet)
-                        if (plain.startsWith(str))
-                            yield Pair.of(str, map.get(str) == null ? null : (Pair<String, Boolean>) map.get(str));
-                    yield null;
-                }
-                case SUFFIX -> {
-                    for (String str : keySet)
-                        if (plain.endsWith(str))
-                            yield Pair.of(str, map.get(str) == null ? null : (Pair<String, Boolean>) map.get(str));
-                    yield null;
-                }
-                case REGEX -> {
-                    for (String str : keySet)
-                        if (plain.matches(str))
-                            yield Pair.of(str, map.get(str) == null ? null : (Pair<String, Boolean>) map.get(str));
-                    yield null;
-                }
-                case SENDER -> {
-                    for (String str : keySet)
-                        if (sender.equals(str))
-                            yield Pair.of(str, map.get(str) == null ? null : (Pair<String, Boolean>) map.get(str));
-                    yield null;
-                }
-                case GROUP -> {
-                    for (String str : keySet)
-                        if (gid.equals(str))
-                            yield Pair.of(str, map.get(str) == null ? null : (Pair<String, Boolean>) map.get(str));
-                    yield null;
-                }
-            };
+            return c.matcher;
         }
-        return null;
     }
 
-
     /**
-     * 是否对此事件的消息感兴趣
+     * 丢弃缓存并重新编译此条件
      *
-     * @param event    事件
-     * @param matchAll 是否要匹配所有的条件，真则只有当所有条件满足时返回 true，假则一票通过
-     * @return 返回触发的条件与动作，null 代表不感兴趣，key 是条件:模式，val 是动作:是否回调，如果是 matchAll，则条件为 this
+     * @return 编译后的匹配器
      */
-    @SneakyThrows
-    private Pair<Pair<Object, MODE>, Pair<String, Boolean>> checkInterestAction(GroupMessageEvent event, boolean matchAll) {
-        Pair<Pair<Object, MODE>, Pair<String, Boolean>> result = null;
-        for (Field field : getClass().getDeclaredFields()) {
-            Object o = field.get(this);
-            if (!(o instanceof Map) || ((Map<?, ?>) o).isEmpty()) {
-                continue;
-            }
-            String name = field.getName();
-            MODE conditionMode = null;
-            Object condition = null;
-            Pair<String, Boolean> action = null;
-            for (MODE mode : MODE.values()) {
-                if (name.toUpperCase().contains(mode.name().toUpperCase())) {
-                    var pair = checkCondition(o, event, mode);
-                    if (pair != null) {
-                        conditionMode = mode;
-                        condition = pair.getKey();
-                        action = pair.getValue();
-                    }
-                    break;
-                }
-            }
+    public InterestMatcher recompile() {
+        synchronized (Interest.class) {
+            InterestMatcher matcher = InterestMatcher.compile(this);
+            link(Collections.newSetFromMap(new IdentityHashMap<>()));
+            compiled = new Compiled(matcher, version);
+            return matcher;
+        }
+    }
 
-            // 嵌套匹配
-            if (field.getName().equalsIgnoreCase("matchAnyInterest")) {
-                var pair = checkCondition(this.matchAnyInterest, event, null);
-                if (pair != null) {
-                    condition = pair.getKey();
-                    action = pair.getValue();
-                }
-            }
+    /**
+     * 条件已被修改，递增此条件及所有引用了它的父条件的版本，需持有锁
+     */
+    private void modified() {
+        version++;
+        if (!parents.isEmpty()) {
+            Set<Interest> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+            visited.add(this);
+            bumpParents(visited);
+        }
+    }
 
-            if (condition == null && matchAll) {
-                return null;
+    private void bumpParents(Set<Interest> visited) {
+        Iterator<WeakReference<Interest>> it = parents.iterator();
+        while (it.hasNext()) {
+            Interest parent = it.next().get();
+            if (parent == null) {
+                it.remove();
+            } else if (visited.add(parent)) {
+                parent.version++;
+                parent.bumpParents(visited);
             }
+        }
+    }
 
-            if (condition != null && !matchAll) {
-                if (action != null) {
-                    return Pair.of(Pair.of(condition, conditionMode), action);
+    /**
+     * 在子条件中登记父条件，需持有锁；子条件被移除后留下的登记只会导致多余的重新编译
+     */
+    private void link(Set<Interest> visited) {
+        if (matchAnyInterest == null || !visited.add(this)) {
+            return;
+        }
+        for (Interest child : matchAnyInterest.keySet()) {
+            boolean linked = false;
+            for (WeakReference<Interest> ref : child.parents) {
+                if (ref.get() == this) {
+                    linked = true;
+                    break;
                 }
-                result = Pair.of(Pair.of(condition, conditionMode), null);
             }
+            if (!linked) {
+                child.parents.add(new WeakReference<>(this));
+            }
+            child.link(visited);
         }
-        if (!matchAll) {
-            return result;
-        } else {
-            var action = StringUtil.isNullOrEmpty(matchAllAction) ? null : Pair.of(matchAllAction, matchAllCallback);
-            return Pair.of(Pair.of(this, null), action);
+    }
+
+    /**
+     * 将传入的 Map 复制为会记录修改的 Map
+     */
+    private <K> Map<K, Pair<String, Boolean>> track(Map<K, Pair<String, Boolean>> map) {
+        if (map == null || (map instanceof TrackedMap<?> tracked && tracked.owner() == this)) {
+            return map;
         }
+        return new TrackedMap<>(map);
     }
 
 
@@ -399,9 +471,33 @@ public class Interest {
      * @param matchAll 是否要匹配所有的条件，真则只有当所有条件满足时返回 true，假则一票通过
      * @return true or false
      */
-    @SneakyThrows
     public boolean isInterest(GroupMessageEvent event, boolean matchAll) {
-        return checkInterestAction(event, matchAll) != null;
+        return isInterest(EventView.of(event), matchAll);
+    }
+
+    /**
+     * 是否对此事件的消息感兴趣
+     *
+     * @param view     事件视图
+     * @param matchAll 是否要匹配所有的条件，真则只有当所有条件满足时返回 true，假则一票通过
+     * @return true or false
+     */
+    public boolean isInterest(EventView view, boolean matchAll) {
+        InterestMatcher m = compile();
+        if (matchAll == this.matchAll) {
+            return m.matches(view);
+        }
+        return m.match(view, matchAll) != null;
+    }
+
+    /**
+     * 检测是否满足任意一个条件
+     *
+     * @param view 事件视图
+     * @return 真则满足
+     */
+    public boolean isInterest(EventView view) {
+        return isInterest(view, this.matchAll);
     }
 
     /**
@@ -421,6 +517,7 @@ public class Interest {
      * <p>如果存在多个条件 match，此方法的行为是不确定的，因此调用此方法请确保一个事件只会存在一个条件，此类在多数情况下能有效减少使用者的代码编写量，但某些情况下可能不适用</p>
      * <p>按照通俗的约定，回调函数的参数第一项应该是 {@link DispatchArgs}，如果有多个参数，则从第二项开始由 args 匹配</p>
      * <p>如果函数签名不一致，此方法会尝试自动注入，但无法保障重载方法的调用顺序以及参数顺序</p>
+     * <p>回调函数的查找与注入方案会由 {@link CallbackInvoker} 缓存，只在第一次调用时解析</p>
      *
      * @param event 事件
      * @param proxy 执行代理，回调函数的代理，通常是 handler 自身，如果配置的是 code 输出，则可填 null
@@ -431,13 +528,13 @@ public class Interest {
      */
     public Object action(GroupMessageEvent event, Object proxy, Object... args) throws NoSuchMethodException,
             InvocationTargetException, IllegalAccessException, InsufficientPermissionsException, NoDispatchActionException, CannotProceedException {
-        var check = checkInterestAction(event, this.matchAll);
+        InterestMatcher.Match check = compile().match(EventView.of(event), this.matchAll);
         if (check == null) {
             throw new NoDispatchActionException("Not interested in it.");
         }
-        Object condition = check.getKey().getKey();
-        MODE currentMode = check.getKey().getValue();
-        Pair<String, Boolean> action = check.getValue();
+        Object condition = check.getCondition();
+        MODE currentMode = check.getMode();
+        Pair<String, Boolean> action = check.getAction();
         if (action == null) {
             throw new NoDispatchActionException("No action here.");
         }
@@ -462,70 +559,163 @@ public class Interest {
             args = newArgs;
         }
 
-        Class[] clazz = Arrays.stream(args)
-                .map(Object::getClass)
-                .toArray(Class[]::new);
-        Method declaredMethod = null;
-        try {
-            declaredMethod = proxy.getClass().getDeclaredMethod(methodName, clazz);
-        } catch (NoSuchMethodException e) {
-            Object[] oldArgs = args.clone();
-            for (Method method : proxy.getClass().getDeclaredMethods()) {
-                if (!method.getName().equals(methodName)) {
-                    continue;
-                }
-                Parameter[] parameters = method.getParameters();
-                if (parameters.length == 0) {
-                    args = new Object[0];
-                    declaredMethod = method;
-                    break;
+        return CallbackInvoker.resolve(proxy.getClass(), methodName, args).invoke(proxy, event, args);
+    }
+
+
+    public static InterestBuilder builder() {
+        return new InterestBuilder();
+    }
+
+
+    private record Compiled(InterestMatcher matcher, long version) {
+    }
+
+    /**
+     * 条件所使用的 Map，所有修改（包括通过 keySet、entrySet 等视图的修改）都会在持有锁时执行并递增版本
+     */
+    private final class TrackedMap<K> extends AbstractMap<K, Pair<String, Boolean>> {
+        private final HashMap<K, Pair<String, Boolean>> map;
+        private Set<Map.Entry<K, Pair<String, Boolean>>> entrySet;
+
+        TrackedMap(Map<K, Pair<String, Boolean>> map) {
+            this.map = map == null ? new HashMap<>() : new HashMap<>(map);
+        }
+
+        Interest owner() {
+            return Interest.this;
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public Pair<String, Boolean> get(Object key) {
+            return map.get(key);
+        }
+
+        @Override
+        public Pair<String, Boolean> put(K key, Pair<String, Boolean> value) {
+            synchronized (Interest.class) {
+                Pair<String, Boolean> old = map.put(key, value);
+                modified();
+                return old;
+            }
+        }
+
+        @Override
+        public Pair<String, Boolean> remove(Object key) {
+            synchronized (Interest.class) {
+                if (!map.containsKey(key)) {
+                    return null;
                 }
-                args = new Object[parameters.length];
-                for (int i = 0; i < parameters.length; i++) {
-                    var parameter = parameters[i];
-                    if (parameter.getType().equals(GroupMessageEvent.class)) {
-                        args[i] = event;
-                    } else if (parameter.getType().equals(MessageEvent.class)) {
-                        args[i] = event;
-                    } else if (parameter.getType().equals(DispatchArgs.class)) {
-                        args[i] = dispatchArgs;
-                    } else {
-                        for (Object oldArg : oldArgs) {
-                            if (oldArg.getClass().equals(parameter.getType())) {
-                                args[i] = oldArg;
-                                break;
+                Pair<String, Boolean> old = map.remove(key);
+                modified();
+                return old;
+            }
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends Pair<String, Boolean>> m) {
+            synchronized (Interest.class) {
+                map.putAll(m);
+                modified();
+            }
+        }
+
+        @Override
+        public void clear() {
+            synchronized (Interest.class) {
+                map.clear();
+                modified();
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<K, Pair<String, Boolean>>> entrySet() {
+            Set<Map.Entry<K, Pair<String, Boolean>>> es = entrySet;
+            if (es == null) {
+                entrySet = es = new AbstractSet<>() {
+                    @Override
+                    public Iterator<Map.Entry<K, Pair<String, Boolean>>> iterator() {
+                        Iterator<Map.Entry<K, Pair<String, Boolean>>> it = map.entrySet().iterator();
+                        return new Iterator<>() {
+                            @Override
+                            public boolean hasNext() {
+                                return it.hasNext();
                             }
-                        }
+
+                            @Override
+                            public Map.Entry<K, Pair<String, Boolean>> next() {
+                                return new TrackedEntry(it.next());
+                            }
+
+                            @Override
+                            public void remove() {
+                                synchronized (Interest.class) {
+                                    it.remove();
+                                    modified();
+                                }
+                            }
+                        };
                     }
-                    if (args[i] == null) {
-                        break;
+
+                    @Override
+                    public int size() {
+                        return map.size();
                     }
-                }
-                if (args[parameters.length - 1] != null) {
-                    declaredMethod = method;
-                    break;
-                }
+                };
             }
+            return es;
         }
-        if (declaredMethod == null) {
-            throw new NoSuchMethodException("Can not invoke method " + methodName);
-        }
-        declaredMethod.setAccessible(true);
 
-        // assert permission
-        Permission annotation = declaredMethod.getAnnotation(Permission.class);
-        if (annotation != null) {
-            PermissionManager bean = HBot.applicationContext.getBean(PermissionManager.class);
-            Context ctx = PermissionProxy.getArgs(args).getValue();
-            if (!bean.hasPermission(annotation.value(), event, ctx)) {
-                throw new InsufficientPermissionsException("权限不足");
+        private final class TrackedEntry implements Map.Entry<K, Pair<String, Boolean>> {
+            private final Map.Entry<K, Pair<String, Boolean>> entry;
+
+            TrackedEntry(Map.Entry<K, Pair<String, Boolean>> entry) {
+                this.entry = entry;
             }
-        }
-        return declaredMethod.invoke(proxy, args);
-    }
 
+            @Override
+            public K getKey() {
+                return entry.getKey();
+            }
 
-    public static InterestBuilder builder() {
-        return new InterestBuilder();
+            @Override
+            public Pair<String, Boolean> getValue() {
+                return entry.getValue();
+            }
+
+            @Override
+            public Pair<String, Boolean> setValue(Pair<String, Boolean> value) {
+                synchronized (Interest.class) {
+                    Pair<String, Boolean> old = entry.setValue(value);
+                    modified();
+                    return old;
+                }
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return entry.equals(o);
+            }
+
+            @Override
+            public int hashCode() {
+                return entry.hashCode();
+            }
+
+            @Override
+            public String toString() {
+                return entry.toString();
+            }
+        }
     }
 }
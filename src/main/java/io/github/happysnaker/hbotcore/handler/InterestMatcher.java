@@ -0,0 +1,525 @@
+package io.github.happysnaker.hbotcore.handler;
+
+import io.github.happysnaker.hbotcore.proxy.EventView;
+import io.github.happysnaker.hbotcore.utils.LongHashMap;
+import io.github.happysnaker.hbotcore.utils.Pair;
+import io.github.happysnaker.hbotcore.utils.StringUtil;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link Interest} 编译后的不可变匹配器，由 {@link Interest#compile()} 生成
+ * <p>编译时每种模式的条件被展开为按模式划分的数组，嵌套的 {@link Interest#getMatchAnyInterest()} 被递归编译为子匹配器，
+ * 匹配时不再需要任何反射，事件的文本、发送人与群号直接从 {@link EventView} 中读取</p>
+ * <p>如果同一个 Interest 对象在嵌套树中出现了多次，它只会被编译一次，并且在一次匹配中只会被求值一次</p>
+ * <p>条件的匹配顺序与 {@link Interest} 保持一致：依次为 CONTAINS、EQUALS、PREFIX、SUFFIX、REGEX、SENDER、GROUP 以及嵌套条件，
+ * 同一模式内按编译时 Map 的迭代顺序匹配</p>
+ * <p>EQUALS 条件使用哈希表查找，SENDER、GROUP 条件以 long 为键直接查找，匹配时不再需要把 id 转换为字符串</p>
+ * <p>REGEX 条件在编译时被预编译为 {@link RegexCondition}，模式串不合法时编译会抛出异常</p>
+ * <p>此类可以脱离 mirai 事件直接使用 {@link #matches(String, long, long)} 进行匹配，便于基准测试</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see Interest#compile()
+ */
+public final class InterestMatcher {
+    private static final byte UNKNOWN = 0, TRUE = 1, FALSE = 2;
+
+    /**
+     * 编译来源
+     */
+    @Getter
+    private final Interest source;
+    private final boolean matchAll;
+    private final Pair<String, Boolean> matchAllAction;
+
+    private final String[] contains;
+    private final Pair<String, Boolean>[] containsActions;
+    private final String[] equals;
+    private final Map<String, Integer> equalsIndex;
+    private final Pair<String, Boolean>[] equalsActions;
+    private final String[] prefix;
+    private final Pair<String, Boolean>[] prefixActions;
+    private final String[] suffix;
+    private final Pair<String, Boolean>[] suffixActions;
+    private final String[] regex;
+    private final RegexCondition[] regexConditions;
+    private final Pair<String, Boolean>[] regexActions;
+    private final String[] sender;
+    private final LongHashMap senderIndex;
+    private final Pair<String, Boolean>[] senderActions;
+    private final String[] group;
+    private final LongHashMap groupIndex;
+    private final Pair<String, Boolean>[] groupActions;
+    private final InterestMatcher[] children;
+    private final Pair<String, Boolean>[] childActions;
+
+    /**
+     * 如果此节点被多次引用，则为其在求值缓存中的位置，否则为 -1
+     */
+    private int memoSlot = -1;
+    /**
+     * 求值缓存的大小，仅对根节点有意义
+     */
+    private int memoSize;
+    /**
+     * 是否仍在构造中，用于检测嵌套条件中的环
+     */
+    private boolean building = true;
+
+    private InterestMatcher(Interest source, Map<Interest, InterestMatcher> compiled) {
+        compiled.put(source, this);
+        this.source = source;
+        this.matchAll = source.isMatchAll();
+        this.matchAllAction = StringUtil.isNullOrEmpty(source.getMatchAllAction()) ? null
+                : Pair.of(source.getMatchAllAction(), source.isMatchAllCallback());
+
+        this.contains = keys(source.getMatchAnyContains());
+        this.containsActions = actions(source.getMatchAnyContains());
+        this.equals = keys(source.getMatchAnyEquals());
+        this.equalsIndex = new HashMap<>();
+        for (int i = 0; i < equals.length; i++) {
+            equalsIndex.putIfAbsent(equals[i], i);
+        }
+        this.equalsActions = actions(source.getMatchAnyEquals());
+        this.prefix = keys(source.getMatchAnyPrefix());
+        this.prefixActions = actions(source.getMatchAnyPrefix());
+        this.suffix = keys(source.getMatchAnySuffix());
+        this.suffixActions = actions(source.getMatchAnySuffix());
+        this.regex = keys(source.getMatchAnyRegex());
+        this.regexConditions = new RegexCondition[regex.length];
+        for (int i = 0; i < regex.length; i++) {
+            regexConditions[i] = RegexCondition.of(regex[i]);
+        }
+        this.regexActions = actions(source.getMatchAnyRegex());
+        this.sender = keys(source.getMatchAnySender());
+        this.senderIndex = idIndex(sender);
+        this.senderActions = actions(source.getMatchAnySender());
+        this.group = keys(source.getMatchAnyGroup());
+        this.groupIndex = idIndex(group);
+        this.groupActions = actions(source.getMatchAnyGroup());
+
+        Map<Interest, Pair<String, Boolean>> nested = source.getMatchAnyInterest();
+        int n = nested == null ? 0 : nested.size();
+        this.children = new InterestMatcher[n];
+        this.childActions = newActions(n);
+        if (n > 0) {
+            int i = 0;
+            for (Map.Entry<Interest, Pair<String, Boolean>> it : nested.entrySet()) {
+                InterestMatcher child = compiled.get(it.getKey());
+                if (child == null) {
+                    child = new InterestMatcher(it.getKey(), compiled);
+                } else if (child.building) {
+                    // 子节点仍在构造中，说明嵌套条件存在环
+                    throw new IllegalArgumentException("Interest 的嵌套条件中存在环");
+                }
+                children[i] = child;
+                childActions[i++] = it.getValue();
+            }
+        }
+        building = false;
+    }
+
+    /**
+     * 编译一个 Interest
+     *
+     * @param interest 待编译的条件
+     * @return 编译后的匹配器
+     */
+    static InterestMatcher compile(Interest interest) {
+        Map<Interest, InterestMatcher> compiled = new IdentityHashMap<>();
+        InterestMatcher root = new InterestMatcher(interest, compiled);
+        // 为被多次引用的节点分配求值缓存
+        Map<InterestMatcher, Integer> refs = new IdentityHashMap<>();
+        countRefs(root, refs, new IdentityHashMap<>());
+        int slot = 0;
+        for (Map.Entry<InterestMatcher, Integer> it : refs.entrySet()) {
+            if (it.getValue() > 1) {
+                it.getKey().memoSlot = slot++;
+            }
+        }
+        root.memoSize = slot;
+        return root;
+    }
+
+    private static void countRefs(InterestMatcher node, Map<InterestMatcher, Integer> refs, Map<InterestMatcher, Boolean> visited) {
+        if (visited.put(node, Boolean.TRUE) != null) {
+            return;
+        }
+        for (InterestMatcher child : node.children) {
+            refs.merge(child, 1, Integer::sum);
+            countRefs(child, refs, visited);
+        }
+    }
+
+    private static String[] keys(Map<String, Pair<String, Boolean>> map) {
+        return map == null ? new String[0] : map.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * 将 SENDER、GROUP 条件按 long 建立索引，只有规范的十进制数字才可能与 id 相等，其余条件永远不会满足
+     */
+    private static LongHashMap idIndex(String[] ids) {
+        LongHashMap index = new LongHashMap(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            try {
+                long id = Long.parseLong(ids[i]);
+                if (String.valueOf(id).equals(ids[i])) {
+                    index.putIfAbsent(id, i);
+                }
+            } catch (NumberFormatException ignore) {
+                // never match
+            }
+        }
+        return index;
+    }
+
+    private static Pair<String, Boolean>[] actions(Map<String, Pair<String, Boolean>> map) {
+        if (map == null) {
+            return newActions(0);
+        }
+        Pair<String, Boolean>[] actions = newActions(map.size());
+        int i = 0;
+        for (Pair<String, Boolean> action : map.values()) {
+            actions[i++] = action;
+        }
+        return actions;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Pair<String, Boolean>[] newActions(int n) {
+        return (Pair<String, Boolean>[]) new Pair[n];
+    }
+
+
+    /**
+     * 是否对此事件感兴趣
+     *
+     * @param event 事件
+     * @return 真则感兴趣
+     */
+    public boolean matches(GroupMessageEvent event) {
+        return matches(EventView.of(event));
+    }
+
+    /**
+     * 是否对此事件感兴趣
+     *
+     * @param view 事件视图
+     * @return 真则感兴趣
+     */
+    public boolean matches(EventView view) {
+        return matches(view.getPlain(), view.getSenderId(), view.getGroupId());
+    }
+
+    /**
+     * 是否对此消息感兴趣
+     *
+     * @param plain    消息的纯文本内容
+     * @param senderId 发送人
+     * @param groupId  群号
+     * @return 真则感兴趣
+     */
+    public boolean matches(String plain, long senderId, long groupId) {
+        if (plain == null) {
+            return false;
+        }
+        return test(new Input(plain, senderId, groupId, memoSize), matchAll);
+    }
+
+    /**
+     * 匹配事件，并返回触发的条件与动作
+     *
+     * @param event    事件
+     * @param matchAll 是否要匹配所有条件
+     * @return 触发的条件，不感兴趣则返回 null
+     */
+    public Match match(GroupMessageEvent event, boolean matchAll) {
+        return match(EventView.of(event), matchAll);
+    }
+
+    /**
+     * 匹配事件，并返回触发的条件与动作
+     *
+     * @param view     事件视图
+     * @param matchAll 是否要匹配所有条件
+     * @return 触发的条件，不感兴趣则返回 null
+     */
+    public Match match(EventView view, boolean matchAll) {
+        return match(view.getPlain(), view.getSenderId(), view.getGroupId(), matchAll);
+    }
+
+    /**
+     * 匹配消息，并返回触发的条件与动作
+     *
+     * @param plain    消息的纯文本内容
+     * @param senderId 发送人
+     * @param groupId  群号
+     * @param matchAll 是否要匹配所有条件
+     * @return 触发的条件，不感兴趣则返回 null
+     */
+    public Match match(String plain, long senderId, long groupId, boolean matchAll) {
+        if (plain == null) {
+            return null;
+        }
+        Input in = new Input(plain, senderId, groupId, memoSize);
+        if (matchAll) {
+            return test(in, true) ? new Match(source, null, matchAllAction) : null;
+        }
+        Match noAction = null;
+        for (Interest.MODE mode : Interest.MODE.values()) {
+            int i = find(mode, in);
+            if (i < 0) {
+                continue;
+            }
+            Pair<String, Boolean> action = actionsOf(mode)[i];
+            if (action != null) {
+                return new Match(keysOf(mode)[i], mode, action);
+            }
+            noAction = new Match(keysOf(mode)[i], mode, null);
+        }
+        int i = findChild(in);
+        if (i >= 0) {
+            if (childActions[i] != null) {
+                return new Match(children[i].source, null, childActions[i]);
+            }
+            noAction = new Match(children[i].source, null, null);
+        }
+        return noAction;
+    }
+
+    private boolean test(Input in, boolean matchAll) {
+        for (Interest.MODE mode : Interest.MODE.values()) {
+            if (keysOf(mode).length == 0) {
+                continue;
+            }
+            boolean hit = find(mode, in) >= 0;
+            if (hit != matchAll) {
+                return hit;
+            }
+        }
+        if (children.length > 0) {
+            boolean hit = findChild(in) >= 0;
+            if (hit != matchAll) {
+                return hit;
+            }
+        }
+        return matchAll;
+    }
+
+    /**
+     * 子匹配器按自身的 matchAll 求值，被多次引用的子匹配器会缓存求值结果
+     */
+    private boolean testChild(InterestMatcher child, Input in) {
+        if (child.memoSlot < 0) {
+            return child.test(in, child.matchAll);
+        }
+        byte state = in.memo[child.memoSlot];
+        if (state == UNKNOWN) {
+            state = child.test(in, child.matchAll) ? TRUE : FALSE;
+            in.memo[child.memoSlot] = state;
+        }
+        return state == TRUE;
+    }
+
+    private int findChild(Input in) {
+        for (int i = 0; i < children.length; i++) {
+            if (testChild(children[i], in)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return 指定模式下第一个满足的条件下标，不满足返回 -1
+     */
+    private int find(Interest.MODE mode, Input in) {
+        String plain = in.plain;
+        switch (mode) {
+            case CONTAINS -> {
+                for (int i = 0; i < contains.length; i++)
+                    if (plain.contains(contains[i]))
+                        return i;
+            }
+            case EQUALS -> {
+                if (equals.length > 0) {
+                    Integer i = equalsIndex.get(plain);
+                    return i == null ? -1 : i;
+                }
+            }
+            case PREFIX -> {
+                for (int i = 0; i < prefix.length; i++)
+                    if (plain.startsWith(prefix[i]))
+                        return i;
+            }
+            case SUFFIX -> {
+                for (int i = 0; i < suffix.length; i++)
+                    if (plain.endsWith(suffix[i]))
+                        return i;
+            }
+            case REGEX -> {
+                for (int i = 0; i < regexConditions.length; i++)
+                    if (regexConditions[i].matches(plain))
+                        return i;
+            }
+            case SENDER -> {
+                return senderIndex.get(in.sender);
+            }
+            case GROUP -> {
+                return groupIndex.get(in.group);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 此匹配器是否只由文本关键字条件（CONTAINS、EQUALS、PREFIX、SUFFIX）构成，并且满足任意一个条件即可，
+     * 这样的匹配器可以被 {@link io.github.happysnaker.hbotcore.proxy.HandlerIndex} 精确索引
+     */
+    public boolean isKeywordOnly() {
+        return !matchAll && regex.length == 0 && sender.length == 0 && group.length == 0 && children.length == 0;
+    }
+
+    /**
+     * 获取某个模式下的所有条件
+     *
+     * @param mode 模式
+     * @return 条件的副本
+     */
+    public String[] getConditions(Interest.MODE mode) {
+        return keysOf(mode).clone();
+    }
+
+    /**
+     * 计算此匹配器要求事件必须来自的群，即匹配成功时群号一定在返回的集合中
+     *
+     * @return 群号集合，不受群限制时返回 null，返回空集合则表示永远不会匹配
+     */
+    public Set<Long> requiredGroups() {
+        return required(true);
+    }
+
+    /**
+     * 计算此匹配器要求事件必须来自的发送人，即匹配成功时发送人一定在返回的集合中
+     *
+     * @return 发送人集合，不受发送人限制时返回 null，返回空集合则表示永远不会匹配
+     */
+    public Set<Long> requiredSenders() {
+        return required(false);
+    }
+
+    private Set<Long> required(boolean forGroup) {
+        LongHashMap own = forGroup ? groupIndex : senderIndex;
+        int ownCount = forGroup ? group.length : sender.length;
+        Set<Long> result;
+        if (matchAll) {
+            // 所有条件都必须满足，取交集
+            result = ownCount == 0 ? null : toSet(own);
+            for (InterestMatcher child : children) {
+                Set<Long> r = child.required(forGroup);
+                if (r != null) {
+                    if (result == null) {
+                        result = new HashSet<>(r);
+                    } else {
+                        result.retainAll(r);
+                    }
+                }
+            }
+            return result;
+        }
+        // 任意条件满足即可，只有当所有条件都受限时才受限，取并集
+        int others = contains.length + equals.length + prefix.length + suffix.length + regex.length
+                + (forGroup ? sender.length : group.length);
+        if (others > 0) {
+            return null;
+        }
+        result = toSet(own);
+        for (InterestMatcher child : children) {
+            Set<Long> r = child.required(forGroup);
+            if (r == null) {
+                return null;
+            }
+            result.addAll(r);
+        }
+        return result;
+    }
+
+    private static Set<Long> toSet(LongHashMap index) {
+        Set<Long> set = new HashSet<>();
+        for (long id : index.keys()) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    private String[] keysOf(Interest.MODE mode) {
+        return switch (mode) {
+            case CONTAINS -> contains;
+            case EQUALS -> equals;
+            case PREFIX -> prefix;
+            case SUFFIX -> suffix;
+            case REGEX -> regex;
+            case SENDER -> sender;
+            case GROUP -> group;
+        };
+    }
+
+    private Pair<String, Boolean>[] actionsOf(Interest.MODE mode) {
+        return switch (mode) {
+            case CONTAINS -> containsActions;
+            case EQUALS -> equalsActions;
+            case PREFIX -> prefixActions;
+            case SUFFIX -> suffixActions;
+            case REGEX -> regexActions;
+            case SENDER -> senderActions;
+            case GROUP -> groupActions;
+        };
+    }
+
+
+    /**
+     * 一次匹配的输入，事件信息只提取一次
+     */
+    private static final class Input {
+        final String plain;
+        final long sender;
+        final long group;
+        final byte[] memo;
+
+        Input(String plain, long sender, long group, int memoSize) {
+            this.plain = plain;
+            this.sender = sender;
+            this.group = group;
+            this.memo = memoSize == 0 ? null : new byte[memoSize];
+        }
+    }
+
+    /**
+     * 匹配结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class Match {
+        /**
+         * 触发的条件，可能是字符串条件，也可能是嵌套的 {@link Interest}，如果是 matchAll，则为 Interest 自身
+         */
+        private final Object condition;
+        /**
+         * 触发条件的模式，嵌套条件或 matchAll 时为 null
+         */
+        private final Interest.MODE mode;
+        /**
+         * 条件上绑定的动作，key 是动作，val 为真则是回调，否则是 output，没有动作时为 null
+         */
+        private final Pair<String, Boolean> action;
+    }
+}
@@ -0,0 +1,310 @@
+package io.github.happysnaker.hbotcore.handler;
+
+import io.github.happysnaker.hbotcore.logger.Logger;
+import lombok.Getter;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 预编译的正则条件，由 {@link InterestMatcher} 在编译 REGEX 模式时创建
+ * <p>相同的模式串在全局只会被编译一次，编译时会从模式串中提取出所有匹配时<strong>必须出现</strong>的字面量，
+ * 匹配前先检查这些字面量是否都包含在文本中，不包含则无需运行正则引擎</p>
+ * <p>共享的实例最多缓存 {@link #maxCached} 个，超出时淘汰最久未被获取的模式串；已编译的 {@link InterestMatcher} 仍持有被淘汰的实例，
+ * 只是之后再次获取该模式串时会重新编译</p>
+ * <p>每个模式串都会统计调用次数、被字面量过滤的次数以及正则匹配的耗时，耗时超过 {@link #slowThresholdNanos} 的模式串会输出一次警告，
+ * 可以通过 {@link #statistics()} 查看所有模式串的开销</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class RegexCondition {
+    /**
+     * 单次匹配超过此耗时的模式串会被报告，默认 50ms
+     */
+    public static volatile long slowThresholdNanos = 50_000_000L;
+
+    /**
+     * 最多缓存的模式串数量
+     */
+    public static volatile int maxCached = 1024;
+
+    /**
+     * 按获取顺序排列，只在编译 Interest 时访问，不在匹配路径上
+     */
+    private static final LinkedHashMap<String, RegexCondition> CACHE = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Getter
+    private final String regex;
+    private final Pattern pattern;
+    /**
+     * 匹配成功时文本中必须出现的字面量
+     */
+    private final String[] literals;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile boolean reported;
+
+    private RegexCondition(String regex) {
+        this.regex = regex;
+        this.pattern = Pattern.compile(regex);
+        this.literals = requiredLiterals(regex);
+    }
+
+    /**
+     * 获取模式串对应的条件，相同的模式串共享同一个实例
+     *
+     * @param regex 模式串
+     * @return 预编译的条件
+     * @throws java.util.regex.PatternSyntaxException 模式串不合法
+     */
+    public static RegexCondition of(String regex) {
+        synchronized (CACHE) {
+            RegexCondition condition = CACHE.get(regex);
+            if (condition == null) {
+                condition = new RegexCondition(regex);
+                CACHE.put(regex, condition);
+                // maxCached 可能被调小，一次淘汰到上限以内
+                Iterator<RegexCondition> it = CACHE.values().iterator();
+                while (CACHE.size() > maxCached && it.hasNext()) {
+                    it.next();
+                    it.remove();
+                }
+            }
+            return condition;
+        }
+    }
+
+    /**
+     * 文本是否完全匹配此模式串，语义与 {@link String#matches(String)} 一致
+     */
+    public boolean matches(String text) {
+        calls.increment();
+        for (String literal : literals) {
+            if (!text.contains(literal)) {
+                filtered.increment();
+                return false;
+            }
+        }
+        long start = System.nanoTime();
+        boolean matches = pattern.matcher(text).matches();
+        long cost = System.nanoTime() - start;
+        totalNanos.add(cost);
+        long max = maxNanos.get();
+        while (cost > max && !maxNanos.compareAndSet(max, cost)) {
+            max = maxNanos.get();
+        }
+        if (cost > slowThresholdNanos && !reported) {
+            reported = true;
+            Logger.warning("正则条件 %s 单次匹配耗时 %d ms，文本长度 %d，请检查该模式串是否存在回溯风险",
+                    regex, cost / 1_000_000, text.length());
+        }
+        return matches;
+    }
+
+    /**
+     * @return 匹配时必须出现的字面量的副本
+     */
+    public String[] getLiterals() {
+        return literals.clone();
+    }
+
+    /**
+     * 获取所有缓存中的模式串的开销统计，按正则匹配的总耗时降序排列
+     */
+    public static List<Stat> statistics() {
+        List<RegexCondition> conditions;
+        synchronized (CACHE) {
+            conditions = new ArrayList<>(CACHE.values());
+        }
+        List<Stat> list = new ArrayList<>();
+        for (RegexCondition c : conditions) {
+            list.add(new Stat(c.regex, c.calls.sum(), c.filtered.sum(), c.totalNanos.sum(), c.maxNanos.get()));
+        }
+        list.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        return list;
+    }
+
+    /**
+     * 从模式串中保守地提取匹配时必须出现的字面量
+     * <p>只分析最外层的顺序结构：包含最外层 | 、内联标志、\Q 引用、反向引用或者 \x、\0、\c、\k、\p、\N 以及 Unicode 转义等多字符转义时放弃提取；分组与字符类会截断字面量；
+     * 被 ?、*、{ 修饰的字符不是必需的，被 + 修饰的字符是必需的，但会截断字面量</p>
+     *
+     * @return 必须出现的字面量，无法确定时返回空数组
+     */
+    static String[] requiredLiterals(String regex) {
+        if (regex.contains("(?") || regex.contains("\\Q")) {
+            return new String[0];
+        }
+        List<String> result = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        int n = regex.length();
+        for (int i = 0; i < n; i++) {
+            char c = regex.charAt(i);
+            if (depth > 0) {
+                // 跳过分组内容
+                if (c == '\\') {
+                    i = skipEscape(regex, i);
+                } else if (c == '[') {
+                    i = skipClass(regex, i);
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+                continue;
+            }
+            switch (c) {
+                case '|':
+                    return new String[0];
+                case '(':
+                    depth++;
+                    flush(run, result);
+                    break;
+                case '[':
+                    i = skipClass(regex, i);
+                    flush(run, result);
+                    break;
+                case '.', '^', '$':
+                    flush(run, result);
+                    break;
+                case '?', '*':
+                    dropLast(run);
+                    flush(run, result);
+                    i = skipModifier(regex, i);
+                    break;
+                case '{':
+                    dropLast(run);
+                    flush(run, result);
+                    int close = regex.indexOf('}', i);
+                    i = close < 0 ? n : skipModifier(regex, close);
+                    break;
+                case '+':
+                    flush(run, result);
+                    i = skipModifier(regex, i);
+                    break;
+                case '\\':
+                    if (i + 1 >= n) {
+                        return new String[0];
+                    }
+                    char e = regex.charAt(++i);
+                    if ("xu0ckpPN".indexOf(e) >= 0 || (e >= '1' && e <= '9')) {
+                        // 十六进制、八进制、控制字符、命名分组、字符属性以及反向引用的长度不固定，其后的字符不能视为字面量
+                        return new String[0];
+                    }
+                    if (Character.isLetter(e)) {
+                        // \d \w \b 等都不是字面量
+                        flush(run, result);
+                    } else {
+                        run.append(e);
+                    }
+                    break;
+                default:
+                    run.append(c);
+            }
+        }
+        flush(run, result);
+        return result.toArray(new String[0]);
+    }
+
+    private static int skipClass(String regex, int i) {
+        int j = i + 1;
+        if (j < regex.length() && regex.charAt(j) == '^') {
+            j++;
+        }
+        if (j < regex.length() && regex.charAt(j) == ']') {
+            j++;
+        }
+        int depth = 1;
+        for (; j < regex.length(); j++) {
+            char c = regex.charAt(j);
+            if (c == '\\') {
+                j = skipEscape(regex, j);
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return j;
+            }
+        }
+        return regex.length();
+    }
+
+    /**
+     * 跳过分组或字符类中的转义，\c 之后的字符也属于转义，例如 \c) 不会结束分组
+     *
+     * @return 转义的最后一个字符的下标
+     */
+    private static int skipEscape(String regex, int i) {
+        return i + 1 < regex.length() && regex.charAt(i + 1) == 'c' ? i + 2 : i + 1;
+    }
+
+    /**
+     * 跳过量词之后的懒惰或占有修饰符
+     */
+    private static int skipModifier(String regex, int i) {
+        if (i + 1 < regex.length() && (regex.charAt(i + 1) == '?' || regex.charAt(i + 1) == '+')) {
+            return i + 1;
+        }
+        return i;
+    }
+
+    private static void dropLast(StringBuilder run) {
+        if (!run.isEmpty()) {
+            run.setLength(run.length() - 1);
+        }
+    }
+
+    private static void flush(StringBuilder run, List<String> result) {
+        if (!run.isEmpty()) {
+            result.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+
+    /**
+     * 某个模式串的开销统计
+     */
+    @Getter
+    public static final class Stat {
+        private final String regex;
+        /**
+         * 调用次数
+         */
+        private final long calls;
+        /**
+         * 被字面量过滤、无需运行正则引擎的次数
+         */
+        private final long filtered;
+        /**
+         * 正则匹配的总耗时
+         */
+        private final long totalNanos;
+        /**
+         * 单次正则匹配的最大耗时
+         */
+        private final long maxNanos;
+
+        Stat(String regex, long calls, long filtered, long totalNanos, long maxNanos) {
+            this.regex = regex;
+            this.calls = calls;
+            this.filtered = filtered;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            long executed = calls - filtered;
+            return String.format("%s calls=%d filtered=%d avg=%dns max=%dns", regex, calls, filtered,
+                    executed == 0 ? 0 : totalNanos / executed, maxNanos);
+        }
+    }
+}
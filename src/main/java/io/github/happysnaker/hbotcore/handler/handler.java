@@ -22,4 +22,10 @@ public @interface handler {
      * 是否为一个命令处理器
      */
     boolean isCommandHandler() default false;
+
+    /**
+     * 命令处理器处理的命令名（不含命令前缀），仅在 {@link #isCommandHandler()} 为真时有效
+     * <p>声明了命令名的处理器只会在命令名完全相同时被询问，未声明的处理器对所有命令都会被询问</p>
+     */
+    String[] commands() default {};
 }
@@ -0,0 +1,325 @@
+package io.github.happysnaker.hbotcore.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 日志文件的异步写入器
+ * <p>日志行先进入一个有界环形队列，由单个写线程批量取出，编码到一个复用的缓冲区中，通过一个长期打开的 {@link FileChannel} 一次写入，
+ * 写入期间到达的日志会在下一批中一起写入（组提交），因此吞吐量不受单行写入开销的限制</p>
+ * <p>当前文件的大小记录在内存中，超过 {@link Logger#fileSizeHolder} 时切换到下一个文件，文件命名与以前保持一致：
+ * run.log、run.1.log、run.2.log……；只有在打开文件时才会访问文件系统</p>
+ * <p>队列已满时按照 {@link #overflowPolicy} 处理，被丢弃的行数会以一行提示写入文件</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class FileAppender {
+    /**
+     * 队列已满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞调用者直到队列有空位，这是默认策略，不会丢失日志
+         */
+        BLOCK,
+        /**
+         * 丢弃新的日志
+         */
+        DROP_NEWEST,
+        /**
+         * 丢弃队列中最旧的日志
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * 队列容量（行），在第一次写入日志时生效
+     */
+    public static int queueCapacity = 8192;
+    public static OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final FileAppender INSTANCE = new FileAppender();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private String[] ring;
+    private int head, size;
+    private boolean writerWaiting;
+    /**
+     * 写线程取出的一批日志是否已经写完
+     */
+    private volatile boolean batchEmpty = true;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private volatile Thread writer;
+
+    // 以下字段只由写线程访问
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private String[] batch = new String[0];
+    private FileChannel channel;
+    private String openedBase;
+    private int order;
+    private long fileSize;
+    private long reportedDropped;
+
+    private FileAppender() {
+    }
+
+    public static FileAppender getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 追加一行日志，通常立即返回
+     *
+     * @param line 日志行，应当以换行符结尾
+     */
+    public void append(String line) {
+        start();
+        lock.lock();
+        try {
+            if (ring == null) {
+                ring = new String[Math.max(16, queueCapacity)];
+            }
+            while (size == ring.length) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST -> {
+                        dropped.increment();
+                        return;
+                    }
+                    case DROP_OLDEST -> {
+                        ring[head] = null;
+                        head = (head + 1) % ring.length;
+                        size--;
+                        dropped.increment();
+                    }
+                    default -> notFull.awaitUninterruptibly();
+                }
+            }
+            ring[(head + size) % ring.length] = line;
+            size++;
+            if (writerWaiting) {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 因队列已满而被丢弃的行数
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return 已写入文件的行数
+     */
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    /**
+     * 等待队列中已有的日志写入文件
+     *
+     * @param timeoutMillis 最长等待时间
+     * @return 是否在超时前写完
+     */
+    public boolean flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (true) {
+            lock.lock();
+            try {
+                if (size == 0 && batchEmpty) {
+                    return true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private void start() {
+        if (writer != null) {
+            return;
+        }
+        synchronized (this) {
+            if (writer == null) {
+                Thread t = new Thread(this::loop, "hbot-log-writer");
+                t.setDaemon(true);
+                t.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(2000), "hbot-log-flush"));
+                writer = t;
+            }
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            int n = take();
+            try {
+                write(n);
+            } catch (Throwable e) {
+                // 写文件失败时只能输出到控制台，避免递归写日志
+                e.printStackTrace();
+                closeQuietly();
+            } finally {
+                for (int i = 0; i < n; i++) {
+                    batch[i] = null;
+                }
+                batchEmpty = true;
+            }
+        }
+    }
+
+    /**
+     * 取出队列中所有的日志
+     */
+    private int take() {
+        lock.lock();
+        try {
+            while (size == 0) {
+                writerWaiting = true;
+                notEmpty.awaitUninterruptibly();
+                writerWaiting = false;
+            }
+            if (batch.length < size) {
+                batch = new String[ring.length];
+            }
+            int n = size;
+            for (int i = 0; i < n; i++) {
+                batch[i] = ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+            }
+            size = 0;
+            batchEmpty = false;
+            notFull.signalAll();
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(int n) throws IOException {
+        ensureOpen();
+        for (int i = 0; i < n; i++) {
+            encode(batch[i]);
+        }
+        long total = dropped.sum();
+        if (total > reportedDropped) {
+            encode(String.format("... %d log lines dropped because the log queue is full%n", total - reportedDropped));
+            reportedDropped = total;
+        }
+        drain();
+        written.add(n);
+    }
+
+    private void encode(String line) throws IOException {
+        // 尽量在行边界写入，避免一行日志被切分到两个文件中
+        if (buffer.remaining() < line.length() * 3) {
+            drain();
+        }
+        CharBuffer chars = CharBuffer.wrap(line);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drain();
+                continue;
+            }
+            break;
+        }
+        encoder.reset();
+    }
+
+    /**
+     * 将缓冲区写入文件，必要时切换文件
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        int bytes = buffer.remaining();
+        if (bytes > 0) {
+            if (fileSize > 0 && fileSize + bytes >= Logger.fileSizeHolder) {
+                rotate();
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            fileSize += bytes;
+        }
+        buffer.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        String base = Logger.logFile;
+        if (channel != null && base.equals(openedBase)) {
+            return;
+        }
+        closeQuietly();
+        openedBase = base;
+        order = 0;
+        open();
+    }
+
+    private void rotate() throws IOException {
+        closeQuietly();
+        order++;
+        open();
+    }
+
+    /**
+     * 从当前序号开始，打开第一个未满的文件
+     */
+    private void open() throws IOException {
+        while (true) {
+            File file = order == 0 ? new File(openedBase + ".log") : new File(String.format("%s.%d.log", openedBase, order));
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            long length = file.exists() ? file.length() : 0;
+            if (length == 0 || length < Logger.fileSizeHolder) {
+                channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                fileSize = length;
+                return;
+            }
+            order++;
+        }
+    }
+
+    private void closeQuietly() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+}
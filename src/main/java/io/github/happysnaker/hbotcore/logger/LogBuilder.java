@@ -0,0 +1,97 @@
+package io.github.happysnaker.hbotcore.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 结构化日志的构建器，通过 {@link Logger#atDebug()} 等方法获取，例如：
+ * <pre>{@code
+ * Logger.atInfo().with("url", url).with("cost", cost).log("请求完成");
+ * }</pre>
+ * <p>如果对应级别的日志被禁用，获取到的是一个共享的空实现，所有调用都不会分配内存，也不会计算消息</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public class LogBuilder {
+    static final LogBuilder NOOP = new LogBuilder(-1) {
+        @Override
+        public LogBuilder with(String key, Object value) {
+            return this;
+        }
+
+        @Override
+        public LogBuilder with(String key, Supplier<?> value) {
+            return this;
+        }
+
+        @Override
+        public LogBuilder cause(Throwable cause) {
+            return this;
+        }
+
+        @Override
+        public void log(String message) {
+        }
+
+        @Override
+        public void log(String format, Object... args) {
+        }
+
+        @Override
+        public void log(Supplier<String> message) {
+        }
+    };
+
+    private final int level;
+    private List<Object> fields;
+    private Throwable cause;
+
+    LogBuilder(int level) {
+        this.level = level;
+    }
+
+    /**
+     * 附加一个键值对
+     */
+    public LogBuilder with(String key, Object value) {
+        if (fields == null) {
+            fields = new ArrayList<>(8);
+        }
+        fields.add(key);
+        fields.add(value);
+        return this;
+    }
+
+    /**
+     * 附加一个延迟计算的键值对，<code>with("k", null)</code> 会选择此方法，此时记录为 null
+     */
+    public LogBuilder with(String key, Supplier<?> value) {
+        return with(key, value == null ? null : (Object) value.get());
+    }
+
+    /**
+     * 附加异常，异常栈会追加在消息之后
+     */
+    public LogBuilder cause(Throwable cause) {
+        this.cause = cause;
+        return this;
+    }
+
+    public void log(String message) {
+        Logger.log(level, message, fields == null ? null : fields.toArray(), cause);
+    }
+
+    /**
+     * @param format 支持 {} 占位符或 String.format 格式
+     */
+    public void log(String format, Object... args) {
+        log(Logger.format(format, args));
+    }
+
+    public void log(Supplier<String> message) {
+        log(message.get());
+    }
+}
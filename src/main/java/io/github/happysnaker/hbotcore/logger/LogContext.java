@@ -0,0 +1,87 @@
+package io.github.happysnaker.hbotcore.logger;
+
+import java.util.Arrays;
+
+/**
+ * 当前线程正在处理的事件信息（群号、发送人、处理器），由 {@link io.github.happysnaker.hbotcore.proxy.Context} 在执行事件时设置，
+ * {@link Logger} 输出日志时会自动附带这些信息
+ * <p>事件可能嵌套执行（例如处理器中再次分发事件），因此以栈的形式保存，每个线程复用同一个对象，进入与退出都不分配内存</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class LogContext {
+    private static final ThreadLocal<LogContext> CURRENT = ThreadLocal.withInitial(LogContext::new);
+
+    private long[] groups = new long[4];
+    private long[] senders = new long[4];
+    private Object[] handlers = new Object[4];
+    private int depth;
+
+    private LogContext() {
+    }
+
+    /**
+     * 进入一个事件，必须与 {@link #exit()} 成对调用
+     */
+    public static void enter(long groupId, long senderId) {
+        LogContext c = CURRENT.get();
+        if (c.depth == c.groups.length) {
+            c.groups = Arrays.copyOf(c.groups, c.depth << 1);
+            c.senders = Arrays.copyOf(c.senders, c.depth << 1);
+            c.handlers = Arrays.copyOf(c.handlers, c.depth << 1);
+        }
+        c.groups[c.depth] = groupId;
+        c.senders[c.depth] = senderId;
+        c.handlers[c.depth] = null;
+        c.depth++;
+    }
+
+    /**
+     * 设置当前事件正在执行的处理器
+     */
+    public static void handler(Object handler) {
+        LogContext c = CURRENT.get();
+        if (c.depth > 0) {
+            c.handlers[c.depth - 1] = handler;
+        }
+    }
+
+    /**
+     * 退出当前事件
+     */
+    public static void exit() {
+        LogContext c = CURRENT.get();
+        if (c.depth > 0) {
+            c.handlers[--c.depth] = null;
+        }
+    }
+
+    static LogContext current() {
+        LogContext c = CURRENT.get();
+        return c.depth == 0 ? null : c;
+    }
+
+    long groupId() {
+        return groups[depth - 1];
+    }
+
+    long senderId() {
+        return senders[depth - 1];
+    }
+
+    /**
+     * @return 处理器的类名，没有则返回 null
+     */
+    String handlerName() {
+        Object h = handlers[depth - 1];
+        if (h == null) {
+            return null;
+        }
+        String name = h.getClass().getSimpleName();
+        // Spring 代理类
+        int i = name.indexOf("$$");
+        return i > 0 ? name.substring(0, i) : name;
+    }
+}
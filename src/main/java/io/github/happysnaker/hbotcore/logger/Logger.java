@@ -2,22 +2,25 @@ package io.github.happysnaker.hbotcore.logger;
 
 
 import io.github.happysnaker.hbotcore.boot.HBot;
+import io.github.happysnaker.hbotcore.proxy.EventView;
 import io.github.happysnaker.hbotcore.utils.StringUtil;
-import io.github.happysnaker.hbotcore.utils.IOUtil;
 import io.github.happysnaker.hbotcore.utils.HBotUtil;
-import lombok.SneakyThrows;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
 import net.mamoe.mirai.event.events.MessageEvent;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 
 import static io.github.happysnaker.hbotcore.utils.HBotUtil.getContent;
 
@@ -26,6 +29,8 @@ import static io.github.happysnaker.hbotcore.utils.HBotUtil.getContent;
  * <p><strong>如果用户不想使用 {@link net.mamoe.mirai.utils.MiraiLogger}，可修改 {@link HBot#LOGGER} 对象，此类依赖与此对象进行日志输出</strong></p>
  * <p>HRobot 中日志级别为：DEBUG < INFO < WARNING < ERROR，可以在配置文件中或直接修改此类的静态配置属性 {@link #logLevel}设定输出级别，低于设定级别的日志不会输出</p>
  * <p>HRobot 默认情况下仅会在控制台输出，但是可以通过设置一些属性或者通过配置文件，使得 HRobot 将日志同步写入文件，并可以指定文件的最大阈值，HRobot 支持仅写入警告级别以上的日志与写入所有日志两种配置</p>
+ * <p>格式化日志支持 {} 占位符与 String.format 两种格式，只有级别开启时才会格式化；开销较大的消息可以使用 Supplier 重载，
+ * 需要附带键值对时使用 {@link #atInfo()} 等结构化日志方法。处理事件期间输出的日志会自动附带群号、发送人与处理器，参见 {@link LogContext}</p>
  *
  * @Author happysnaker
  * @Date 2023/2/15
@@ -52,125 +57,423 @@ public class Logger {
     public static int fileSizeHolder = 1024 * 1024 * 10; // 文件大小阈值，以字节为单位
 
     /**
-     * 文件单线程写入
+     * 写入文件的日志是否包含调用者的类名与方法名，获取调用者需要遍历栈帧，关闭后可以提升写日志的吞吐量
+     */
+    public static boolean callerInfo = true;
+
+    /**
+     * 文件单线程写入，日志文件已由 {@link FileAppender} 写入，此线程池仅保留给其他需要串行写文件的任务
      */
     public static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(1);
 
+    /**
+     * 写入文件的日志是否为 JSON 行格式，便于日志采集系统解析
+     */
+    public static boolean jsonLines = false;
 
-    @SneakyThrows
-    private static void toFile(String log, String level) {
-        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
-        for (StackTraceElement e : stack) {
-            if (!e.getClassName().equals(Logger.class.getName()) && !e.getClassName().equals(Thread.class.getName())) {
-                StringBuilder className = new StringBuilder(e.getClassName());
-                String[] split = className.toString().split("\\.");
-                if (split.length >= 3) {
-                    className = new StringBuilder();
-                    for (int i = 0; i < split.length; i++) {
-                        if (i <= 1)
-                            className.append(split[i].charAt(0));
-                        else
-                            className.append(split[i]);
-
-                        if (i != split.length - 1)
-                            className.append('.');
-                    }
-                }
-                log = String.format("%s  %7s ---[%15s] %-40s : %s\n", formatTime(), level, e.getMethodName(), className, log);
-                break;
-            }
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARNING", "ERROR"};
+    private static final String LOGGER_PACKAGE = Logger.class.getPackageName() + ".";
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+    private static final Map<String, String> ABBREVIATIONS = new ConcurrentHashMap<>();
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /**
+     * 最近一次格式化的时间，精确到秒，同一秒内的日志复用同一个字符串
+     */
+    private static volatile CachedTime cachedTime = new CachedTime(Long.MIN_VALUE, "");
+
+    private record CachedTime(long second, String text) {
+    }
+
+
+    /**
+     * 某个级别的日志是否会被输出，开销较大的日志消息应先判断或者使用 Supplier 重载
+     */
+    public static boolean isEnabled(int level) {
+        return level >= logLevel;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(DEBUG);
+    }
+
+    public static boolean isInfoEnabled() {
+        return isEnabled(INFO);
+    }
+
+    /**
+     * 结构化日志，级别被禁用时返回的空实现不会分配内存
+     *
+     * @see LogBuilder
+     */
+    public static LogBuilder atDebug() {
+        return at(DEBUG);
+    }
+
+    public static LogBuilder atInfo() {
+        return at(INFO);
+    }
+
+    public static LogBuilder atWarning() {
+        return at(WARNING);
+    }
+
+    public static LogBuilder atError() {
+        return at(ERROR);
+    }
+
+    private static LogBuilder at(int level) {
+        return isEnabled(level) ? new LogBuilder(level) : LogBuilder.NOOP;
+    }
+
+    /**
+     * 输出日志，所有的日志方法最终都会调用此方法
+     *
+     * @param level   级别
+     * @param message 消息
+     * @param fields  键值对，依次为键、值，可以为 null
+     * @param cause   异常，可以为 null
+     */
+    static void log(int level, String message, Object[] fields, Throwable cause) {
+        if (!isEnabled(level)) {
+            return;
         }
-        File file;
-        byte[] bytes = log.getBytes(StandardCharsets.UTF_8);
-        int order = 0;
-        do {
-            file = order == 0 ? new File(logFile + ".log") : new File(String.format("%s.%d.log", logFile, order));
-            if (!file.exists()) {
-                boolean b = file.createNewFile();
+        LogContext ctx = LogContext.current();
+        String text = message;
+        if (ctx != null || fields != null || cause != null) {
+            StringBuilder sb = new StringBuilder(message.length() + 64).append(message);
+            appendText(sb, ctx, fields);
+            if (cause != null) {
+                sb.append('\n').append(StringUtil.getErrorInfoFromException(cause));
             }
-            order++;
-        } while (!file.exists() || (file.length() != 0 && file.length() + bytes.length >= fileSizeHolder));
+            text = sb.toString();
+        }
+        switch (level) {
+            case DEBUG -> HBot.LOGGER.debug(text);
+            case INFO -> HBot.LOGGER.info(text);
+            case WARNING -> HBot.LOGGER.warning(text);
+            default -> HBot.LOGGER.error(text);
+        }
+        if (toFileMod == ALL_TO_FILE || (toFileMod == WARNING_ERROR_TO_FILE && level >= WARNING)) {
+            FileAppender.getInstance().append(jsonLines
+                    ? jsonLine(level, message, ctx, fields, cause)
+                    : textLine(text, LEVEL_NAMES[level]));
+        }
+    }
 
-        String finalLog = log;
-        File finalFile = file;
-        EXECUTOR.submit(() -> {
+    /**
+     * 格式化消息，如果消息中含有 {} 占位符，则依次替换，否则使用 {@link String#format(String, Object...)}
+     */
+    static String format(String format, Object... args) {
+        if (args == null || args.length == 0) {
+            return format;
+        }
+        int i = format.indexOf("{}");
+        if (i < 0) {
             try {
-                IOUtil.writeToFile(finalFile, finalLog, true);
-            } catch (FileNotFoundException e) {
-                throw new RuntimeException(e);
+                return String.format(format, args);
+            } catch (IllegalFormatException e) {
+                return format + " " + Arrays.toString(args);
             }
-        });
+        }
+        StringBuilder sb = new StringBuilder(format.length() + 32);
+        int from = 0, k = 0;
+        while (i >= 0 && k < args.length) {
+            sb.append(format, from, i).append(args[k++]);
+            from = i + 2;
+            i = format.indexOf("{}", from);
+        }
+        return sb.append(format, from, format.length()).toString();
     }
 
-    public static void debug(Throwable log) {
-        debug(StringUtil.getErrorInfoFromException(log));
+    private static void appendText(StringBuilder sb, LogContext ctx, Object[] fields) {
+        if (ctx != null) {
+            sb.append(" [group=").append(ctx.groupId()).append(" sender=").append(ctx.senderId());
+            String handler = ctx.handlerName();
+            if (handler != null) {
+                sb.append(" handler=").append(handler);
+            }
+            sb.append(']');
+        }
+        if (fields != null) {
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                sb.append(' ').append(fields[i]).append('=').append(fields[i + 1]);
+            }
+        }
     }
 
-    public static void debug(String log) {
-        if (DEBUG >= logLevel) {
-            HBot.LOGGER.debug(log);
-            if (toFileMod == ALL_TO_FILE) {
-                toFile(log, "DEBUG");
+    private static String textLine(String log, String level) {
+        StringBuilder sb = new StringBuilder(64 + log.length()).append(formatTime()).append("  ");
+        pad(sb, level, 7);
+        StackWalker.StackFrame frame = caller();
+        if (frame != null) {
+            sb.append(" ---[");
+            pad(sb, frame.getMethodName(), 15);
+            sb.append("] ");
+            String className = ABBREVIATIONS.computeIfAbsent(frame.getClassName(), Logger::abbreviate);
+            sb.append(className);
+            for (int i = className.length(); i < 40; i++) {
+                sb.append(' ');
+            }
+        }
+        return sb.append(" : ").append(log).append('\n').toString();
+    }
+
+    private static String jsonLine(int level, String message, LogContext ctx, Object[] fields, Throwable cause) {
+        StringBuilder sb = new StringBuilder(128 + message.length());
+        sb.append("{\"time\":\"").append(formatTime()).append("\",\"level\":\"").append(LEVEL_NAMES[level]).append('"');
+        sb.append(",\"thread\":");
+        appendJson(sb, Thread.currentThread().getName());
+        StackWalker.StackFrame frame = caller();
+        if (frame != null) {
+            sb.append(",\"caller\":");
+            appendJson(sb, frame.getClassName() + "#" + frame.getMethodName());
+        }
+        if (ctx != null) {
+            sb.append(",\"group\":").append(ctx.groupId()).append(",\"sender\":").append(ctx.senderId());
+            String handler = ctx.handlerName();
+            if (handler != null) {
+                sb.append(",\"handler\":");
+                appendJson(sb, handler);
+            }
+        }
+        sb.append(",\"msg\":");
+        appendJson(sb, message);
+        if (fields != null) {
+            for (int i = 0; i + 1 < fields.length; i += 2) {
+                sb.append(',');
+                appendJson(sb, String.valueOf(fields[i]));
+                sb.append(':');
+                Object v = fields[i + 1];
+                if (v instanceof Number || v instanceof Boolean) {
+                    sb.append(v);
+                } else {
+                    appendJson(sb, v == null ? null : v.toString());
+                }
+            }
+        }
+        if (cause != null) {
+            sb.append(",\"exception\":");
+            appendJson(sb, StringUtil.getErrorInfoFromException(cause));
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private static void appendJson(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
             }
         }
+        sb.append('"');
+    }
+
+    /**
+     * @return 调用日志方法的栈帧，未开启 {@link #callerInfo} 时返回 null
+     */
+    private static StackWalker.StackFrame caller() {
+        if (!callerInfo) {
+            return null;
+        }
+        return STACK_WALKER.walk(s -> s
+                .filter(f -> !f.getClassName().startsWith(LOGGER_PACKAGE))
+                .findFirst()
+                .orElse(null));
+    }
+
+    /**
+     * 右对齐，与 %Ns 一致
+     */
+    private static void pad(StringBuilder sb, String s, int width) {
+        for (int i = s.length(); i < width; i++) {
+            sb.append(' ');
+        }
+        sb.append(s);
+    }
+
+    /**
+     * io.github.happysnaker.hbotcore.logger.Logger -> i.g.happysnaker.hbotcore.logger.Logger
+     */
+    private static String abbreviate(String className) {
+        String[] split = className.split("\\.");
+        if (split.length < 3) {
+            return className;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < split.length; i++) {
+            if (i <= 1)
+                sb.append(split[i].charAt(0));
+            else
+                sb.append(split[i]);
+
+            if (i != split.length - 1)
+                sb.append('.');
+        }
+        return sb.toString();
+    }
+
+    public static void debug(String log) {
+        log(DEBUG, log, null, null);
+    }
+
+    public static void debug(String format, Object arg) {
+        if (isEnabled(DEBUG)) {
+            log(DEBUG, format(format, arg), null, null);
+        }
+    }
+
+    public static void debug(String format, Object arg1, Object arg2) {
+        if (isEnabled(DEBUG)) {
+            log(DEBUG, format(format, arg1, arg2), null, null);
+        }
     }
 
     public static void debug(String format, Object... args) {
-        debug(String.format(format, args));
+        if (isEnabled(DEBUG)) {
+            log(DEBUG, format(format, args), null, null);
+        }
+    }
+
+    /**
+     * 仅在级别开启时才计算消息
+     */
+    public static void debug(Supplier<String> log) {
+        if (isEnabled(DEBUG)) {
+            log(DEBUG, log.get(), null, null);
+        }
     }
 
+    public static void debug(Throwable log) {
+        if (isEnabled(DEBUG)) {
+            log(DEBUG, StringUtil.getErrorInfoFromException(log), null, null);
+        }
+    }
 
     public static void info(String log) {
-        if (INFO >= logLevel) {
-            HBot.LOGGER.info(log);
-            if (toFileMod == ALL_TO_FILE) {
-                toFile(log, "INFO");
-            }
+        log(INFO, log, null, null);
+    }
+
+    public static void info(String format, Object arg) {
+        if (isEnabled(INFO)) {
+            log(INFO, format(format, arg), null, null);
+        }
+    }
+
+    public static void info(String format, Object arg1, Object arg2) {
+        if (isEnabled(INFO)) {
+            log(INFO, format(format, arg1, arg2), null, null);
         }
     }
 
     public static void info(String format, Object... args) {
-        info(String.format(format, args));
+        if (isEnabled(INFO)) {
+            log(INFO, format(format, args), null, null);
+        }
+    }
+
+    /**
+     * 仅在级别开启时才计算消息
+     */
+    public static void info(Supplier<String> log) {
+        if (isEnabled(INFO)) {
+            log(INFO, log.get(), null, null);
+        }
     }
 
     public static void info(Throwable log) {
-        info(StringUtil.getErrorInfoFromException(log));
+        if (isEnabled(INFO)) {
+            log(INFO, StringUtil.getErrorInfoFromException(log), null, null);
+        }
     }
 
     public static void warning(String log) {
-        if (WARNING >= logLevel) {
-            HBot.LOGGER.warning(log);
-            if (toFileMod == ALL_TO_FILE || toFileMod == WARNING_ERROR_TO_FILE) {
-                toFile(log, "WARNING");
-            }
+        log(WARNING, log, null, null);
+    }
+
+    public static void warning(String format, Object arg) {
+        if (isEnabled(WARNING)) {
+            log(WARNING, format(format, arg), null, null);
+        }
+    }
+
+    public static void warning(String format, Object arg1, Object arg2) {
+        if (isEnabled(WARNING)) {
+            log(WARNING, format(format, arg1, arg2), null, null);
         }
     }
 
     public static void warning(String format, Object... args) {
-        warning(String.format(format, args));
+        if (isEnabled(WARNING)) {
+            log(WARNING, format(format, args), null, null);
+        }
+    }
+
+    /**
+     * 仅在级别开启时才计算消息
+     */
+    public static void warning(Supplier<String> log) {
+        if (isEnabled(WARNING)) {
+            log(WARNING, log.get(), null, null);
+        }
     }
 
     public static void warning(Throwable log) {
-        warning(StringUtil.getErrorInfoFromException(log));
+        if (isEnabled(WARNING)) {
+            log(WARNING, StringUtil.getErrorInfoFromException(log), null, null);
+        }
     }
 
     public static void error(String log) {
-        if (ERROR >= logLevel) {
-            HBot.LOGGER.error(log);
-            if (toFileMod == ALL_TO_FILE || toFileMod == WARNING_ERROR_TO_FILE) {
-                toFile(log, "ERROR");
-            }
+        log(ERROR, log, null, null);
+    }
+
+    public static void error(String format, Object arg) {
+        if (isEnabled(ERROR)) {
+            log(ERROR, format(format, arg), null, null);
         }
     }
 
+    public static void error(String format, Object arg1, Object arg2) {
+        if (isEnabled(ERROR)) {
+            log(ERROR, format(format, arg1, arg2), null, null);
+        }
+    }
 
     public static void error(String format, Object... args) {
-        error(String.format(format, args));
+        if (isEnabled(ERROR)) {
+            log(ERROR, format(format, args), null, null);
+        }
     }
 
+    /**
+     * 仅在级别开启时才计算消息
+     */
+    public static void error(Supplier<String> log) {
+        if (isEnabled(ERROR)) {
+            log(ERROR, log.get(), null, null);
+        }
+    }
 
     public static void error(Throwable log) {
-        error(StringUtil.getErrorInfoFromException(log));
+        if (isEnabled(ERROR)) {
+            log(ERROR, StringUtil.getErrorInfoFromException(log), null, null);
+        }
     }
 
     /**
@@ -181,13 +484,13 @@ public class Logger {
      */
     public static String formatLog(MessageEvent event) {
         if (event == null) return "[" + formatTime() + "]";
+        if (event instanceof GroupMessageEvent groupEvent) {
+            EventView view = EventView.of(groupEvent);
+            return "[sender:" + view.getSenderId() + " - group:" + view.getGroupId() + " - " + formatTime() + "] -> " + view.getContent();
+        }
         String content = HBotUtil.getContent(event);
         String sender = HBotUtil.getSenderId(event);
-        if (!(event instanceof GroupMessageEvent)) {
-            return "[sender:" + sender + "-" + formatTime() + "] -> " + content;
-        }
-        long groupId = ((GroupMessageEvent) event).getGroup().getId();
-        return "[sender:" + sender + " - group:" + groupId + " - " + formatTime() + "] -> " + content;
+        return "[sender:" + sender + "-" + formatTime() + "] -> " + content;
     }
 
 
@@ -196,8 +499,12 @@ public class Logger {
     }
 
     private static String formatTime(long ts) {
-        Date d = new Date(ts);
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        return sdf.format(d);
+        long second = Math.floorDiv(ts, 1000);
+        CachedTime cached = cachedTime;
+        if (cached.second() != second) {
+            String text = TIME_FORMATTER.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZoneId.systemDefault()));
+            cachedTime = cached = new CachedTime(second, text);
+        }
+        return cached.text();
     }
 }
@@ -0,0 +1,75 @@
+package io.github.happysnaker.hbotcore.metrics;
+
+/**
+ * 直方图的只读快照，所有耗时均以纳秒为单位
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class HistogramSnapshot {
+    private final String name;
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(String name, long[] counts, long count, long sum, long max) {
+        this.name = name;
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return 耗时总和
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * 计算分位数，例如 percentile(99) 为 P99
+     *
+     * @param p 0 ~ 100
+     * @return 分位数，没有记录时返回 0
+     */
+    public long percentile(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, Math.max(0, p)) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.valueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s count=%d mean=%s p50=%s p99=%s max=%s", name, count,
+                Metrics.formatNanos(getMean()), Metrics.formatNanos(percentile(50)),
+                Metrics.formatNanos(percentile(99)), Metrics.formatNanos(max));
+    }
+}
@@ -0,0 +1,184 @@
+package io.github.happysnaker.hbotcore.metrics;
+
+import io.github.happysnaker.hbotcore.proxy.ContinuousDialogue;
+import io.github.happysnaker.hbotcore.proxy.EventDispatcher;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 指标注册表，{@link io.github.happysnaker.hbotcore.proxy.Context} 会自动记录以下指标：
+ * <ul>
+ *     <li>handler.{类名}.shouldHandle / handler.{类名}.handle：处理器两个方法的耗时，handler.{类名}.skipped 为被候选索引直接跳过、未调用 shouldHandle 的次数，
+ *     handler.{类名}.errors 为抛出异常的次数</li>
+ *     <li>interceptor.{类名}.before / interceptor.{类名}.after：拦截器的耗时，interceptor.{类名}.intercepted 为拦截的次数</li>
+ *     <li>event.execute：一个事件从进入 Context 到回复完成的总耗时</li>
+ *     <li>reply.send / reply.failures：发送回复的耗时与失败次数</li>
+ *     <li>dispatch.queued / dispatch.dropped / dialogue.pending：排队中的事件数、被丢弃的事件数、等待中的连续对话数</li>
+ * </ul>
+ * <p>计数器使用 {@link LongAdder}，直方图参见 {@link Histogram}，记录时不会加锁也不会分配对象；用户也可以通过
+ * {@link #counter(String)}、{@link #histogram(String)} 注册自己的指标，通过 {@link #snapshot()} 获取所有指标，
+ * 管理员可以使用 #metrics 命令查看</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class Metrics {
+    /**
+     * 是否记录处理器与拦截器的耗时，关闭后 Context 不会再调用 {@link System#nanoTime()}
+     */
+    public static boolean enable = true;
+
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+
+    public static final Histogram EVENT = histogram("event.execute");
+    public static final Histogram REPLY = histogram("reply.send");
+    public static final LongAdder REPLY_FAILURES = counter("reply.failures");
+
+    private static final ClassValue<HandlerStats> HANDLERS = new ClassValue<>() {
+        @Override
+        protected HandlerStats computeValue(Class<?> type) {
+            String prefix = "handler." + nameOf(type);
+            return new HandlerStats(histogram(prefix + ".shouldHandle"), histogram(prefix + ".handle"),
+                    counter(prefix + ".skipped"), counter(prefix + ".errors"));
+        }
+    };
+
+    private static final ClassValue<InterceptorStats> INTERCEPTORS = new ClassValue<>() {
+        @Override
+        protected InterceptorStats computeValue(Class<?> type) {
+            String prefix = "interceptor." + nameOf(type);
+            return new InterceptorStats(histogram(prefix + ".before"), histogram(prefix + ".after"), counter(prefix + ".intercepted"));
+        }
+    };
+
+    static {
+        gauge("dispatch.queued", EventDispatcher::getQueuedCount);
+        gauge("dispatch.dropped", EventDispatcher::getDroppedCount);
+        gauge("dialogue.pending", ContinuousDialogue::getPendingCount);
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * 获取或注册一个直方图
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, Histogram::new);
+    }
+
+    /**
+     * 获取或注册一个计数器
+     */
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * 注册一个瞬时值，仅在获取快照时调用，同名的会被覆盖
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * 处理器的指标，以处理器的类名区分，同名的类共享指标
+     */
+    public static HandlerStats handler(Object handler) {
+        return HANDLERS.get(handler.getClass());
+    }
+
+    /**
+     * 拦截器的指标，以拦截器的类名区分，同名的类共享指标
+     */
+    public static InterceptorStats interceptor(Object interceptor) {
+        return INTERCEPTORS.get(interceptor.getClass());
+    }
+
+    /**
+     * @return 所有指标的快照，按名称排序
+     */
+    public static MetricsSnapshot snapshot() {
+        Map<String, Long> counters = new TreeMap<>();
+        COUNTERS.forEach((k, v) -> counters.put(k, v.sum()));
+        GAUGES.forEach((k, v) -> counters.put(k, v.getAsLong()));
+        Map<String, HistogramSnapshot> histograms = new TreeMap<>();
+        HISTOGRAMS.forEach((k, v) -> histograms.put(k, v.snapshot()));
+        return new MetricsSnapshot(System.currentTimeMillis(), counters, histograms);
+    }
+
+    /**
+     * 清空所有计数器与直方图，瞬时值不受影响
+     */
+    public static void reset() {
+        COUNTERS.values().forEach(LongAdder::reset);
+        HISTOGRAMS.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * 将纳秒格式化为易读的形式，例如 850ns、12.3us、4.5ms、1.2s
+     */
+    public static String formatNanos(long nanos) {
+        if (nanos < 1000) {
+            return nanos + "ns";
+        }
+        if (nanos < 1000_000) {
+            return String.format("%.1fus", nanos / 1e3);
+        }
+        if (nanos < 1000_000_000) {
+            return String.format("%.1fms", nanos / 1e6);
+        }
+        return String.format("%.1fs", nanos / 1e9);
+    }
+
+    /**
+     * 类名，去除 Spring 代理的后缀
+     */
+    static String nameOf(Class<?> type) {
+        String name = type.getSimpleName();
+        int i = name.indexOf("$$");
+        if (i > 0) {
+            return name.substring(0, i);
+        }
+        return name.isEmpty() ? type.getName() : name;
+    }
+
+    /**
+     * 一个处理器的指标
+     */
+    public static final class HandlerStats {
+        public final Histogram shouldHandle;
+        public final Histogram handle;
+        public final LongAdder skipped;
+        public final LongAdder errors;
+
+        HandlerStats(Histogram shouldHandle, Histogram handle, LongAdder skipped, LongAdder errors) {
+            this.shouldHandle = shouldHandle;
+            this.handle = handle;
+            this.skipped = skipped;
+            this.errors = errors;
+        }
+    }
+
+    /**
+     * 一个拦截器的指标
+     */
+    public static final class InterceptorStats {
+        public final Histogram before;
+        public final Histogram after;
+        public final LongAdder intercepted;
+
+        InterceptorStats(Histogram before, Histogram after, LongAdder intercepted) {
+            this.before = before;
+            this.after = after;
+            this.intercepted = intercepted;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.happysnaker.hbotcore.metrics;
+
+import io.github.happysnaker.hbotcore.command.CommandView;
+import io.github.happysnaker.hbotcore.command.HBotCommandEventHandlerManager;
+import io.github.happysnaker.hbotcore.exception.CanNotParseCommandException;
+import io.github.happysnaker.hbotcore.exception.InsufficientPermissionsException;
+import io.github.happysnaker.hbotcore.handler.handler;
+import io.github.happysnaker.hbotcore.permisson.Permission;
+import io.github.happysnaker.hbotcore.permisson.PermissionManager;
+import io.github.happysnaker.hbotcore.proxy.Context;
+import io.github.happysnaker.hbotcore.proxy.EventView;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.MessageChain;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内置的指标查看命令，仅机器人管理员可用：
+ * <ul>
+ *     <li>#metrics：事件总耗时、队列状态，以及总耗时最多的若干项</li>
+ *     <li>#metrics 关键字：名称中包含关键字的所有指标，例如 #metrics MyHandler</li>
+ *     <li>#metrics reset：清空所有指标</li>
+ * </ul>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@handler(isCommandHandler = true, commands = MetricsCommandHandler.COMMAND)
+@Permission(PermissionManager.BOT_ADMINISTRATOR)
+public class MetricsCommandHandler extends HBotCommandEventHandlerManager {
+    public static final String COMMAND = "metrics";
+
+    /**
+     * 不带关键字时最多展示的直方图数
+     */
+    public static int topN = 10;
+
+    @Override
+    public List<MessageChain> parseCommand(GroupMessageEvent event, Context context) throws CanNotParseCommandException, InsufficientPermissionsException {
+        List<String> args = command(event, context).getArgList();
+        if (!args.isEmpty() && args.get(0).equals("reset")) {
+            Metrics.reset();
+            return buildMessageChainAsSingletonList(getQuoteReply(event), "指标已清空");
+        }
+        String keyword = args.isEmpty() ? null : args.get(0);
+        return buildMessageChainAsSingletonList(getQuoteReply(event), report(Metrics.snapshot(), keyword));
+    }
+
+    @Override
+    public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
+        CommandView command = command(event, ctx);
+        return command != null && command.getName().equals(COMMAND);
+    }
+
+    private static CommandView command(GroupMessageEvent event, Context ctx) {
+        return EventView.of(event, ctx).getCommand();
+    }
+
+    /**
+     * 生成文本报告
+     *
+     * @param snapshot 快照
+     * @param keyword  关键字，为 null 时输出概要
+     */
+    public static String report(MetricsSnapshot snapshot, String keyword) {
+        StringBuilder sb = new StringBuilder();
+        if (keyword == null) {
+            HistogramSnapshot event = snapshot.getHistogram("event.execute");
+            if (event != null) {
+                sb.append(event).append('\n');
+            }
+            sb.append(String.format("queued=%d dropped=%d dialogues=%d replyFailures=%d%n",
+                    snapshot.getCounter("dispatch.queued"), snapshot.getCounter("dispatch.dropped"),
+                    snapshot.getCounter("dialogue.pending"), snapshot.getCounter("reply.failures")));
+            sb.append("---- 总耗时 TOP ").append(topN).append(" ----\n");
+            snapshot.getHistogramsByTotalTime().stream()
+                    .filter(h -> !h.getName().equals("event.execute"))
+                    .limit(topN)
+                    .forEach(h -> appendHistogram(sb, snapshot, h));
+        } else {
+            for (Map.Entry<String, Long> e : snapshot.getCounters().entrySet()) {
+                if (e.getKey().contains(keyword)) {
+                    sb.append(e.getKey()).append('=').append(e.getValue()).append('\n');
+                }
+            }
+            for (HistogramSnapshot h : snapshot.getHistograms().values()) {
+                if (h.getName().contains(keyword)) {
+                    appendHistogram(sb, snapshot, h);
+                }
+            }
+            if (sb.isEmpty()) {
+                sb.append("没有名称包含 ").append(keyword).append(" 的指标");
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    private static void appendHistogram(StringBuilder sb, MetricsSnapshot snapshot, HistogramSnapshot h) {
+        sb.append(h);
+        // 处理器的命中率：handle 次数 / 到达该处理器的事件数，被候选索引跳过的事件也计入分母
+        if (h.getName().startsWith("handler.") && h.getName().endsWith(".handle")) {
+            String name = h.getName().substring(0, h.getName().length() - ".handle".length());
+            HistogramSnapshot asked = snapshot.getHistogram(name + ".shouldHandle");
+            long reached = (asked == null ? 0 : asked.getCount()) + snapshot.getCounter(name + ".skipped");
+            if (reached > 0) {
+                sb.append(String.format(" hit=%.1f%%", h.getCount() * 100.0 / reached));
+            }
+        }
+        sb.append('\n');
+    }
+}
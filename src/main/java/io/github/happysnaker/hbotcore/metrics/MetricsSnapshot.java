@@ -0,0 +1,63 @@
+package io.github.happysnaker.hbotcore.metrics;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 某一时刻所有指标的只读快照
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class MetricsSnapshot {
+    private final long timestamp;
+    private final Map<String, Long> counters;
+    private final Map<String, HistogramSnapshot> histograms;
+
+    MetricsSnapshot(long timestamp, Map<String, Long> counters, Map<String, HistogramSnapshot> histograms) {
+        this.timestamp = timestamp;
+        this.counters = counters;
+        this.histograms = histograms;
+    }
+
+    /**
+     * @return 快照的时间戳（毫秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return 计数器与瞬时值，按名称排序
+     */
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    /**
+     * @return 直方图，按名称排序
+     */
+    public Map<String, HistogramSnapshot> getHistograms() {
+        return histograms;
+    }
+
+    public long getCounter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    public HistogramSnapshot getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    /**
+     * @return 有记录的直方图，按总耗时降序排列，即时间主要花在了哪里
+     */
+    public List<HistogramSnapshot> getHistogramsByTotalTime() {
+        return histograms.values().stream()
+                .filter(h -> h.getCount() > 0)
+                .sorted(Comparator.comparingLong(HistogramSnapshot::getSum).reversed())
+                .toList();
+    }
+}
@@ -1,13 +1,14 @@
 package io.github.happysnaker.hbotcore.permisson;
 
+import io.github.happysnaker.hbotcore.config.ConfigListener;
 import io.github.happysnaker.hbotcore.config.ConfigManager;
 import io.github.happysnaker.hbotcore.proxy.Context;
-import io.github.happysnaker.hbotcore.utils.HBotUtil;
-import io.github.happysnaker.hbotcore.utils.MapGetter;
+import io.github.happysnaker.hbotcore.utils.LongHashMap;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
 import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Service;
 
+import java.lang.reflect.Field;
 import java.util.*;
 
 /**
@@ -20,6 +21,9 @@ import java.util.*;
  * </ul>
  * 如果未按标准定义，则会抛出运行时异常
  * </p>
+ * <p>权限配置会在第一次使用时被读取并构建为索引，此后的权限判断只是几次哈希查找；配置重载时，此类作为 {@link ConfigListener} 会丢弃索引。
+ * 每次判断前会以配置对象的引用与 hashCode 校验索引，因此在代码中直接修改权限配置（例如 <code>botAdministrator.add(qq)</code> 或者重新赋值）也会立即生效，
+ * 与旧版本每次读取配置的行为一致</p>
  *
  * @Author happysnaker
  * @Date 2023/4/21
@@ -27,15 +31,19 @@ import java.util.*;
  */
 @Service("hbotPermissionManager")
 @Order
-public class DefaultPermissionManager implements PermissionManager {
+public class DefaultPermissionManager implements PermissionManager, ConfigListener {
+    private static final String[] CONFIG_FIELDS = {"botSuperAdministrator", "botAdministrator", "botGroupAdministrator"};
+    private static final Set<String> CONFIG_NAMES = Set.of(CONFIG_FIELDS);
+
+    private volatile PermissionIndex index;
 
     @Override
     public boolean hasPermission(int perm, GroupMessageEvent event, Context ctx) {
+        long sender = event.getSender().getId();
         return switch (perm) {
-            case BOT_SUPER_ADMINISTRATOR -> hasSuperAdmin(HBotUtil.getSenderId(event));
-            case BOT_ADMINISTRATOR -> hasAdmin(HBotUtil.getSenderId(event));
-            case BOT_GROUP_ADMINISTRATOR ->
-                    hasGroupAdmin(HBotUtil.getSenderId(event), String.valueOf(event.getGroup().getId()));
+            case BOT_SUPER_ADMINISTRATOR -> index().isSuperAdmin(sender);
+            case BOT_ADMINISTRATOR -> index().isAdmin(sender);
+            case BOT_GROUP_ADMINISTRATOR -> index().isGroupAdmin(sender, event.getGroup().getId());
             default -> false;
         };
     }
@@ -51,51 +59,203 @@ public class DefaultPermissionManager implements PermissionManager {
 
 
     public boolean hasSuperAdmin(String sender) {
-        Object config = ConfigManager.getConfig("botSuperAdministrator");
-        if (config instanceof String && sender.equals(config)) {
-            return true;
-        }
-        if (config instanceof Collection<?> coll && coll.iterator().hasNext()) {
-            return coll.iterator().next().toString().equals(sender);
-        }
-        return config != null && config.toString().equals(sender);
+        long id = parseId(sender);
+        return id >= 0 && index().isSuperAdmin(id);
     }
 
     public boolean hasAdmin(String sender) {
-        if (hasSuperAdmin(sender)) {
-            return true;
+        long id = parseId(sender);
+        return id >= 0 && index().isAdmin(id);
+    }
+
+    public boolean hasGroupAdmin(String sender, String gid) {
+        long id = parseId(sender);
+        if (id < 0) {
+            return false;
+        }
+        if (gid == null) {
+            return index().isGroupAdminOfAny(id);
         }
-        Object config = ConfigManager.getConfig("botAdministrator");
+        long group = parseId(gid);
+        return group >= 0 && index().isGroupAdmin(id, group);
+    }
 
-        if (config instanceof Collection<?> coll) {
-            for (Object o : coll) {
-                if (o != null && String.valueOf(o).equals(sender)) {
-                    return true;
-                }
-            }
+    /**
+     * 丢弃权限索引，下一次权限判断时重新读取配置
+     */
+    public void invalidate() {
+        index = null;
+    }
+
+    @Override
+    public Set<String> listenOn() {
+        return CONFIG_NAMES;
+    }
+
+    @Override
+    public void actionBefore(Object oldData, Object newData, String name) {
+        // do nothing
+    }
+
+    @Override
+    public void actionAfter(Object oldData, Object newData, String name) {
+        invalidate();
+    }
+
+    private PermissionIndex index() {
+        PermissionIndex idx = index;
+        if (idx == null || idx.isStale()) {
+            index = idx = new PermissionIndex(idx == null ? null : idx.fields);
         }
-        return config != null && config.toString().equals(sender);
+        return idx;
     }
 
-    public boolean hasGroupAdmin(String sender, String gid) {
-        if (hasAdmin(sender)) {
-            return true;
+    private static long parseId(Object o) {
+        if (o == null) {
+            return -1;
         }
-        Object config = ConfigManager.getConfig("botGroupAdministrator");
-        if (config instanceof Map<?, ?> map) {
-            MapGetter mg = new MapGetter(map);
-            for (Map.Entry<?, ?> entry : map.entrySet()) {
-                String key = entry.getKey().toString();
-                if (!key.equals(sender)) {
-                    continue;
+        try {
+            return Long.parseLong(o.toString().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+
+    /**
+     * 权限配置的只读索引，管理员包含超级管理员，群管理员的判断包含管理员
+     */
+    private static final class PermissionIndex {
+        private final LongHashMap superAdmins = new LongHashMap(1);
+        private final LongHashMap admins = new LongHashMap();
+        /**
+         * 群管理员 -> groups 中的下标
+         */
+        private final LongHashMap groupAdmins = new LongHashMap();
+        /**
+         * 群管理员管理的群，null 表示管理所有群
+         */
+        private final List<LongHashMap> groups = new ArrayList<>();
+        /**
+         * 超级管理员、管理员与群管理员配置对应的字段，以及构建时的配置对象与其 hashCode
+         */
+        private final Field[] fields;
+        private final Object[] configs;
+        private final int[] hashes;
+
+        /**
+         * @param fields 已解析的配置字段，为 null 时重新解析
+         */
+        PermissionIndex(Field[] fields) {
+            if (fields == null) {
+                fields = new Field[CONFIG_FIELDS.length];
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = ConfigManager.getConfigField(CONFIG_FIELDS[i]);
                 }
-                if (gid == null) {
+            }
+            this.fields = fields;
+            this.configs = new Object[fields.length];
+            this.hashes = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                configs[i] = read(fields[i]);
+                hashes[i] = Objects.hashCode(configs[i]);
+            }
+            Object superConfig = configs[0], adminConfig = configs[1], groupConfig = configs[2];
+            // 超级管理员最多只允许有 1 位，集合中只有第一位生效
+            if (superConfig instanceof Collection<?> coll) {
+                if (!coll.isEmpty()) {
+                    addId(superAdmins, coll.iterator().next());
+                }
+            } else {
+                addId(superAdmins, superConfig);
+            }
+            for (long id : superAdmins.keys()) {
+                admins.put(id, 0);
+            }
+            if (adminConfig instanceof Collection<?> coll) {
+                for (Object o : coll) {
+                    addId(admins, o);
+                }
+            } else {
+                addId(admins, adminConfig);
+            }
+            if (groupConfig instanceof Map<?, ?> map) {
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    long user = parseId(entry.getKey());
+                    if (user < 0 || groupAdmins.containsKey(user)) {
+                        continue;
+                    }
+                    LongHashMap set = new LongHashMap();
+                    if (entry.getValue() instanceof Collection<?> coll) {
+                        for (Object o : coll) {
+                            addId(set, o);
+                        }
+                    } else {
+                        addId(set, entry.getValue());
+                    }
+                    groupAdmins.put(user, groups.size());
+                    groups.add(set);
+                }
+            } else if (groupConfig != null) {
+                // 非 Map 的配置视为对所有群都有权限的群管理员
+                long user = parseId(groupConfig);
+                if (user >= 0) {
+                    groupAdmins.put(user, groups.size());
+                    groups.add(null);
+                }
+            }
+        }
+
+        /**
+         * @return 配置是否被重新赋值或者被修改
+         */
+        boolean isStale() {
+            for (int i = 0; i < fields.length; i++) {
+                Object config = read(fields[i]);
+                if (config != configs[i] || Objects.hashCode(config) != hashes[i]) {
                     return true;
                 }
-                List<Object> perms = mg.getListOrWrapperSingleton(key, Object.class);
-                return perms.stream().anyMatch(o -> o.toString().equals(gid));
             }
+            return false;
+        }
+
+        private static Object read(Field field) {
+            try {
+                return field.get(null);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private static void addId(LongHashMap set, Object o) {
+            long id = parseId(o);
+            if (id >= 0) {
+                set.put(id, 0);
+            }
+        }
+
+        boolean isSuperAdmin(long user) {
+            return superAdmins.containsKey(user);
+        }
+
+        boolean isAdmin(long user) {
+            return admins.containsKey(user);
+        }
+
+        boolean isGroupAdmin(long user, long group) {
+            if (admins.containsKey(user)) {
+                return true;
+            }
+            int i = groupAdmins.get(user);
+            if (i < 0) {
+                return false;
+            }
+            LongHashMap set = groups.get(i);
+            return set == null || set.containsKey(group);
+        }
+
+        boolean isGroupAdminOfAny(long user) {
+            return admins.containsKey(user) || groupAdmins.containsKey(user);
         }
-        return config != null && config.toString().equals(sender);
     }
 }
@@ -302,10 +302,9 @@ public class HBotPluginRegister {
             throw new IllegalArgumentException("There are some handlers not annotation with handler");
         }
         MessageHandlerProxy proxy = (MessageHandlerProxy) HBot.applicationContext.getBean("proxyHandler");
+        List<MessageEventHandler> added = new ArrayList<>();
         for (MessageEventHandler handler : handlers) {
-            if (proxy.getHandlers()
-                    .stream()
-                    .anyMatch(curr -> curr.getClass().getName().equals(handler.getClass().getName()))) {
+            if (proxy.getDispatchTable().containsHandler(handler.getClass().getName())) {
                 continue;
             }
             if (handler.getClass().isAnnotationPresent(InterestFilter.class)) {
@@ -314,20 +313,10 @@ public class HBotPluginRegister {
             if (handler.getClass().isAnnotationPresent(InterestFilters.class)) {
                 InterestFilterPostProcessor.injectInterestFilters(handler);
             }
-            proxy.getHandlers().add(handler);
+            added.add(handler);
         }
-        proxy.getHandlers().sort((a, b) -> {
-            handler annotation0 = a.getClass().getAnnotation(handler.class);
-            handler annotation1 = b.getClass().getAnnotation(handler.class);
-            if (annotation0.isCommandHandler() || annotation1.isCommandHandler()) {
-                if (!annotation0.isCommandHandler() || !annotation1.isCommandHandler()) {
-                    return annotation0.isCommandHandler() ? -1 : 1;
-                }
-            }
-            int aa = annotation0.priority();
-            int bb = annotation1.priority();
-            return bb - aa;
-        });
+        // 一次性替换分发表，正在处理的事件不受影响
+        proxy.registerHandlers(added);
     }
 
 
@@ -352,28 +341,7 @@ public class HBotPluginRegister {
             throw new IllegalArgumentException("There are some handlers not annotation with handler");
         }
         MessageHandlerProxy proxy = (MessageHandlerProxy) HBot.applicationContext.getBean("proxyHandler");
-        for (var interceptor : interceptors) {
-            if (proxy.getPreInterceptors()
-                    .stream()
-                    .noneMatch(curr -> curr.getClass().getName().equals(interceptor.getClass().getName()))) {
-                proxy.getPreInterceptors().add(interceptor);
-            }
-            if (proxy.getPostInterceptors()
-                    .stream()
-                    .noneMatch(curr -> curr.getClass().getName().equals(interceptor.getClass().getName()))) {
-                proxy.getPostInterceptors().add(interceptor);
-            }
-        }
-        proxy.getPreInterceptors().sort((a, b) -> {
-            int aa = a.getClass().getAnnotation(Intercept.class).preOrder();
-            int bb = b.getClass().getAnnotation(Intercept.class).preOrder();
-            return bb - aa;
-        });
-        proxy.getPostInterceptors().sort((a, b) -> {
-            int aa = a.getClass().getAnnotation(Intercept.class).postOrder();
-            int bb = b.getClass().getAnnotation(Intercept.class).postOrder();
-            return bb - aa;
-        });
+        proxy.registerInterceptors(interceptors);
     }
 
     /**
@@ -414,7 +382,7 @@ public class HBotPluginRegister {
      */
     public static void unRegisterHandler(List<Class<? extends MessageEventHandler>> handlers) {
         MessageHandlerProxy proxy = (MessageHandlerProxy) HBot.applicationContext.getBean("proxyHandler");
-        handlers.forEach(del -> removeOnClassEquals(proxy.getHandlers(), del.getName()));
+        proxy.unRegisterHandlers(handlers.stream().map(Class::getName).collect(Collectors.toSet()));
     }
 
     /**
@@ -434,8 +402,7 @@ public class HBotPluginRegister {
      */
     public static void unRegisterInterceptor(List<Class<? extends Interceptor>> interceptors) {
         MessageHandlerProxy proxy = (MessageHandlerProxy) HBot.applicationContext.getBean("proxyHandler");
-        interceptors.forEach(del -> removeOnClassEquals(proxy.getPreInterceptors(), del.getName()));
-        interceptors.forEach(del -> removeOnClassEquals(proxy.getPostInterceptors(), del.getName()));
+        proxy.unRegisterInterceptors(interceptors.stream().map(Class::getName).collect(Collectors.toSet()));
     }
 
     /**
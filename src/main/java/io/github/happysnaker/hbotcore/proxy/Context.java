@@ -5,9 +5,10 @@ import io.github.happysnaker.hbotcore.MyHandler;
 import io.github.happysnaker.hbotcore.exception.CanNotSendMessageException;
 import io.github.happysnaker.hbotcore.handler.MessageEventHandler;
 import io.github.happysnaker.hbotcore.intercept.Interceptor;
+import io.github.happysnaker.hbotcore.logger.LogContext;
 import io.github.happysnaker.hbotcore.logger.Logger;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
 import io.github.happysnaker.hbotcore.permisson.Permission;
-import lombok.Getter;
 import lombok.SneakyThrows;
 import net.mamoe.mirai.contact.Contact;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
@@ -15,6 +16,8 @@ import net.mamoe.mirai.event.events.MessageEvent;
 import net.mamoe.mirai.message.data.MessageChain;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,13 +31,25 @@ import java.util.concurrent.ConcurrentHashMap;
  * @email happysnaker@foxmail.com
  */
 public class Context {
-    private final Map<String, Object> params = new ConcurrentHashMap<>();
-    @Getter
-    private final List<MessageEventHandler> handlerList;
-    @Getter
-    private final List<Interceptor> preInterceptorList;
-    @Getter
-    private final List<Interceptor> postInterceptorList;
+    private Map<String, Object> params;
+    /**
+     * 分发表中的处理器数组，只读，在需要修改执行链时才会复制为 {@link #handlerList}
+     */
+    private MessageEventHandler[] handlers;
+    private List<MessageEventHandler> handlerList;
+    /**
+     * {@link #handlers} 对应的候选索引，执行链被修改后不再使用
+     */
+    private HandlerIndex handlerIndex;
+    private long[] candidates;
+    private EventView view;
+    /**
+     * 分发表中的拦截器数组，只读，在需要修改时才会复制为对应的列表
+     */
+    private Interceptor[] preInterceptors;
+    private Interceptor[] postInterceptors;
+    private List<Interceptor> preInterceptorList;
+    private List<Interceptor> postInterceptorList;
     private String message;
     private int index;
     private boolean execute;
@@ -53,10 +68,104 @@ public class Context {
         this.postInterceptorList = postInterceptorList;
     }
 
+    /**
+     * 由 {@link MessageHandlerProxy} 调用，直接引用分发表中的数组，数组不会被修改
+     */
+    Context(MessageEventHandler[] handlers, HandlerIndex handlerIndex, Interceptor[] preInterceptors, Interceptor[] postInterceptors) {
+        this.handlers = handlers;
+        this.handlerIndex = handlerIndex;
+        this.preInterceptors = preInterceptors;
+        this.postInterceptors = postInterceptors;
+    }
+
+    /**
+     * 获取本次事件的只读视图，在 {@link #execute(GroupMessageEvent)} 开始后可用
+     */
+    public EventView getView() {
+        return view;
+    }
+
+    Context setView(EventView view) {
+        this.view = view;
+        return this;
+    }
+
+    /**
+     * 获取本次事件的处理器执行链，对返回列表的修改会影响本次事件的执行
+     */
+    public List<MessageEventHandler> getHandlerList() {
+        return mutableHandlers();
+    }
+
+    /**
+     * 获取本次事件的前置拦截器，对返回列表的修改只影响本次事件，需要全局修改时请使用 {@link MessageHandlerProxy#registerInterceptors}
+     */
+    public List<Interceptor> getPreInterceptorList() {
+        if (preInterceptorList == null) {
+            preInterceptorList = new ArrayList<>(Arrays.asList(preInterceptors));
+            preInterceptors = null;
+        }
+        return preInterceptorList;
+    }
+
+    /**
+     * 获取本次事件的后置拦截器，对返回列表的修改只影响本次事件
+     *
+     * @see #getPreInterceptorList()
+     */
+    public List<Interceptor> getPostInterceptorList() {
+        if (postInterceptorList == null) {
+            postInterceptorList = new ArrayList<>(Arrays.asList(postInterceptors));
+            postInterceptors = null;
+        }
+        return postInterceptorList;
+    }
+
+    /**
+     * 写时复制，分发表中的数组是所有事件共享的
+     */
+    private List<MessageEventHandler> mutableHandlers() {
+        if (handlerList == null) {
+            handlerList = new ArrayList<>(Arrays.asList(handlers));
+            handlers = null;
+            handlerIndex = null;
+        }
+        return handlerList;
+    }
+
+    private int handlerCount() {
+        return handlerList == null ? handlers.length : handlerList.size();
+    }
+
+    private MessageEventHandler handlerAt(int i) {
+        return handlerList == null ? handlers[i] : handlerList.get(i);
+    }
+
+    /**
+     * 根据候选索引判断第 i 个处理器是否一定对此事件不感兴趣，执行链被修改后总是返回 false
+     */
+    private boolean canSkip(int i, MessageEventHandler handler) {
+        HandlerIndex index = handlerIndex;
+        return index != null && candidates != null && index.canSkip(candidates, i, handler);
+    }
+
+    private boolean containsHandlerClass(MessageEventHandler handler) {
+        String name = handler.getClass().getName();
+        for (int i = 0; i < handlerCount(); i++) {
+            if (handlerAt(i).getClass().getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 设置参数，这将在 handler 之间传递
      */
     public Context set(String key, Object val) {
+        if (params == null) {
+            params = new ConcurrentHashMap<>();
+        }
         params.put(key, val);
         return this;
     }
@@ -65,7 +174,7 @@ public class Context {
      * 获取参数
      */
     public Object get(String key) {
-        return params.get(key);
+        return params == null ? null : params.get(key);
     }
 
 
@@ -75,10 +184,10 @@ public class Context {
      * @return this
      */
     public Context addHandler(MessageEventHandler handler) {
-        if (handlerList.stream().anyMatch(h -> h.getClass().getName().equals(handler.getClass().getName()))) {
+        if (containsHandlerClass(handler)) {
             return this;
         }
-        handlerList.add(handler);
+        mutableHandlers().add(handler);
         return this;
     }
 
@@ -88,10 +197,10 @@ public class Context {
      * @return this
      */
     public Context addHandlerToNext(MessageEventHandler handler) {
-        if (handlerList.stream().anyMatch(h -> h.getClass().getName().equals(handler.getClass().getName()))) {
+        if (containsHandlerClass(handler)) {
             return this;
         }
-        handlerList.add(index + 1, handler);
+        mutableHandlers().add(index + 1, handler);
         return this;
     }
 
@@ -101,10 +210,10 @@ public class Context {
      * @return this
      */
     public Context addHandlerToPrev(MessageEventHandler handler) {
-        if (handlerList.stream().anyMatch(h -> h.getClass().getName().equals(handler.getClass().getName()))) {
+        if (containsHandlerClass(handler)) {
             return this;
         }
-        handlerList.add(index, handler);
+        mutableHandlers().add(index, handler);
         return this;
     }
 
@@ -114,6 +223,7 @@ public class Context {
      * @return this
      */
     public Context removeHandler(MessageEventHandler handler) {
+        List<MessageEventHandler> handlerList = mutableHandlers();
         if (!handlerList.remove(handler)) {
             MessageEventHandler rmHandler = null;
             for (MessageEventHandler h : handlerList) {
@@ -149,25 +259,52 @@ public class Context {
      */
     public int execute(GroupMessageEvent event) {
         this.execute = true;
+        if (view == null || view.getEvent() != event) {
+            view = EventView.of(event);
+        } else {
+            EventView.remember(view);
+        }
+        LogContext.enter(view.getGroupId(), view.getSenderId());
+        boolean metrics = Metrics.enable;
+        long start = metrics ? System.nanoTime() : 0;
+        try {
+            return execute0(event);
+        } finally {
+            if (metrics) {
+                Metrics.EVENT.recordSince(start);
+            }
+            LogContext.exit();
+        }
+    }
+
+    private int execute0(GroupMessageEvent event) {
         // already executed, disable execute it again.
-        if (this.handlerList.isEmpty()) {
+        if (handlerCount() == 0) {
             return 0;
         }
+        boolean metrics = Metrics.enable;
         // intercept
-        for (Interceptor filter : preInterceptorList) {
-            if (filter.interceptBefore(event, this)) {
+        for (Interceptor filter : preInterceptors != null ? preInterceptors : preInterceptorList.toArray(new Interceptor[0])) {
+            if (interceptBefore(filter, event, metrics)) {
                 return 0;
             }
         }
+        if (handlerIndex != null) {
+            candidates = handlerIndex.candidates(view);
+        }
         int c = 0;
         List<MessageChain> res = null;
-        while (index < handlerList.size() && execute) {
-            MessageEventHandler handler = handlerList.get(index);
-            if (handler.shouldHandle(event, this)) {
+        while (index < handlerCount() && execute) {
+            MessageEventHandler handler = handlerAt(index);
+            if (canSkip(index, handler)) {
+                if (metrics) {
+                    Metrics.handler(handler).skipped.increment();
+                }
+            } else if (shouldHandle(handler, event, metrics)) {
                 execute = false;
+                LogContext.handler(handler);
                 try {
-
-                    res = handler.handleMessageEvent(event, this);
+                    res = handle(handler, event, metrics);
                 } catch (Exception e) {
                     Logger.error(e);
                 }
@@ -175,19 +312,75 @@ public class Context {
             }
             index++;
         }
-        for (Interceptor interceptor : postInterceptorList) {
-            res = interceptor.interceptAfter(event, res, this);
+        for (Interceptor interceptor : postInterceptors != null ? postInterceptors : postInterceptorList.toArray(new Interceptor[0])) {
+            if (metrics) {
+                long t = System.nanoTime();
+                res = interceptor.interceptAfter(event, res, this);
+                Metrics.interceptor(interceptor).after.recordSince(t);
+            } else {
+                res = interceptor.interceptAfter(event, res, this);
+            }
         }
-        try {
-            if (res != null && !res.isEmpty()) {
-                reply(res, event);
+        if (res != null && !res.isEmpty()) {
+            if (MessageSender.async) {
+                // 入队后立即返回，发送耗时与失败由 MessageSender 记录
+                MessageSender.send(event.getSubject(), res);
+            } else {
+                long t = metrics ? System.nanoTime() : 0;
+                try {
+                    reply(res, event);
+                    if (metrics) {
+                        Metrics.REPLY.recordSince(t);
+                    }
+                } catch (CanNotSendMessageException e) {
+                    Metrics.REPLY_FAILURES.increment();
+                    Logger.error(e);
+                }
             }
-        } catch (CanNotSendMessageException e) {
-            Logger.error(e);
         }
         return c;
     }
 
+    private boolean interceptBefore(Interceptor interceptor, GroupMessageEvent event, boolean metrics) {
+        if (!metrics) {
+            return interceptor.interceptBefore(event, this);
+        }
+        Metrics.InterceptorStats stats = Metrics.interceptor(interceptor);
+        long t = System.nanoTime();
+        boolean intercepted = interceptor.interceptBefore(event, this);
+        stats.before.recordSince(t);
+        if (intercepted) {
+            stats.intercepted.increment();
+        }
+        return intercepted;
+    }
+
+    private boolean shouldHandle(MessageEventHandler handler, GroupMessageEvent event, boolean metrics) {
+        if (!metrics) {
+            return handler.shouldHandle(event, this);
+        }
+        long t = System.nanoTime();
+        boolean b = handler.shouldHandle(event, this);
+        Metrics.handler(handler).shouldHandle.recordSince(t);
+        return b;
+    }
+
+    private List<MessageChain> handle(MessageEventHandler handler, GroupMessageEvent event, boolean metrics) {
+        if (!metrics) {
+            return handler.handleMessageEvent(event, this);
+        }
+        Metrics.HandlerStats stats = Metrics.handler(handler);
+        long t = System.nanoTime();
+        try {
+            return handler.handleMessageEvent(event, this);
+        } catch (Throwable e) {
+            stats.errors.increment();
+            throw e;
+        } finally {
+            stats.handle.recordSince(t);
+        }
+    }
+
     @SneakyThrows
     private static void checkPermission(MessageEventHandler handler) {
         Class<? extends MessageEventHandler> c = handler.getClass();
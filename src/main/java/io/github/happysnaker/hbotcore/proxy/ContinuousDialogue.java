@@ -1,60 +1,114 @@
 package io.github.happysnaker.hbotcore.proxy;
 
 import io.github.happysnaker.hbotcore.handler.Interest;
-import io.github.happysnaker.hbotcore.utils.HBotUtil;
+import io.github.happysnaker.hbotcore.utils.HashedWheelTimer;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.*;
 
 /**
  * 持续对话，可同步或者异步性地等待下一个条件发生，从而实现长对话的功能
+ * <p>指定了事件的等待按照（群号，发送人）索引，每条消息只需要检查同一个人在同一个群中的等待；没有指定事件的等待放在一个后备列表中，对每条消息都需要检查。
+ * 相同的等待（同一个人、同一个群、相同的条件）会共享同一个 Future</p>
+ * <p>带有超时的等待由时间轮负责过期，超时后 Future 以 {@link TimeoutException} 异常完成并被移除；
+ * 无论 Future 以何种方式完成（包括被调用者取消），对应的等待都会被移除</p>
  *
  * @Author happysnaker
  * @Date 2023/4/23
  * @Email happysnaker@foxmail.com
  */
 public class ContinuousDialogue {
+    private static final Waiter[] EMPTY = new Waiter[0];
 
-    private static final Map<Interest, CompletableFuture<GroupMessageEvent>> continuousDialogue = new ConcurrentHashMap<>();
+    /**
+     * (群号, 发送人) -> 等待列表，列表是不可变的数组，修改时整体替换
+     */
+    private static final Map<Key, Waiter[]> scoped = new ConcurrentHashMap<>();
+    /**
+     * 没有指定事件的等待
+     */
+    private static volatile Waiter[] unscoped = EMPTY;
+    private static final HashedWheelTimer timer = new HashedWheelTimer("hbot-dialogue-timer", 100, TimeUnit.MILLISECONDS, 512);
 
 
+    /**
+     * 检查事件是否是某个连续对话的应答，如果是，则完成对应的等待
+     *
+     * @param event 事件
+     * @return 事件是否被连续对话消费
+     */
     public static boolean checkContinuousDialogue(GroupMessageEvent event) {
-        for (Map.Entry<Interest, CompletableFuture<GroupMessageEvent>> it : continuousDialogue.entrySet()) {
-            if (it.getKey().isInterest(event)) {
-                it.getValue().complete(event);
-                continuousDialogue.remove(it.getKey());
+        return checkContinuousDialogue(EventView.of(event));
+    }
+
+    /**
+     * 检查事件是否是某个连续对话的应答，如果是，则完成对应的等待
+     *
+     * @param view 事件视图
+     * @return 事件是否被连续对话消费
+     */
+    public static boolean checkContinuousDialogue(EventView view) {
+        if (!scoped.isEmpty()) {
+            Waiter[] waiters = scoped.get(new Key(view.getGroupId(), view.getSenderId()));
+            if (waiters != null && complete(waiters, view)) {
+                return true;
+            }
+        }
+        return complete(unscoped, view);
+    }
+
+    private static boolean complete(Waiter[] waiters, EventView view) {
+        for (Waiter waiter : waiters) {
+            if ((waiter.interest == null || waiter.interest.isInterest(view))
+                    && waiter.future.complete(view.getEvent())) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * @return 正在等待的连续对话数
+     */
+    public static int getPendingCount() {
+        int c = unscoped.length;
+        for (Waiter[] waiters : scoped.values()) {
+            c += waiters.length;
+        }
+        return c;
+    }
+
 
     /**
      * 异步等待下一个条件发生
      *
-     * @param event    事件，在一个长对话上判定同一个事件的标准为：群相同、发送人相同
-     * @param interest 条件
+     * @param event         事件，在一个长对话上判定同一个事件的标准为：群相同、发送人相同
+     * @param interest      条件
+     * @param timeoutMillis 超时时间，超时后 Future 以 {@link TimeoutException} 异常完成，小于等于 0 表示永不超时
      * @return 异步事件
      */
-    public static CompletableFuture<GroupMessageEvent> waitForNextAsync(GroupMessageEvent event, Interest interest) {
-        Interest.InterestBuilder builder = Interest.builder().matchAll(true);
-
-        if (event != null) {
-            builder.onCondition(Interest.MODE.SENDER, HBotUtil.getSenderId(event))
-                    .onCondition(Interest.MODE.GROUP, String.valueOf(event.getGroup().getId()));
-        }
+    public static CompletableFuture<GroupMessageEvent> waitForNextAsync(GroupMessageEvent event, Interest interest, long timeoutMillis) {
         if (interest != null) {
-            builder.onCondition(interest);
+            // 在注册时编译，避免在事件线程中编译
+            interest.compile();
         }
-        Interest i = builder.builder();
-        if (continuousDialogue.containsKey(i)) {
-            return continuousDialogue.get(i);
+        Waiter created = new Waiter(event == null ? null : new Key(event.getGroup().getId(), event.getSender().getId()), interest, timeoutMillis);
+        Waiter waiter = created.key == null ? registerUnscoped(created) : registerScoped(created);
+        if (waiter != created) {
+            // 共享已有的等待
+            waiter.extend(timeoutMillis);
+            return waiter.future;
         }
-        CompletableFuture<GroupMessageEvent> f = new CompletableFuture<>();
-        continuousDialogue.put(i, f);
-        return f;
+        waiter.future.whenComplete((e, t) -> remove(waiter));
+        waiter.schedule();
+        return waiter.future;
+    }
+
+    public static CompletableFuture<GroupMessageEvent> waitForNextAsync(GroupMessageEvent event, Interest interest) {
+        return waitForNextAsync(event, interest, -1);
     }
 
 
@@ -67,6 +121,81 @@ public class ContinuousDialogue {
         return waitForNextAsync(null, interest);
     }
 
+    private static Waiter registerScoped(Waiter created) {
+        Waiter[] result = new Waiter[1];
+        scoped.compute(created.key, (k, waiters) -> {
+            Waiter existing = find(waiters, created.interest);
+            if (existing != null) {
+                result[0] = existing;
+                return waiters;
+            }
+            result[0] = created;
+            return append(waiters, created);
+        });
+        return result[0];
+    }
+
+    private static synchronized Waiter registerUnscoped(Waiter created) {
+        Waiter existing = find(unscoped, created.interest);
+        if (existing != null) {
+            return existing;
+        }
+        unscoped = append(unscoped, created);
+        return created;
+    }
+
+    private static Waiter find(Waiter[] waiters, Interest interest) {
+        if (waiters != null) {
+            for (Waiter waiter : waiters) {
+                if (!waiter.future.isDone() && Objects.equals(waiter.interest, interest)) {
+                    return waiter;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Waiter[] append(Waiter[] waiters, Waiter waiter) {
+        if (waiters == null) {
+            return new Waiter[]{waiter};
+        }
+        Waiter[] copy = Arrays.copyOf(waiters, waiters.length + 1);
+        copy[waiters.length] = waiter;
+        return copy;
+    }
+
+    private static Waiter[] without(Waiter[] waiters, Waiter waiter) {
+        int i = 0;
+        while (i < waiters.length && waiters[i] != waiter) {
+            i++;
+        }
+        if (i == waiters.length) {
+            return waiters;
+        }
+        if (waiters.length == 1) {
+            return null;
+        }
+        Waiter[] copy = new Waiter[waiters.length - 1];
+        System.arraycopy(waiters, 0, copy, 0, i);
+        System.arraycopy(waiters, i + 1, copy, i, waiters.length - i - 1);
+        return copy;
+    }
+
+    private static void remove(Waiter waiter) {
+        HashedWheelTimer.Timeout timeout = waiter.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        if (waiter.key != null) {
+            scoped.computeIfPresent(waiter.key, (k, waiters) -> without(waiters, waiter));
+        } else {
+            synchronized (ContinuousDialogue.class) {
+                Waiter[] waiters = without(unscoped, waiter);
+                unscoped = waiters == null ? EMPTY : waiters;
+            }
+        }
+    }
+
 
 
 
@@ -74,19 +203,17 @@ public class ContinuousDialogue {
      * 堵塞式的等待某个条件发生
      */
     public static GroupMessageEvent waitForNext(GroupMessageEvent event, Interest interest, long timeoutMills) throws TimeoutException {
-        CompletableFuture<GroupMessageEvent> future = waitForNextAsync(event, interest);
-        if (timeoutMills > 0) {
-            try {
-                return future.get(timeoutMills, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
-            }
-        } else {
-            try {
-                return future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                throw new RuntimeException(e);
+        CompletableFuture<GroupMessageEvent> future = waitForNextAsync(event, interest, timeoutMills);
+        try {
+            // 共享的等待可能没有期限，因此仍然限制本次等待的时长
+            return timeoutMills > 0 ? future.get(timeoutMills, TimeUnit.MILLISECONDS) : future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException te) {
+                throw te;
             }
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -108,4 +235,63 @@ public class ContinuousDialogue {
     public static GroupMessageEvent waitForNext(Interest interest, long timeoutMills) throws TimeoutException {
         return waitForNext(null, interest, timeoutMills);
     }
+
+
+    private record Key(long groupId, long senderId) {
+    }
+
+    /**
+     * 一个正在等待的连续对话
+     */
+    private static final class Waiter {
+        private final Key key;
+        private final Interest interest;
+        private final CompletableFuture<GroupMessageEvent> future = new CompletableFuture<>();
+        /**
+         * 超时期限（System.nanoTime），unbounded 为真时无效
+         */
+        private long deadline;
+        private boolean unbounded;
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        Waiter(Key key, Interest interest, long timeoutMillis) {
+            this.key = key;
+            this.interest = interest;
+            this.unbounded = timeoutMillis <= 0;
+            this.deadline = unbounded ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        }
+
+        /**
+         * 共享此等待的调用者可能指定了更晚的期限，以较晚者为准
+         */
+        synchronized void extend(long timeoutMillis) {
+            if (timeoutMillis <= 0) {
+                unbounded = true;
+            } else if (!unbounded) {
+                deadline = Math.max(deadline, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+            }
+        }
+
+        synchronized void schedule() {
+            if (!unbounded) {
+                timeout = timer.schedule(this::expire, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void expire() {
+            if (future.isDone()) {
+                return;
+            }
+            synchronized (this) {
+                if (unbounded) {
+                    return;
+                }
+                if (deadline - System.nanoTime() > 0) {
+                    schedule();
+                    return;
+                }
+            }
+            future.completeExceptionally(new TimeoutException("连续对话等待超时"));
+        }
+    }
 }
@@ -0,0 +1,302 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.handler.Interest;
+import io.github.happysnaker.hbotcore.utils.HBotUtil;
+import lombok.Getter;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 非阻塞的多轮对话，通过一系列步骤描述对话流程，等待用户应答时不占用任何线程
+ * <p>{@link ContinuousDialogue#waitForNext(GroupMessageEvent)} 会阻塞调用线程直到用户应答，多轮对话的用户一多就会耗尽线程；
+ * 此类基于 {@link ContinuousDialogue#waitForNextAsync(GroupMessageEvent, Interest, long)}，每一步在上一步完成后才被调度，
+ * 一个等待中的对话只是一个注册项与若干回调，因此可以同时存在成千上万个对话</p>
+ * <p>每一步以及应答的处理都在 {@link EventDispatcher} 中该群的队列上执行，与该群的其他消息保持顺序，不会占用 mirai 的事件线程</p>
+ * <p>{@link #ask(Object, BiConsumer)} 会在发送问题之前开始等待，因此不会错过很快到达的应答；而 say 之后的 expect 只有在消息发送完成、
+ * 轮到下一步时才开始等待，在此之间到达的消息会被当作普通消息处理，需要应答的问题请使用 ask</p>
+ * <pre>{@code
+ * Conversation.with(event)
+ *         .timeout(60_000)
+ *         .ask("你叫什么名字？", (s, reply) -> s.put("name", HBotUtil.getContent(reply)))
+ *         .ask("你多大了？", (s, reply) -> {
+ *             if (!HBotUtil.getContent(reply).matches("\\d+")) {
+ *                 s.reply("请输入数字");
+ *                 return false;   // 重新等待这一步
+ *             }
+ *             s.put("age", HBotUtil.getContent(reply));
+ *             return true;
+ *         })
+ *         .then(s -> s.reply("你好，" + s.get("name")))
+ *         .onTimeout(s -> s.reply("等待超时，对话已结束"))
+ *         .start();
+ * }</pre>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class Conversation {
+    /**
+     * 每一个等待的默认超时时间
+     */
+    public static long defaultTimeoutMillis = 5 * 60 * 1000;
+
+    private final GroupMessageEvent origin;
+    /**
+     * 每一步返回一个 Future，结果为真表示进入下一步，为假表示重复此步
+     */
+    private final List<Function<Session, CompletableFuture<Boolean>>> steps = new ArrayList<>();
+    private long timeoutMillis = defaultTimeoutMillis;
+    private Consumer<Session> onTimeout;
+    private BiConsumer<Session, Throwable> onError;
+
+    private Conversation(GroupMessageEvent origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * 创建一个对话，对话中的等待只接受同一个群中同一个人的消息
+     *
+     * @param event 开启对话的事件
+     * @return 对话
+     */
+    public static Conversation with(GroupMessageEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("event can not be null");
+        }
+        return new Conversation(event);
+    }
+
+    /**
+     * 设置每一次等待的超时时间
+     *
+     * @param timeoutMillis 毫秒数，小于等于 0 表示永不超时
+     */
+    public Conversation timeout(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * 发送一条消息，消息发送完成后才进入下一步
+     *
+     * @param message 消息，与 {@link HBotUtil#buildMessageChain(Object...)} 的参数一致
+     */
+    public Conversation say(Object... message) {
+        steps.add(s -> s.send(message).thenApply(v -> true));
+        return this;
+    }
+
+    /**
+     * 执行一个动作
+     */
+    public Conversation then(Consumer<Session> action) {
+        steps.add(s -> {
+            action.accept(s);
+            return CompletableFuture.completedFuture(true);
+        });
+        return this;
+    }
+
+    /**
+     * 等待用户的下一条满足条件的消息
+     *
+     * @param interest 条件，为 null 时接受任意消息
+     * @param handler  处理应答，返回真进入下一步，返回假则重新等待
+     */
+    public Conversation expect(Interest interest, BiPredicate<Session, GroupMessageEvent> handler) {
+        steps.add(s -> ContinuousDialogue.waitForNextAsync(origin, interest, timeoutMillis)
+                .thenApplyAsync(reply -> {
+                    s.last = reply;
+                    return handler.test(s, reply);
+                }, s.executor));
+        return this;
+    }
+
+    /**
+     * 等待用户的下一条消息
+     *
+     * @see #expect(Interest, BiPredicate)
+     */
+    public Conversation expect(BiPredicate<Session, GroupMessageEvent> handler) {
+        return expect(null, handler);
+    }
+
+    /**
+     * 发送一个问题并等待应答，处理器无返回值，总是进入下一步
+     */
+    public Conversation ask(Object question, BiConsumer<Session, GroupMessageEvent> handler) {
+        steps.add(s -> {
+            // 先注册等待再发送问题，否则在问题发出后、等待注册前到达的应答会被当作普通消息处理
+            CompletableFuture<GroupMessageEvent> reply = ContinuousDialogue.waitForNextAsync(origin, null, timeoutMillis);
+            return s.send(question)
+                    .whenComplete((v, e) -> {
+                        if (e != null) {
+                            reply.cancel(false);
+                        }
+                    })
+                    .thenCompose(v -> reply)
+                    .thenApplyAsync(r -> {
+                        s.last = r;
+                        handler.accept(s, r);
+                        return true;
+                    }, s.executor);
+        });
+        return this;
+    }
+
+    /**
+     * 等待超时时调用，对话随即结束
+     */
+    public Conversation onTimeout(Consumer<Session> onTimeout) {
+        this.onTimeout = onTimeout;
+        return this;
+    }
+
+    /**
+     * 某一步抛出异常时调用，对话随即结束
+     */
+    public Conversation onError(BiConsumer<Session, Throwable> onError) {
+        this.onError = onError;
+        return this;
+    }
+
+    /**
+     * 开始对话，此方法立即返回
+     *
+     * @return 对话结束时完成的 Future，如果超时或出错且没有设置对应的回调，则以异常完成
+     */
+    public CompletableFuture<Session> start() {
+        Session session = new Session(origin);
+        CompletableFuture<Session> result = new CompletableFuture<>();
+        // 后续步骤无法入队时对话无法继续，以异常完成对话
+        Executor executor = r -> {
+            try {
+                session.executor.execute(r);
+            } catch (RuntimeException | Error e) {
+                result.completeExceptionally(e);
+            }
+        };
+        CompletableFuture.runAsync(() -> run(0, session, executor, result), executor);
+        return result;
+    }
+
+    private void run(int step, Session session, Executor executor, CompletableFuture<Session> result) {
+        if (step >= steps.size() || session.ended) {
+            result.complete(session);
+            return;
+        }
+        CompletableFuture<Boolean> f;
+        try {
+            f = steps.get(step).apply(session);
+        } catch (Throwable e) {
+            fail(session, e, result);
+            return;
+        }
+        f.whenCompleteAsync((next, e) -> {
+            if (e != null) {
+                fail(session, e, result);
+            } else {
+                run(Boolean.TRUE.equals(next) ? step + 1 : step, session, executor, result);
+            }
+        }, executor);
+    }
+
+    private void fail(Session session, Throwable e, CompletableFuture<Session> result) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        try {
+            if (cause instanceof TimeoutException && onTimeout != null) {
+                session.timedOut = true;
+                onTimeout.accept(session);
+                result.complete(session);
+            } else if (onError != null) {
+                onError.accept(session, cause);
+                result.complete(session);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        } catch (Throwable ex) {
+            result.completeExceptionally(ex);
+        }
+    }
+
+
+    /**
+     * 对话的状态，在对话的各个步骤之间共享，同一时刻只有一个步骤在访问它
+     */
+    public static final class Session {
+        /**
+         * 开启对话的事件
+         */
+        @Getter
+        private final GroupMessageEvent origin;
+        private final long groupId;
+        /**
+         * 该群在 {@link EventDispatcher} 中的队列
+         */
+        private final Executor executor;
+        /**
+         * 最近一次收到的应答，没有应答时为开启对话的事件
+         */
+        @Getter
+        private volatile GroupMessageEvent last;
+        @Getter
+        private volatile boolean timedOut;
+        private volatile boolean ended;
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        private Session(GroupMessageEvent origin) {
+            this.origin = origin;
+            this.last = origin;
+            this.groupId = origin.getGroup().getId();
+            this.executor = r -> EventDispatcher.enqueue(groupId, r);
+        }
+
+        public Object get(String key) {
+            synchronized (attributes) {
+                return attributes.get(key);
+            }
+        }
+
+        public Session put(String key, Object value) {
+            synchronized (attributes) {
+                attributes.put(key, value);
+            }
+            return this;
+        }
+
+        /**
+         * 结束对话，剩余的步骤不再执行
+         */
+        public void end() {
+            ended = true;
+        }
+
+        /**
+         * 异步地向对话所在的群发送消息
+         */
+        public void reply(Object... message) {
+            send(message);
+        }
+
+        private CompletableFuture<Void> send(Object... message) {
+            try {
+                return HBotUtil.sendMsgAsync(List.of(HBotUtil.buildMessageChain(message)), origin.getSubject());
+            } catch (Exception e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.handler.MessageEventHandler;
+import io.github.happysnaker.hbotcore.handler.handler;
+import io.github.happysnaker.hbotcore.intercept.Intercept;
+import io.github.happysnaker.hbotcore.intercept.Interceptor;
+import lombok.Getter;
+import org.springframework.util.ClassUtils;
+
+import java.util.*;
+
+/**
+ * 消息分发表，是 {@link MessageHandlerProxy} 在每个事件上读取的<strong>不可变</strong>快照
+ * <p>处理器的元信息（优先级、是否为命令处理器）在构建分发表时解析一次，命令处理器与普通处理器被预先拆分为两个有序数组，
+ * 事件处理路径只需读取数组，不再需要过滤、排序或读取注解</p>
+ * <p>注册或注销处理器、拦截器时会基于旧表构建一张新表，并由 {@link MessageHandlerProxy} 原子地替换（写时复制），
+ * 因此正在处理中的事件始终持有一张完整的旧表，不会与插件的注册注销产生竞争</p>
+ * <p>命令处理器与普通处理器各自附带一份 {@link HandlerIndex}，注册注销处理器时基于旧表的索引增量构建，仅修改拦截器时会复用旧表的处理器数组；
+ * 索引发现处理器的 Interest 被修改后，{@link MessageHandlerProxy} 会通过 {@link #withUpdatedIndexes()} 替换一张只重新索引了这些处理器的新表</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see MessageHandlerProxy
+ */
+public final class DispatchTable {
+    /**
+     * 空表
+     */
+    static final DispatchTable EMPTY = new DispatchTable(0, Collections.emptyList(), Collections.emptyList(), null);
+
+    /**
+     * 分发表版本，每次替换递增
+     */
+    @Getter
+    private final long version;
+    /**
+     * 按注册顺序保存的处理器元信息
+     */
+    private final List<HandlerMeta> registered;
+    /**
+     * 按注册顺序保存的拦截器
+     */
+    private final List<Interceptor> interceptors;
+    /**
+     * 所有处理器，命令处理器在前，同类处理器按优先级降序
+     */
+    final MessageEventHandler[] handlers;
+    final MessageEventHandler[] commandHandlers;
+    final MessageEventHandler[] normalHandlers;
+    final Interceptor[] preInterceptors;
+    final Interceptor[] postInterceptors;
+    /**
+     * 命令处理器与普通处理器的候选索引
+     */
+    final HandlerIndex commandIndex;
+    final HandlerIndex normalIndex;
+
+    /**
+     * @param previous 如果不为 null，处理器没有变化时复用其处理器数组并更新其索引，否则基于其索引增量构建
+     */
+    private DispatchTable(long version, List<HandlerMeta> registered, List<Interceptor> interceptors, DispatchTable previous) {
+        this.version = version;
+        this.registered = registered;
+        this.interceptors = interceptors;
+
+        this.preInterceptors = interceptors.toArray(new Interceptor[0]);
+        this.postInterceptors = interceptors.toArray(new Interceptor[0]);
+        Arrays.sort(preInterceptors, (a, b) -> Integer.compare(preOrder(b), preOrder(a)));
+        Arrays.sort(postInterceptors, (a, b) -> Integer.compare(postOrder(b), postOrder(a)));
+
+        if (previous != null && previous.registered == registered) {
+            this.handlers = previous.handlers;
+            this.commandHandlers = previous.commandHandlers;
+            this.normalHandlers = previous.normalHandlers;
+            this.commandIndex = previous.commandIndex.update();
+            this.normalIndex = previous.normalIndex.update();
+            return;
+        }
+
+        HandlerMeta[] sorted = registered.toArray(new HandlerMeta[0]);
+        // 稳定排序，优先级相同的处理器保持注册顺序
+        Arrays.sort(sorted, (a, b) -> {
+            if (a.commandHandler != b.commandHandler) {
+                return a.commandHandler ? -1 : 1;
+            }
+            return Integer.compare(b.priority, a.priority);
+        });
+        int commandCount = 0;
+        for (HandlerMeta meta : sorted) {
+            commandCount += meta.commandHandler ? 1 : 0;
+        }
+        this.handlers = new MessageEventHandler[sorted.length];
+        this.commandHandlers = new MessageEventHandler[commandCount];
+        this.normalHandlers = new MessageEventHandler[sorted.length - commandCount];
+        for (int i = 0; i < sorted.length; i++) {
+            handlers[i] = sorted[i].handler;
+            if (i < commandCount) {
+                commandHandlers[i] = sorted[i].handler;
+            } else {
+                normalHandlers[i - commandCount] = sorted[i].handler;
+            }
+        }
+        this.commandIndex = HandlerIndex.build(commandHandlers, previous == null ? null : previous.commandIndex);
+        this.normalIndex = HandlerIndex.build(normalHandlers, previous == null ? null : previous.normalIndex);
+    }
+
+    /**
+     * 添加处理器，已存在的同名处理器将被忽略
+     *
+     * @return 新的分发表，如果没有任何变化则返回 this
+     */
+    DispatchTable withHandlers(Collection<? extends MessageEventHandler> added) {
+        List<HandlerMeta> list = new ArrayList<>(registered);
+        for (MessageEventHandler h : added) {
+            if (indexOf(list, h.getClass().getName()) < 0) {
+                list.add(HandlerMeta.of(h));
+            }
+        }
+        if (list.size() == registered.size()) {
+            return this;
+        }
+        return new DispatchTable(version + 1, Collections.unmodifiableList(list), interceptors, this);
+    }
+
+    /**
+     * 按类名移除处理器
+     *
+     * @return 新的分发表，如果没有任何变化则返回 this
+     */
+    DispatchTable withoutHandlers(Collection<String> classNames) {
+        List<HandlerMeta> list = new ArrayList<>(registered);
+        list.removeIf(meta -> classNames.contains(meta.name));
+        if (list.size() == registered.size()) {
+            return this;
+        }
+        return new DispatchTable(version + 1, Collections.unmodifiableList(list), interceptors, this);
+    }
+
+    /**
+     * 添加拦截器，已存在的同名拦截器将被忽略
+     *
+     * @return 新的分发表，如果没有任何变化则返回 this
+     */
+    DispatchTable withInterceptors(Collection<? extends Interceptor> added) {
+        List<Interceptor> list = new ArrayList<>(interceptors);
+        for (Interceptor interceptor : added) {
+            if (list.stream().noneMatch(i -> i.getClass().getName().equals(interceptor.getClass().getName()))) {
+                list.add(interceptor);
+            }
+        }
+        if (list.size() == interceptors.size()) {
+            return this;
+        }
+        return new DispatchTable(version + 1, registered, Collections.unmodifiableList(list), this);
+    }
+
+    /**
+     * 按类名移除拦截器
+     *
+     * @return 新的分发表，如果没有任何变化则返回 this
+     */
+    DispatchTable withoutInterceptors(Collection<String> classNames) {
+        List<Interceptor> list = new ArrayList<>(interceptors);
+        list.removeIf(i -> classNames.contains(i.getClass().getName()));
+        if (list.size() == interceptors.size()) {
+            return this;
+        }
+        return new DispatchTable(version + 1, registered, Collections.unmodifiableList(list), this);
+    }
+
+    /**
+     * @return 索引是否发现了 Interest 已被修改的处理器
+     */
+    boolean isIndexStale() {
+        return commandIndex.isStale() || normalIndex.isStale();
+    }
+
+    /**
+     * 重新索引 Interest 已被修改的处理器
+     *
+     * @return 新的分发表
+     */
+    DispatchTable withUpdatedIndexes() {
+        return new DispatchTable(version + 1, registered, interceptors, this);
+    }
+
+    /**
+     * 是否包含某个类名的处理器
+     */
+    public boolean containsHandler(String className) {
+        return indexOf(registered, className) >= 0;
+    }
+
+    /**
+     * @return 所有处理器的元信息，按注册顺序排列
+     */
+    public List<HandlerMeta> getHandlerMetas() {
+        return registered;
+    }
+
+    /**
+     * @return 普通处理器的数量
+     */
+    public int getNormalHandlerCount() {
+        return normalHandlers.length;
+    }
+
+    /**
+     * @return 命令处理器的数量
+     */
+    public int getCommandHandlerCount() {
+        return commandHandlers.length;
+    }
+
+    /**
+     * @return 被候选索引覆盖的处理器数量
+     */
+    public int getIndexedHandlerCount() {
+        return commandIndex.getIndexedCount() + normalIndex.getIndexedCount();
+    }
+
+    /**
+     * @return 拦截器的数量
+     */
+    public int getInterceptorCount() {
+        return interceptors.size();
+    }
+
+    private static int indexOf(List<HandlerMeta> list, String className) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).name.equals(className)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int preOrder(Interceptor interceptor) {
+        Intercept annotation = ClassUtils.getUserClass(interceptor).getAnnotation(Intercept.class);
+        return annotation == null ? 1 : annotation.preOrder();
+    }
+
+    private static int postOrder(Interceptor interceptor) {
+        Intercept annotation = ClassUtils.getUserClass(interceptor).getAnnotation(Intercept.class);
+        return annotation == null ? 1 : annotation.postOrder();
+    }
+
+
+    /**
+     * 处理器的元信息，在注册时解析一次
+     */
+    @Getter
+    public static final class HandlerMeta {
+        private final MessageEventHandler handler;
+        /**
+         * 处理器的类名，HBot 以类名判定处理器是否重复
+         */
+        private final String name;
+        private final int priority;
+        private final boolean commandHandler;
+
+        private HandlerMeta(MessageEventHandler handler, String name, int priority, boolean commandHandler) {
+            this.handler = handler;
+            this.name = name;
+            this.priority = priority;
+            this.commandHandler = commandHandler;
+        }
+
+        static HandlerMeta of(MessageEventHandler h) {
+            handler annotation = ClassUtils.getUserClass(h).getAnnotation(handler.class);
+            return new HandlerMeta(h, h.getClass().getName(),
+                    annotation == null ? 1 : annotation.priority(),
+                    annotation != null && annotation.isCommandHandler());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.logger.Logger;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+import io.github.happysnaker.hbotcore.utils.StringUtil;
+import net.mamoe.mirai.Bot;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.MessageSource;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多个机器人位于同一个群时，同一条消息会被 mirai 投递多次，此类保证每条消息只被处理一次
+ * <p>首先按照 {@link #owner} 决定群的归属，非归属机器人收到的消息直接丢弃；随后以消息源（群号、发送人、时间与消息 ID）去重，
+ * 记录保存在两代哈希表中，每 {@link #windowSeconds} 秒或者当代记录数超过 {@link #maxEntries} 的一半时轮换一次，因此占用的内存是有界的</p>
+ * <p>只有一个机器人登录时不做任何处理</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public class EventDeduplicator {
+    /**
+     * 群的归属策略
+     */
+    public enum Owner {
+        /**
+         * 先收到消息的机器人处理
+         */
+        FIRST,
+        /**
+         * 群中在线的 QQ 号最小的机器人处理，回复总是来自同一个账号
+         */
+        LOWEST_ID,
+        /**
+         * 由 {@link #owners} 指定，未指定或者指定的机器人不在线时退化为 FIRST
+         */
+        FIXED
+    }
+
+    public static boolean enable = true;
+    public static Owner owner = Owner.FIRST;
+    /**
+     * 群号 -> 机器人 QQ，FIXED 策略下使用
+     */
+    public static Map<Long, Long> owners = new HashMap<>();
+    /**
+     * 去重窗口，同一条消息在窗口内被投递多次时只会处理一次
+     */
+    public static long windowSeconds = 60;
+    /**
+     * 两代记录的总数上限
+     */
+    public static int maxEntries = 65536;
+
+    private static final LongAdder duplicates = Metrics.counter("dispatch.duplicates");
+    /**
+     * 两代记录作为一个整体被替换，读取一次即可得到一致的两代
+     */
+    private static volatile Generations generations = new Generations(new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    private static volatile long rotatedAt = System.currentTimeMillis();
+
+    /**
+     * 判断事件是否应当被处理
+     *
+     * @param event 群消息事件
+     * @return 是否是该消息第一次由群的归属机器人投递
+     */
+    public static boolean accept(GroupMessageEvent event) {
+        if (!enable) {
+            return true;
+        }
+        List<Bot> bots = Bot.getInstances();
+        if (bots.size() <= 1) {
+            return true;
+        }
+        long groupId = event.getGroup().getId();
+        if (owner != Owner.FIRST) {
+            long ownerId = ownerOf(groupId, bots);
+            if (ownerId != -1 && ownerId != event.getBot().getId()) {
+                duplicates.increment();
+                return false;
+            }
+        }
+        MessageSource source = event.getSource();
+        if (source == null) {
+            return true;
+        }
+        Key key = new Key(groupId, source.getFromId(), source.getTime(), source.getIds(), source.getInternalIds());
+        // 轮换后仍写入旧的当代记录是安全的，它会成为新的上一代记录
+        Generations g = rotateIfNecessary();
+        if (g.previous.containsKey(key) || g.current.putIfAbsent(key, Boolean.TRUE) != null) {
+            duplicates.increment();
+            Logger.debug("机器人 %d 收到的群 %d 的消息已被处理，忽略", event.getBot().getId(), groupId);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 解析 FIXED 策略的配置
+     *
+     * @param spec 形如 群号:机器人QQ,群号:机器人QQ
+     */
+    public static void setOwners(String spec) {
+        Map<Long, Long> map = new HashMap<>();
+        if (!StringUtil.isNullOrEmpty(spec)) {
+            for (String pair : spec.split(",")) {
+                if (pair.isBlank()) {
+                    continue;
+                }
+                String[] kv = pair.split(":");
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("Unexpected owner pair: " + pair);
+                }
+                map.put(Long.parseLong(kv[0].trim()), Long.parseLong(kv[1].trim()));
+            }
+        }
+        owners = map;
+    }
+
+    /**
+     * @return 群的归属机器人，-1 表示由先收到消息的机器人处理
+     */
+    private static long ownerOf(long groupId, List<Bot> bots) {
+        if (owner == Owner.FIXED) {
+            Long id = owners.get(groupId);
+            if (id == null) {
+                return -1;
+            }
+            for (Bot bot : bots) {
+                if (bot.getId() == id && bot.isOnline() && bot.getGroup(groupId) != null) {
+                    return id;
+                }
+            }
+            return -1;
+        }
+        long min = -1;
+        for (Bot bot : bots) {
+            if ((min == -1 || bot.getId() < min) && bot.isOnline() && bot.getGroup(groupId) != null) {
+                min = bot.getId();
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @return 轮换后的两代记录
+     */
+    private static Generations rotateIfNecessary() {
+        long now = System.currentTimeMillis();
+        Generations g = generations;
+        if (now - rotatedAt < windowSeconds * 1000 && g.current.size() < maxEntries / 2) {
+            return g;
+        }
+        synchronized (EventDeduplicator.class) {
+            g = generations;
+            if (now - rotatedAt < windowSeconds * 1000 && g.current.size() < maxEntries / 2) {
+                return g;
+            }
+            generations = g = new Generations(new ConcurrentHashMap<>(), g.current);
+            rotatedAt = now;
+            return g;
+        }
+    }
+
+
+    private record Generations(Map<Key, Boolean> current, Map<Key, Boolean> previous) {
+    }
+
+    /**
+     * 同一条群消息在不同机器人中的消息源具有相同的 ID 与时间，ID 按内容比较
+     */
+    private record Key(long groupId, long fromId, int time, int[] ids, int[] internalIds) {
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key k && groupId == k.groupId && fromId == k.fromId && time == k.time
+                    && Arrays.equals(ids, k.ids) && Arrays.equals(internalIds, k.internalIds);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = Long.hashCode(groupId);
+            h = 31 * h + Long.hashCode(fromId);
+            h = 31 * h + time;
+            h = 31 * h + Arrays.hashCode(ids);
+            return 31 * h + Arrays.hashCode(internalIds);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.logger.Logger;
+import net.mamoe.mirai.event.ConcurrencyKind;
+import net.mamoe.mirai.event.EventPriority;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 位于 mirai 事件订阅与 {@link MessageHandlerProxy} 之间的执行层
+ * <p>每个群拥有一个有界队列，同一个群的消息严格按照到达顺序执行，不同群的消息由线程池（或虚拟线程）并行执行，
+ * 因此一个缓慢的处理器（例如 GPT 调用、动态标签请求或者阻塞的连续对话）只会阻塞它所在的群，不会阻塞 mirai 的事件投递</p>
+ * <p>当某个群的队列已满时，按照 {@link #overflowPolicy} 处理新到达的消息；队列被取空、工作线程退出时队列也会被移除，不活跃的群不会占用内存</p>
+ * <p>注意，连续对话的应答消息会在入队之前被 {@link ContinuousDialogue} 直接消费，不会排在等待者所在群的队列之后，否则将产生死锁；
+ * 多轮对话的后续步骤通过 {@link #enqueue(long, Runnable)} 提交，不受队列容量与溢出策略的限制</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public class EventDispatcher {
+    /**
+     * 执行模式
+     */
+    public enum Mode {
+        /**
+         * 在 mirai 的事件线程中同步执行，与旧版本行为一致
+         */
+        SYNC,
+        /**
+         * 使用固定大小的线程池执行
+         */
+        POOL,
+        /**
+         * 使用虚拟线程执行，需要 JDK 21 以上，否则退化为 POOL
+         */
+        VIRTUAL
+    }
+
+    /**
+     * 队列已满时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞 mirai 的事件线程，直到队列有空位或者超时，超时后丢弃新消息
+         */
+        BLOCK,
+        /**
+         * 丢弃新到达的消息
+         */
+        DROP_NEWEST,
+        /**
+         * 丢弃队列中最旧的消息
+         */
+        DROP_OLDEST,
+        /**
+         * 在 mirai 的事件线程中直接执行，此时无法保证该消息与队列中消息的顺序
+         */
+        CALLER_RUNS
+    }
+
+    public static Mode mode = Mode.POOL;
+    /**
+     * 线程池大小，仅在 POOL 模式下生效
+     */
+    public static int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    /**
+     * 每个群的队列容量
+     */
+    public static int queueCapacity = 64;
+    public static OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    /**
+     * BLOCK 策略下的最长等待时间
+     */
+    public static long blockTimeoutMillis = 1000;
+    /**
+     * 一个群一次最多连续执行的消息数，执行完后让出线程，避免繁忙的群饿死其他群
+     */
+    public static int drainBatch = 16;
+    /**
+     * mirai 监听器优先级
+     */
+    public static EventPriority listenerPriority = EventPriority.NORMAL;
+    /**
+     * mirai 监听器并发策略
+     */
+    public static ConcurrencyKind listenerConcurrency = ConcurrencyKind.CONCURRENT;
+
+    private static final Map<Long, GroupQueue> queues = new ConcurrentHashMap<>();
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile Executor executor;
+
+
+    /**
+     * 提交某个群的消息任务
+     *
+     * @param groupId 群号，同一个群的任务按提交顺序执行
+     * @param task    任务
+     */
+    public static void submit(long groupId, Runnable task) {
+        if (mode == Mode.SYNC) {
+            run(task);
+            return;
+        }
+        while (!queues.computeIfAbsent(groupId, GroupQueue::new).offer(task, false)) {
+            // 队列恰好被移除，重新获取
+        }
+    }
+
+    /**
+     * 提交某个群中已开始执行的任务的后续任务（例如多轮对话的下一步），此任务总是入队，不受队列容量与溢出策略的限制，
+     * 否则丢弃会导致对话永远无法结束，BLOCK 策略下群的工作线程还会等待它自己
+     *
+     * @param groupId 群号，同一个群的任务按提交顺序执行
+     * @param task    任务
+     * @throws java.util.concurrent.RejectedExecutionException 如果无法调度执行此任务
+     */
+    static void enqueue(long groupId, Runnable task) {
+        if (mode == Mode.SYNC) {
+            run(task);
+            return;
+        }
+        while (!queues.computeIfAbsent(groupId, GroupQueue::new).offer(task, true)) {
+            // 队列恰好被移除，重新获取
+        }
+    }
+
+    /**
+     * @return 因队列已满而被丢弃的消息总数
+     */
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return 所有群中正在排队的消息总数
+     */
+    public static int getQueuedCount() {
+        int c = 0;
+        for (GroupQueue queue : queues.values()) {
+            c += queue.size();
+        }
+        return c;
+    }
+
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable e) {
+            Logger.error(e);
+        }
+    }
+
+    private static Executor executor() {
+        Executor e = executor;
+        if (e == null) {
+            synchronized (EventDispatcher.class) {
+                if ((e = executor) == null) {
+                    executor = e = createExecutor();
+                }
+            }
+        }
+        return e;
+    }
+
+    private static Executor createExecutor() {
+        if (mode == Mode.VIRTUAL) {
+            try {
+                return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Logger.warning("当前 JDK 不支持虚拟线程，事件执行退化为线程池模式");
+            }
+        }
+        AtomicInteger id = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "hbot-dispatch-" + id.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+
+    /**
+     * 单个群的有界队列，至多只有一个线程在执行此队列中的任务
+     */
+    private static final class GroupQueue implements Runnable {
+        private final long groupId;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        private boolean scheduled;
+        /**
+         * 队列已被取空并从 {@link #queues} 中移除，不再接受任务，保证同一个群不会同时有两个队列在执行
+         */
+        private boolean retired;
+
+        GroupQueue(long groupId) {
+            this.groupId = groupId;
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return tasks.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param force 为真时忽略队列容量
+         * @return 如果队列已被移除则返回 false，调用者应重新获取队列
+         */
+        boolean offer(Runnable task, boolean force) {
+            boolean schedule = false;
+            lock.lock();
+            try {
+                if (retired) {
+                    return false;
+                }
+                if (!force && tasks.size() >= queueCapacity) {
+                    switch (overflowPolicy) {
+                        case DROP_NEWEST -> {
+                            drop();
+                            return true;
+                        }
+                        case DROP_OLDEST -> {
+                            tasks.poll();
+                            drop();
+                        }
+                        case CALLER_RUNS -> {
+                            lock.unlock();
+                            try {
+                                EventDispatcher.run(task);
+                            } finally {
+                                lock.lock();
+                            }
+                            return true;
+                        }
+                        case BLOCK -> {
+                            long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+                            while (tasks.size() >= queueCapacity) {
+                                if (nanos <= 0) {
+                                    drop();
+                                    return true;
+                                }
+                                nanos = notFull.awaitNanos(nanos);
+                            }
+                            // 等待期间队列可能已被取空并移除
+                            if (retired) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+                tasks.add(task);
+                if (!scheduled) {
+                    scheduled = schedule = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop();
+            } finally {
+                lock.unlock();
+            }
+            if (schedule) {
+                try {
+                    executor().execute(this);
+                } catch (RuntimeException | Error e) {
+                    // 无法调度时撤回任务，避免队列停留在调度状态
+                    lock.lock();
+                    try {
+                        tasks.removeLastOccurrence(task);
+                        scheduled = false;
+                    } finally {
+                        lock.unlock();
+                    }
+                    throw e;
+                }
+            }
+            return true;
+        }
+
+        private void drop() {
+            dropped.increment();
+            Logger.debug("群 %d 的消息队列已满，丢弃一条消息，策略：%s", groupId, overflowPolicy);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < drainBatch; i++) {
+                Runnable task;
+                lock.lock();
+                try {
+                    task = tasks.poll();
+                    if (task == null) {
+                        // 与工作线程一同退出，下一条消息会创建新的队列
+                        scheduled = false;
+                        retired = true;
+                        queues.remove(groupId, this);
+                        return;
+                    }
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+                EventDispatcher.run(task);
+            }
+            // 让出线程，队列仍处于调度状态
+            executor().execute(this);
+        }
+    }
+}
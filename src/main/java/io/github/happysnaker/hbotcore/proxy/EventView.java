@@ -0,0 +1,220 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.command.CommandView;
+import io.github.happysnaker.hbotcore.command.HBotCommandEventHandlerManager;
+import lombok.Getter;
+import net.mamoe.mirai.Bot;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 群消息事件的只读视图，事件中常用的信息在构造时解析一次，此后在整个事件生命周期中共享
+ * <p>视图由 {@link MessageHandlerProxy} 在事件进入时创建，并保存在 {@link Context} 中，Interest、处理器与日志都从视图中读取信息，
+ * 不再重复遍历消息链</p>
+ * <p>{@link #of(GroupMessageEvent)} 会在当前线程中缓存最近一次创建的视图，因此在没有 Context 的地方（例如 {@link io.github.happysnaker.hbotcore.handler.Interest} 的回调）
+ * 以同一个事件重复获取视图几乎没有开销</p>
+ * <p>以命令前缀开头的消息会被解析为 {@link CommandView}，此时 {@link #getPlain()} 返回去除前缀后的文本，原始事件不会被修改，
+ * 因此直接对事件的消息链调用 serializeToMiraiCode 会得到带有前缀的 mirai 码，{@link #getContent()} 则与旧版本一样不含前缀</p>
+ * <p>mirai 码的序列化开销较大，只在第一次调用 {@link #getMiraiCode()} 或 {@link #getContent()} 时计算</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see Context#getView()
+ */
+public final class EventView {
+    private static final ThreadLocal<EventView> LAST = new ThreadLocal<>();
+
+    @Getter
+    private final GroupMessageEvent event;
+    /**
+     * 所有纯文本消息拼接后的原始内容
+     */
+    @Getter
+    private final String rawPlain;
+    /**
+     * 去除首尾空格后的纯文本内容，如果此消息是命令，则同时去除了命令前缀，
+     * 与 {@link io.github.happysnaker.hbotcore.utils.HBotUtil#getOnlyPlainContent} 一致
+     */
+    @Getter
+    private final String plain;
+    /**
+     * 如果此消息是命令，则为命令视图，否则为 null
+     */
+    @Getter
+    private final CommandView command;
+    @Getter
+    private final long senderId;
+    @Getter
+    private final long groupId;
+    /**
+     * 被 at 的 qq 号，升序排列
+     */
+    private final long[] mentions;
+    @Getter
+    private final boolean atAll;
+    @Getter
+    private final boolean quote;
+    @Getter
+    private final List<Image> images;
+    private volatile String miraiCode;
+    private volatile String content;
+
+    private EventView(GroupMessageEvent event) {
+        this.event = event;
+        this.senderId = event.getSender().getId();
+        this.groupId = event.getGroup().getId();
+
+        StringBuilder sb = new StringBuilder();
+        long[] mentions = new long[4];
+        int mentionCount = 0;
+        boolean atAll = false, quote = false;
+        List<Image> images = null;
+        for (SingleMessage message : event.getMessage()) {
+            if (message instanceof PlainText) {
+                sb.append(message);
+            } else if (message instanceof At at) {
+                if (mentionCount == mentions.length) {
+                    mentions = Arrays.copyOf(mentions, mentionCount << 1);
+                }
+                mentions[mentionCount++] = at.getTarget();
+            } else if (message instanceof AtAll) {
+                atAll = true;
+            } else if (message instanceof QuoteReply) {
+                quote = true;
+            } else if (message instanceof Image image) {
+                if (images == null) {
+                    images = new ArrayList<>(2);
+                }
+                images.add(image);
+            }
+        }
+        this.rawPlain = sb.toString();
+        String trimmed = rawPlain.trim();
+        this.command = CommandView.parse(trimmed, HBotCommandEventHandlerManager.prefix);
+        this.plain = command == null ? trimmed : command.getBody();
+        this.mentions = Arrays.copyOf(mentions, mentionCount);
+        Arrays.sort(this.mentions);
+        this.atAll = atAll;
+        this.quote = quote;
+        this.images = images == null ? Collections.emptyList() : Collections.unmodifiableList(images);
+    }
+
+    /**
+     * 获取事件的视图，如果当前线程最近一次获取的就是此事件的视图，则直接返回
+     *
+     * @param event 事件
+     * @return 视图
+     */
+    public static EventView of(GroupMessageEvent event) {
+        EventView view = LAST.get();
+        if (view != null && view.event == event) {
+            return view;
+        }
+        view = new EventView(event);
+        LAST.set(view);
+        return view;
+    }
+
+    /**
+     * 优先使用上下文中保存的视图
+     *
+     * @param event 事件
+     * @param ctx   上下文，可以为 null
+     * @return 视图
+     */
+    public static EventView of(GroupMessageEvent event, Context ctx) {
+        EventView view = ctx == null ? null : ctx.getView();
+        return view != null && view.event == event ? view : of(event);
+    }
+
+    /**
+     * @return 此消息是否是命令
+     */
+    public boolean isCommand() {
+        return command != null;
+    }
+
+    /**
+     * 将视图缓存到当前线程，事件被转交到其他线程执行时调用
+     */
+    static void remember(EventView view) {
+        LAST.set(view);
+    }
+
+    /**
+     * 某人是否被 at
+     */
+    public boolean isAt(long qq) {
+        return Arrays.binarySearch(mentions, qq) >= 0;
+    }
+
+    /**
+     * 是否有机器人被 at，请注意 at all 不会被此方法检测
+     */
+    public boolean isAtBot() {
+        if (mentions.length == 0) {
+            return false;
+        }
+        for (Bot bot : Bot.getInstances()) {
+            if (isAt(bot.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 被 at 的 qq 号的副本，升序排列
+     */
+    public long[] getMentions() {
+        return mentions.clone();
+    }
+
+    /**
+     * @return 消息原始的 mirai 码，命令消息包含命令前缀
+     */
+    public String getMiraiCode() {
+        String code = miraiCode;
+        if (code == null) {
+            miraiCode = code = event.getMessage().serializeToMiraiCode();
+        }
+        return code;
+    }
+
+    /**
+     * 消息的 mirai 码，如果此消息是命令，则去除第一段文本中的命令前缀，与旧版本中代理修改事件后的内容一致
+     *
+     * @return mirai 码
+     * @see io.github.happysnaker.hbotcore.utils.HBotUtil#getContent(net.mamoe.mirai.event.events.MessageEvent)
+     */
+    public String getContent() {
+        String prefix = HBotCommandEventHandlerManager.prefix;
+        if (command == null || prefix == null || prefix.isEmpty()) {
+            return getMiraiCode();
+        }
+        String code = content;
+        if (code == null) {
+            MessageChainBuilder builder = new MessageChainBuilder();
+            boolean removed = false;
+            for (SingleMessage message : event.getMessage()) {
+                if (!removed && message instanceof PlainText text) {
+                    String s = text.getContent();
+                    int i = s.indexOf(prefix);
+                    if (i >= 0) {
+                        message = new PlainText(s.substring(0, i) + s.substring(i + prefix.length()));
+                    }
+                    removed = true;
+                }
+                builder.append(message);
+            }
+            content = code = builder.build().serializeToMiraiCode();
+        }
+        return code;
+    }
+}
@@ -0,0 +1,605 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.command.AdaptInterestCommandEventHandler;
+import io.github.happysnaker.hbotcore.command.CommandView;
+import io.github.happysnaker.hbotcore.handler.AdaptInterestMessageEventHandler;
+import io.github.happysnaker.hbotcore.handler.Interest;
+import io.github.happysnaker.hbotcore.handler.InterestMatcher;
+import io.github.happysnaker.hbotcore.handler.MessageEventHandler;
+import io.github.happysnaker.hbotcore.handler.handler;
+import io.github.happysnaker.hbotcore.utils.LongHashMap;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import org.springframework.util.ClassUtils;
+
+import java.util.*;
+
+/**
+ * 分发级别的候选处理器索引，由 {@link DispatchTable} 在构建时为处理器数组生成
+ * <p>关键字索引：所有 {@link AdaptInterestMessageEventHandler} 与 {@link AdaptInterestCommandEventHandler} 的 CONTAINS 条件被合并为一个 Aho-Corasick 自动机，
+ * PREFIX 与 SUFFIX 条件分别被合并为前缀树与（反向）后缀树，EQUALS 条件被合并为哈希表，
+ * 一次扫描文本即可得到所有可能感兴趣的处理器，其余处理器的 shouldHandle 不需要再被调用</p>
+ * <p>群与发送人倒排索引：如果处理器的 Interest 只可能匹配某些群（或某些发送人）的消息，
+ * 见 {@link InterestMatcher#requiredGroups()}，则它只会出现在这些群号（或发送人）对应的位图中，对其他群的消息没有任何开销</p>
+ * <p>命令路由：通过 {@link handler#commands()} 声明了命令名的命令处理器被放入命令名字典树（与前缀树使用同一种结构），只有命令名完全相同时才是候选者</p>
+ * <p>除声明了命令名的处理器外，只有没有重写 shouldHandle 方法的处理器会被索引，Interest 只包含文本关键字条件（见 {@link InterestMatcher#isKeywordOnly()}）时进入关键字索引，
+ * 否则尝试进入群或发送人倒排索引，都不满足的处理器始终是候选者</p>
+ * <p>增量维护：索引记录了构建时每个处理器的匹配器，基于旧索引构建新索引时（见 {@link #build(MessageEventHandler[], HandlerIndex)}），
+ * 处理器与匹配器均未变化的位置直接复用旧的关键字自动机（只重映射处理器的位置），新加入或 Interest 发生变化的处理器进入一个小的增量自动机，
+ * 增量过大时才合并重建。处理器的 Interest 被替换或修改后，该处理器会退化为调用 shouldHandle 并将索引标记为过期，
+ * 下一次分发时 {@link DispatchTable} 通过 {@link #update()} 只重新索引发生变化的处理器</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see DispatchTable
+ */
+public final class HandlerIndex {
+    /**
+     * 增量自动机的关键字数量超过此值并且超过基础自动机的一半时，合并重建
+     */
+    private static final int COMPACT_THRESHOLD = 64;
+    /**
+     * 处理器的类别：重写了 shouldHandle 或不是适配处理器、声明了命令名、可按 Interest 索引的适配处理器
+     */
+    private static final byte OTHER = 0, ROUTED = 1, ADAPT = 2;
+
+    private final MessageEventHandler[] handlers;
+    private final byte[] kinds;
+    /**
+     * 适配处理器构建时的匹配器，即使未被索引也会记录，用于发现 Interest 的变化
+     */
+    private final InterestMatcher[] matchers;
+    /**
+     * 始终是候选者的处理器
+     */
+    private final long[] always;
+    /**
+     * 关键字索引的基础层与增量层，增量层只包含基础层构建之后新加入或发生变化的处理器，可能为 null
+     */
+    private final Keywords base;
+    private final Keywords delta;
+    /**
+     * 关键字处理器是否位于基础层
+     */
+    private final boolean[] inBase;
+    /**
+     * 群号、发送人到处理器位图的倒排索引，值为位图在数组中的下标
+     */
+    private final LongHashMap groupIndex = new LongHashMap();
+    private final LongHashMap senderIndex = new LongHashMap();
+    private final List<long[]> groupBits = new ArrayList<>();
+    private final List<long[]> senderBits = new ArrayList<>();
+    /**
+     * 声明了命令名的处理器
+     */
+    private final Automaton commands;
+    private final int keywordCount;
+    private final int indexedCount;
+    /**
+     * 是否发现了 Interest 已变化的处理器
+     */
+    private volatile boolean stale;
+
+    private HandlerIndex(MessageEventHandler[] handlers, HandlerIndex previous) {
+        this.handlers = handlers;
+        this.kinds = new byte[handlers.length];
+        this.matchers = new InterestMatcher[handlers.length];
+        this.always = new long[(handlers.length + 63) >>> 6];
+        this.inBase = new boolean[handlers.length];
+
+        // 旧索引中处理器的位置，新位置为 -1 表示处理器已被移除或不再复用
+        Map<MessageEventHandler, Integer> previousSlots = new IdentityHashMap<>();
+        int[] remap = new int[previous == null ? 0 : previous.handlers.length];
+        Arrays.fill(remap, -1);
+        for (int i = 0; i < remap.length; i++) {
+            previousSlots.put(previous.handlers[i], i);
+        }
+
+        List<String> commandWords = new ArrayList<>();
+        List<Integer> commandSlots = new ArrayList<>();
+        List<Integer> keywordSlots = new ArrayList<>(), deltaSlots = new ArrayList<>();
+        int indexed = 0, baseWords = 0, deltaWords = 0;
+        for (int slot = 0; slot < handlers.length; slot++) {
+            MessageEventHandler h = handlers[slot];
+            Integer old = previousSlots.get(h);
+            byte kind = old != null ? previous.kinds[old] : kindOf(h);
+            kinds[slot] = kind;
+            if (kind == ROUTED) {
+                Collections.addAll(commandWords, ClassUtils.getUserClass(h).getAnnotation(handler.class).commands());
+                while (commandSlots.size() < commandWords.size()) {
+                    commandSlots.add(slot);
+                }
+                indexed++;
+                continue;
+            }
+            Interest interest = kind == ADAPT ? interestOf(h) : null;
+            InterestMatcher matcher = interest == null ? null : interest.compile();
+            matchers[slot] = matcher;
+            if (matcher == null) {
+                set(always, slot);
+                continue;
+            }
+            if (!matcher.isKeywordOnly()) {
+                if (indexScope(slot, matcher.requiredGroups(), groupIndex, groupBits)
+                        || indexScope(slot, matcher.requiredSenders(), senderIndex, senderBits)) {
+                    indexed++;
+                } else {
+                    set(always, slot);
+                }
+                continue;
+            }
+            // 空串总是能被包含，直接视为候选者
+            if (hasEmpty(matcher, Interest.MODE.CONTAINS) || hasEmpty(matcher, Interest.MODE.PREFIX)
+                    || hasEmpty(matcher, Interest.MODE.SUFFIX)) {
+                set(always, slot);
+                continue;
+            }
+            indexed++;
+            keywordSlots.add(slot);
+            if (old != null && previous.matchers[old] == matcher && previous.inBase[old]) {
+                remap[old] = slot;
+                inBase[slot] = true;
+                baseWords += Keywords.wordsOf(matcher);
+            } else {
+                deltaSlots.add(slot);
+                deltaWords += Keywords.wordsOf(matcher);
+            }
+        }
+        this.indexedCount = indexed;
+        this.keywordCount = keywordSlots.size();
+        this.commands = Automaton.build(commandWords, commandSlots, false);
+
+        int builtWords = previous == null ? 0 : previous.base.words;
+        if (previous == null || (deltaWords > COMPACT_THRESHOLD && deltaWords * 2 > baseWords) || baseWords * 2 < builtWords) {
+            for (int slot : keywordSlots) {
+                inBase[slot] = true;
+            }
+            this.base = Keywords.build(keywordSlots, matchers);
+            this.delta = null;
+        } else {
+            this.base = previous.base.remap(remap);
+            this.delta = deltaSlots.isEmpty() ? null : Keywords.build(deltaSlots, matchers);
+        }
+    }
+
+    /**
+     * 为处理器数组构建索引，数组中的下标即为处理器在索引中的位置
+     *
+     * @param handlers 处理器数组，构建后不应再被修改
+     * @return 索引
+     */
+    public static HandlerIndex build(MessageEventHandler[] handlers) {
+        return new HandlerIndex(handlers, null);
+    }
+
+    /**
+     * 基于旧索引为新的处理器数组构建索引，只有新加入的处理器以及 Interest 发生变化的处理器需要重新索引
+     *
+     * @param handlers 处理器数组，构建后不应再被修改
+     * @param previous 旧索引，为 null 时完整构建
+     * @return 索引
+     */
+    public static HandlerIndex build(MessageEventHandler[] handlers, HandlerIndex previous) {
+        return new HandlerIndex(handlers, previous);
+    }
+
+    /**
+     * 如果发现了 Interest 已变化的处理器，则基于此索引重新索引这些处理器
+     *
+     * @return 新的索引，没有变化时返回 this
+     */
+    public HandlerIndex update() {
+        return stale ? new HandlerIndex(handlers, this) : this;
+    }
+
+    /**
+     * @return 是否发现了 Interest 已变化的处理器，此时应通过 {@link #update()} 更新索引
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    private boolean indexScope(int slot, Set<Long> ids, LongHashMap index, List<long[]> bitsList) {
+        if (ids == null) {
+            return false;
+        }
+        for (long id : ids) {
+            int i = index.get(id);
+            if (i < 0) {
+                i = bitsList.size();
+                bitsList.add(new long[always.length]);
+                index.put(id, i);
+            }
+            set(bitsList.get(i), slot);
+        }
+        return true;
+    }
+
+    /**
+     * 计算事件的候选处理器，如果事件是命令，则同时按命令名路由
+     *
+     * @param view 事件视图
+     * @return 候选处理器位图，第 i 位为 1 表示第 i 个处理器可能感兴趣
+     */
+    public long[] candidates(EventView view) {
+        long[] bits = candidates(view.getPlain(), view.getGroupId(), view.getSenderId());
+        CommandView command = view.getCommand();
+        if (command != null && !commands.isEmpty()) {
+            for (int slot : commands.lookup(command.getName())) {
+                set(bits, slot);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * 查询倒排索引并扫描一次文本，返回所有候选处理器的位图，不包括命令路由
+     *
+     * @param plain    事件的纯文本内容
+     * @param groupId  群号
+     * @param senderId 发送人
+     * @return 候选处理器位图，第 i 位为 1 表示第 i 个处理器可能感兴趣
+     */
+    public long[] candidates(String plain, long groupId, long senderId) {
+        long[] bits = always.clone();
+        or(bits, groupIndex, groupBits, groupId);
+        or(bits, senderIndex, senderBits, senderId);
+        if (plain == null || keywordCount == 0) {
+            return bits;
+        }
+        base.scan(plain, bits);
+        if (delta != null) {
+            delta.scan(plain, bits);
+        }
+        return bits;
+    }
+
+    private static void or(long[] bits, LongHashMap index, List<long[]> bitsList, long id) {
+        int i = index.get(id);
+        if (i >= 0) {
+            long[] scoped = bitsList.get(i);
+            for (int k = 0; k < bits.length; k++) {
+                bits[k] |= scoped[k];
+            }
+        }
+    }
+
+    /**
+     * 判断第 slot 个处理器是否是候选者
+     */
+    public static boolean isCandidate(long[] bits, int slot) {
+        return (bits[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * 第 slot 个处理器是否可以直接跳过，仅当处理器被索引、不是候选者并且其 Interest 自构建以来没有变化时返回 true
+     * <p>发现 Interest 已变化时返回 false，并将索引标记为过期</p>
+     */
+    boolean canSkip(long[] bits, int slot, MessageEventHandler handler) {
+        if (handlers[slot] != handler || kinds[slot] == OTHER) {
+            return false;
+        }
+        if (kinds[slot] == ADAPT) {
+            Interest interest = interestOf(handler);
+            if ((interest == null ? null : interest.compile()) != matchers[slot]) {
+                stale = true;
+                return false;
+            }
+        }
+        return !isCandidate(bits, slot);
+    }
+
+    /**
+     * @return 被索引的处理器数量
+     */
+    public int getIndexedCount() {
+        return indexedCount;
+    }
+
+    /**
+     * @return 索引覆盖的处理器数量
+     */
+    public int size() {
+        return handlers.length;
+    }
+
+    /**
+     * 处理器的类别只取决于它的类，同一个处理器只需判断一次
+     */
+    private static byte kindOf(MessageEventHandler handler) {
+        handler annotation = ClassUtils.getUserClass(handler).getAnnotation(handler.class);
+        if (annotation != null && annotation.isCommandHandler() && annotation.commands().length > 0) {
+            return ROUTED;
+        }
+        if (!(handler instanceof AdaptInterestMessageEventHandler) && !(handler instanceof AdaptInterestCommandEventHandler)) {
+            return OTHER;
+        }
+        try {
+            Class<?> declaring = ClassUtils.getUserClass(handler)
+                    .getMethod("shouldHandle", GroupMessageEvent.class, Context.class)
+                    .getDeclaringClass();
+            return declaring == AdaptInterestMessageEventHandler.class || declaring == AdaptInterestCommandEventHandler.class
+                    ? ADAPT : OTHER;
+        } catch (NoSuchMethodException e) {
+            return OTHER;
+        }
+    }
+
+    private static Interest interestOf(MessageEventHandler handler) {
+        if (handler instanceof AdaptInterestMessageEventHandler h) {
+            return h.getInterest();
+        }
+        if (handler instanceof AdaptInterestCommandEventHandler h) {
+            return h.getInterest();
+        }
+        return null;
+    }
+
+    private static boolean hasEmpty(InterestMatcher matcher, Interest.MODE mode) {
+        for (String word : matcher.getConditions(mode)) {
+            if (word.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void set(long[] bits, int slot) {
+        bits[slot >>> 6] |= 1L << slot;
+    }
+
+
+    /**
+     * 一层关键字索引，包括 CONTAINS 自动机、PREFIX 前缀树、SUFFIX 反向后缀树与 EQUALS 哈希表
+     */
+    private static final class Keywords {
+        private final Automaton contains;
+        private final Automaton prefix;
+        private final Automaton suffix;
+        private final Map<String, int[]> equals;
+        /**
+         * 构建时的关键字数量，重映射后不变
+         */
+        private final int words;
+
+        private Keywords(Automaton contains, Automaton prefix, Automaton suffix, Map<String, int[]> equals, int words) {
+            this.contains = contains;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.equals = equals;
+            this.words = words;
+        }
+
+        static Keywords build(List<Integer> slots, InterestMatcher[] matchers) {
+            List<String> containsWords = new ArrayList<>(), prefixWords = new ArrayList<>(), suffixWords = new ArrayList<>();
+            List<Integer> containsSlots = new ArrayList<>(), prefixSlots = new ArrayList<>(), suffixSlots = new ArrayList<>();
+            Map<String, Set<Integer>> equalsSlots = new HashMap<>();
+            int words = 0;
+            for (int slot : slots) {
+                InterestMatcher matcher = matchers[slot];
+                words += wordsOf(matcher);
+                for (String word : matcher.getConditions(Interest.MODE.CONTAINS)) {
+                    containsWords.add(word);
+                    containsSlots.add(slot);
+                }
+                for (String word : matcher.getConditions(Interest.MODE.PREFIX)) {
+                    prefixWords.add(word);
+                    prefixSlots.add(slot);
+                }
+                for (String word : matcher.getConditions(Interest.MODE.SUFFIX)) {
+                    suffixWords.add(new StringBuilder(word).reverse().toString());
+                    suffixSlots.add(slot);
+                }
+                for (String word : matcher.getConditions(Interest.MODE.EQUALS)) {
+                    equalsSlots.computeIfAbsent(word, k -> new TreeSet<>()).add(slot);
+                }
+            }
+            Map<String, int[]> equals = new HashMap<>();
+            equalsSlots.forEach((k, v) -> equals.put(k, v.stream().mapToInt(Integer::intValue).toArray()));
+            return new Keywords(Automaton.build(containsWords, containsSlots, true), Automaton.build(prefixWords, prefixSlots, false),
+                    Automaton.build(suffixWords, suffixSlots, false), equals, words);
+        }
+
+        static int wordsOf(InterestMatcher matcher) {
+            return matcher.getConditions(Interest.MODE.CONTAINS).length + matcher.getConditions(Interest.MODE.PREFIX).length
+                    + matcher.getConditions(Interest.MODE.SUFFIX).length + matcher.getConditions(Interest.MODE.EQUALS).length;
+        }
+
+        /**
+         * 复用字典树结构，只将输出中的处理器位置映射到新位置，映射为 -1 的处理器被移除
+         */
+        Keywords remap(int[] map) {
+            Map<String, int[]> remapped = new HashMap<>();
+            equals.forEach((k, v) -> {
+                int[] slots = Automaton.remap(v, map);
+                if (slots.length > 0) {
+                    remapped.put(k, slots);
+                }
+            });
+            return new Keywords(contains.remap(map), prefix.remap(map), suffix.remap(map), remapped, words);
+        }
+
+        void scan(String plain, long[] bits) {
+            int[] slots = equals.get(plain);
+            if (slots != null) {
+                for (int slot : slots) {
+                    set(bits, slot);
+                }
+            }
+            contains.scan(plain, bits);
+            prefix.scanPrefix(plain, false, bits);
+            suffix.scanPrefix(plain, true, bits);
+        }
+    }
+
+    /**
+     * 紧凑的字典树，带失配指针时即为 Aho-Corasick 自动机
+     * <p>每个节点的子节点按字符排序保存在数组中，通过二分查找转移，输出在构建时已沿失配链合并</p>
+     */
+    private static final class Automaton {
+        private static final int[] NONE = new int[0];
+
+        private final char[][] keys;
+        private final int[][] next;
+        private final int[] fail;
+        private final int[][] out;
+
+        private Automaton(char[][] keys, int[][] next, int[] fail, int[][] out) {
+            this.keys = keys;
+            this.next = next;
+            this.fail = fail;
+            this.out = out;
+        }
+
+        static Automaton build(List<String> words, List<Integer> slots, boolean withFail) {
+            List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+            List<Set<Integer>> outs = new ArrayList<>();
+            trie.add(new TreeMap<>());
+            outs.add(new TreeSet<>());
+            for (int i = 0; i < words.size(); i++) {
+                String word = words.get(i);
+                int state = 0;
+                for (int j = 0; j < word.length(); j++) {
+                    Integer child = trie.get(state).get(word.charAt(j));
+                    if (child == null) {
+                        child = trie.size();
+                        trie.add(new TreeMap<>());
+                        outs.add(new TreeSet<>());
+                        trie.get(state).put(word.charAt(j), child);
+                    }
+                    state = child;
+                }
+                outs.get(state).add(slots.get(i));
+            }
+
+            int n = trie.size();
+            char[][] keys = new char[n][];
+            int[][] next = new int[n][];
+            for (int s = 0; s < n; s++) {
+                TreeMap<Character, Integer> children = trie.get(s);
+                keys[s] = new char[children.size()];
+                next[s] = new int[children.size()];
+                int k = 0;
+                for (Map.Entry<Character, Integer> it : children.entrySet()) {
+                    keys[s][k] = it.getKey();
+                    next[s][k++] = it.getValue();
+                }
+            }
+
+            int[] fail = new int[n];
+            if (withFail) {
+                // 广度优先计算失配指针，并将失配节点的输出合并到当前节点
+                Deque<Integer> queue = new ArrayDeque<>();
+                for (int child : next[0]) {
+                    queue.add(child);
+                }
+                while (!queue.isEmpty()) {
+                    int s = queue.poll();
+                    for (int k = 0; k < keys[s].length; k++) {
+                        int child = next[s][k];
+                        int f = fail[s];
+                        int t;
+                        while ((t = child(keys, next, f, keys[s][k])) < 0 && f != 0) {
+                            f = fail[f];
+                        }
+                        fail[child] = t < 0 || t == child ? 0 : t;
+                        outs.get(child).addAll(outs.get(fail[child]));
+                        queue.add(child);
+                    }
+                }
+            }
+
+            int[][] out = new int[n][];
+            for (int s = 0; s < n; s++) {
+                out[s] = outs.get(s).stream().mapToInt(Integer::intValue).toArray();
+            }
+            return new Automaton(keys, next, fail, out);
+        }
+
+        /**
+         * @return 复用转移与失配指针，输出按 map 重映射后的自动机
+         */
+        Automaton remap(int[] map) {
+            int[][] mapped = new int[out.length][];
+            for (int s = 0; s < out.length; s++) {
+                mapped[s] = remap(out[s], map);
+            }
+            return new Automaton(keys, next, fail, mapped);
+        }
+
+        static int[] remap(int[] slots, int[] map) {
+            if (slots.length == 0) {
+                return NONE;
+            }
+            int[] mapped = new int[slots.length];
+            int n = 0;
+            for (int slot : slots) {
+                if (map[slot] >= 0) {
+                    mapped[n++] = map[slot];
+                }
+            }
+            return n == mapped.length ? mapped : Arrays.copyOf(mapped, n);
+        }
+
+        private static int child(char[][] keys, int[][] next, int state, char c) {
+            int i = Arrays.binarySearch(keys[state], c);
+            return i < 0 ? -1 : next[state][i];
+        }
+
+        /**
+         * Aho-Corasick 扫描，标记所有出现在文本中的关键字
+         */
+        void scan(String text, long[] bits) {
+            if (next[0].length == 0) {
+                return;
+            }
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                int t;
+                while ((t = child(keys, next, state, c)) < 0 && state != 0) {
+                    state = fail[state];
+                }
+                state = t < 0 ? 0 : t;
+                for (int slot : out[state]) {
+                    set(bits, slot);
+                }
+            }
+        }
+
+        /**
+         * @return 与文本完全相同的关键字对应的处理器位置，没有则返回空数组
+         */
+        int[] lookup(String text) {
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                state = child(keys, next, state, text.charAt(i));
+                if (state < 0) {
+                    return NONE;
+                }
+            }
+            return out[state];
+        }
+
+        boolean isEmpty() {
+            return next[0].length == 0 && out[0].length == 0;
+        }
+
+        /**
+         * 沿字典树从文本开头（或结尾）匹配，标记所有是文本前缀（或后缀）的关键字
+         */
+        void scanPrefix(String text, boolean reverse, long[] bits) {
+            int state = 0;
+            int len = text.length();
+            for (int i = 0; i < len && next[state].length > 0; i++) {
+                state = child(keys, next, state, text.charAt(reverse ? len - 1 - i : i));
+                if (state < 0) {
+                    return;
+                }
+                for (int slot : out[state]) {
+                    set(bits, slot);
+                }
+            }
+        }
+    }
+}
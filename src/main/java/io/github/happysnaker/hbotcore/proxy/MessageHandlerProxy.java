@@ -1,7 +1,6 @@
 package io.github.happysnaker.hbotcore.proxy;
 
 
-import cn.hutool.core.util.StrUtil;
 import io.github.happysnaker.hbotcore.boot.HBot;
 import io.github.happysnaker.hbotcore.command.HBotCommandEventHandlerManager;
 import io.github.happysnaker.hbotcore.handler.MessageEventHandler;
@@ -10,62 +9,45 @@ import io.github.happysnaker.hbotcore.intercept.Interceptor;
 import io.github.happysnaker.hbotcore.intercept.Intercept;
 import io.github.happysnaker.hbotcore.logger.Logger;
 import io.github.happysnaker.hbotcore.utils.HBotUtil;
-import lombok.Getter;
 import net.mamoe.mirai.event.events.GroupMessageEvent;
 import net.mamoe.mirai.message.data.MessageChain;
-import net.mamoe.mirai.message.data.PlainText;
-import net.mamoe.mirai.message.data.SingleMessage;
 import org.springframework.stereotype.Component;
 
 
-import java.lang.reflect.Field;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * 消息事件代理，此类与 {@link Context} 一同定义了整个 HRobot 中处理消息的逻辑，<strong>此类是所有消息的第一个处理器</strong>，将调用用户的处理器与拦截器执行相关逻辑
+ * <p>处理器与拦截器保存在不可变的 {@link DispatchTable} 中，注册与注销会原子地替换整张分发表，事件处理路径只读取当前快照</p>
  *
  * @see Context
+ * @see DispatchTable
  */
 @Component("proxyHandler")
 public class MessageHandlerProxy implements MessageEventHandler {
-    @Getter
-    private final List<MessageEventHandler> handlers;
-    @Getter
-    private final List<Interceptor> preInterceptors;
-    @Getter
-    private final List<Interceptor> postInterceptors;
-
+    private volatile DispatchTable table = DispatchTable.EMPTY;
+    private final List<MessageEventHandler> handlers = new TableView<>(t -> t.handlers, this::registerHandlers, this::unRegisterHandlers);
+    private final List<Interceptor> preInterceptors = new TableView<>(t -> t.preInterceptors, this::registerInterceptors, this::unRegisterInterceptors);
+    private final List<Interceptor> postInterceptors = new TableView<>(t -> t.postInterceptors, this::registerInterceptors, this::unRegisterInterceptors);
 
 
     /**
      * 获取处理器与拦截器
      */
     public MessageHandlerProxy() {
-        int messageHandlerCount = 0;
-        handlers = new ArrayList<>();
+        List<MessageEventHandler> handlers = new ArrayList<>();
         for (Object bean : HBot.applicationContext.getBeansWithAnnotation(handler.class).values()) {
             if (bean instanceof MessageEventHandler handler) {
                 handlers.add(handler);
-                handler annotation = bean.getClass().getAnnotation(handler.class);
-                messageHandlerCount += annotation.isCommandHandler() ? 0 : 1;
             } else {
                 Logger.error("处理器 %s 未继承 MessageEventHandler 接口", bean.getClass().getName());
             }
         }
-        handlers.sort((a, b) -> {
-            handler annotation0 = a.getClass().getAnnotation(handler.class);
-            handler annotation1 = b.getClass().getAnnotation(handler.class);
-            if (annotation0.isCommandHandler() || annotation1.isCommandHandler()) {
-                if (!annotation0.isCommandHandler() || !annotation1.isCommandHandler()) {
-                    return annotation0.isCommandHandler() ? -1 : 1;
-                }
-            }
-            int aa = annotation0.priority();
-            int bb = annotation1.priority();
-            return bb - aa;
-        });
         List<Interceptor> interceptors = new ArrayList<>();
         for (Object bean : HBot.applicationContext.getBeansWithAnnotation(Intercept.class).values()) {
             if (bean instanceof Interceptor interceptor) {
@@ -74,74 +56,206 @@ public class MessageHandlerProxy implements MessageEventHandler {
                 Logger.error("拦截器 %s 未继承 Interceptor 接口", bean.getClass().getName());
             }
         }
-        preInterceptors = new ArrayList<>(interceptors);
-        postInterceptors = new ArrayList<>(interceptors);
-        preInterceptors.sort((a, b) -> {
-            int aa = a.getClass().getAnnotation(Intercept.class).preOrder();
-            int bb = b.getClass().getAnnotation(Intercept.class).preOrder();
-            return bb - aa;
-        });
-        postInterceptors.sort((a, b) -> {
-            int aa = a.getClass().getAnnotation(Intercept.class).postOrder();
-            int bb = b.getClass().getAnnotation(Intercept.class).postOrder();
-            return bb - aa;
-        });
+        table = DispatchTable.EMPTY.withHandlers(handlers).withInterceptors(interceptors);
 
         Logger.info("消息代理初始化完成，检测到 %d 个用户消息处理器，%d 个命令监听器，%d 个用户消息拦截器",
-                messageHandlerCount, handlers.size() - messageHandlerCount, interceptors.size());
+                table.getNormalHandlerCount(), table.getCommandHandlerCount(), table.getInterceptorCount());
+    }
+
+    /**
+     * @return 当前的分发表快照
+     */
+    public DispatchTable getDispatchTable() {
+        return table;
+    }
+
+    /**
+     * 获取当前所有处理器，命令处理器在前，同类处理器按优先级降序排列
+     * <p>返回的列表始终反映最新的分发表。为了兼容旧版本，列表的 add 与 remove 会分别转换为 {@link #registerHandlers(Collection)}
+     * 与 {@link #unRegisterHandlers(Collection)}，处理器的位置总是由优先级决定，add 指定的下标会被忽略；不支持 set 等其他修改操作</p>
+     */
+    public List<MessageEventHandler> getHandlers() {
+        return handlers;
+    }
+
+    /**
+     * 获取当前的前置拦截器，按调用顺序排列
+     * <p>返回的列表始终反映最新的分发表，add 与 remove 会转换为 {@link #registerInterceptors(Collection)} 与
+     * {@link #unRegisterInterceptors(Collection)}，因此会同时作用于前置与后置拦截器</p>
+     */
+    public List<Interceptor> getPreInterceptors() {
+        return preInterceptors;
+    }
+
+    /**
+     * 获取当前的后置拦截器，按调用顺序排列
+     *
+     * @see #getPreInterceptors()
+     */
+    public List<Interceptor> getPostInterceptors() {
+        return postInterceptors;
+    }
+
+    /**
+     * 添加处理器，已存在的同名处理器将被忽略
+     *
+     * @param handlers 处理器
+     */
+    public synchronized void registerHandlers(Collection<? extends MessageEventHandler> handlers) {
+        table = table.withHandlers(handlers);
+    }
+
+    /**
+     * 按类名移除处理器
+     *
+     * @param classNames 处理器的类名
+     */
+    public synchronized void unRegisterHandlers(Collection<String> classNames) {
+        table = table.withoutHandlers(classNames);
     }
 
+    /**
+     * 添加拦截器，已存在的同名拦截器将被忽略
+     *
+     * @param interceptors 拦截器
+     */
+    public synchronized void registerInterceptors(Collection<? extends Interceptor> interceptors) {
+        table = table.withInterceptors(interceptors);
+    }
+
+    /**
+     * 按类名移除拦截器
+     *
+     * @param classNames 拦截器的类名
+     */
+    public synchronized void unRegisterInterceptors(Collection<String> classNames) {
+        table = table.withoutInterceptors(classNames);
+    }
+
+
+    /**
+     * 异步处理消息事件，连续对话的应答在当前线程中被立即消费，其余消息交由 {@link EventDispatcher} 按群排队执行
+     * <p>多个机器人收到的同一条消息由 {@link EventDeduplicator} 过滤，只会处理一次</p>
+     *
+     * @param event 事件
+     */
+    public void dispatch(GroupMessageEvent event) {
+        if (!EventDeduplicator.accept(event)) {
+            return;
+        }
+        EventView view = EventView.of(event);
+        if (ContinuousDialogue.checkContinuousDialogue(view)) {
+            return;
+        }
+        EventDispatcher.submit(view.getGroupId(), () -> execute(event, null, view));
+    }
 
     @Override
     public List<MessageChain> handleMessageEvent(GroupMessageEvent event, Context ctx) {
-        boolean isCommand = false;
-        if (HBotUtil.getOnlyPlainContent(event).startsWith(HBotCommandEventHandlerManager.prefix)) {
-            isCommand = true;
-            MessageChain chain = event.getMessage();
-            for (SingleMessage message : chain) {
-                // remove command prefix
-                if (message instanceof PlainText str) {
-                    if (StrUtil.isEmpty(HBotCommandEventHandlerManager.prefix)) {
-                        break;
-                    }
-                    String plain = str.getContent().replaceFirst(HBotCommandEventHandlerManager.prefix, "");
-                    try {
-                        Field content = PlainText.class.getDeclaredField("content");
-                        content.setAccessible(true);
-                        content.set(str, plain);
-                    } catch (NoSuchFieldException | IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                    break;
-                }
-            }
-        }
-        if (ContinuousDialogue.checkContinuousDialogue(event)) {
+        EventView view = EventView.of(event, ctx);
+        if (ContinuousDialogue.checkContinuousDialogue(view)) {
             return null;
         }
+        execute(event, ctx, view);
+        return null;
+    }
+
+    /**
+     * 处理器的 Interest 被修改后重新索引这些处理器，如果分发表已被其他线程替换则直接使用新表
+     */
+    private synchronized DispatchTable updateIndexes(DispatchTable snapshot) {
+        if (table == snapshot) {
+            table = snapshot.withUpdatedIndexes();
+        }
+        return table;
+    }
+
+    private void execute(GroupMessageEvent event, Context ctx, EventView view) {
+        // 命令不再修改事件，命令前缀只体现在视图中
+        boolean isCommand = view.isCommand();
         if (ctx == null) {
-            List<MessageEventHandler> commandHandlers = handlers.stream()
-                    .filter(h -> h.getClass().getAnnotation(handler.class) != null && h.getClass().getAnnotation(handler.class).isCommandHandler())
-                    .collect(Collectors.toList());
-            List<MessageEventHandler> normalHandlers = handlers.stream()
-                    .filter(h -> h.getClass().getAnnotation(handler.class) == null || !h.getClass().getAnnotation(handler.class).isCommandHandler())
-                    .collect(Collectors.toList());
-            ctx = new Context(isCommand ? commandHandlers : normalHandlers,
-                    preInterceptors, postInterceptors);
+            // 读取一次快照，整个事件生命周期都使用同一张表
+            DispatchTable snapshot = table;
+            if (snapshot.isIndexStale()) {
+                snapshot = updateIndexes(snapshot);
+            }
+            ctx = isCommand
+                    ? new Context(snapshot.commandHandlers, snapshot.commandIndex, snapshot.preInterceptors, snapshot.postInterceptors)
+                    : new Context(snapshot.normalHandlers, snapshot.normalIndex, snapshot.preInterceptors, snapshot.postInterceptors);
+        }
+        if (ctx.getView() == null) {
+            ctx.setView(view);
         }
         int execute = ctx.execute(event);
         if (isCommand && execute == 0) {
-            event.getSubject()
-                    .sendMessage(HBotUtil.buildMessageChain(
-                            HBotUtil.getQuoteReply(event),
-                            "未能识别的命令格式 " + HBotCommandEventHandlerManager.prefix + HBotUtil.getOnlyPlainContent(event)
-                    ));
+            MessageChain reply = HBotUtil.buildMessageChain(
+                    HBotUtil.getQuoteReply(event),
+                    "未能识别的命令格式 " + HBotCommandEventHandlerManager.prefix + view.getPlain()
+            );
+            if (MessageSender.async) {
+                MessageSender.send(event.getSubject(), reply);
+            } else {
+                event.getSubject().sendMessage(reply);
+            }
         }
-        return null;
     }
 
     @Override
     public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
         return true;
     }
+
+
+    /**
+     * 分发表的列表视图，读取当前快照，修改转换为注册与注销
+     */
+    private final class TableView<T> extends AbstractList<T> {
+        private final Function<DispatchTable, T[]> array;
+        private final Consumer<Collection<T>> register;
+        private final Consumer<Collection<String>> unRegister;
+
+        TableView(Function<DispatchTable, T[]> array, Consumer<Collection<T>> register, Consumer<Collection<String>> unRegister) {
+            this.array = array;
+            this.register = register;
+            this.unRegister = unRegister;
+        }
+
+        @Override
+        public T get(int index) {
+            return array.apply(table)[index];
+        }
+
+        @Override
+        public int size() {
+            return array.apply(table).length;
+        }
+
+        @Override
+        public boolean add(T t) {
+            int size = size();
+            register.accept(List.of(t));
+            return size() != size;
+        }
+
+        @Override
+        public void add(int index, T t) {
+            add(t);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (o == null || !contains(o)) {
+                return false;
+            }
+            unRegister.accept(List.of(o.getClass().getName()));
+            return true;
+        }
+
+        @Override
+        public T remove(int index) {
+            T t = get(index);
+            remove(t);
+            return t;
+        }
+    }
 }
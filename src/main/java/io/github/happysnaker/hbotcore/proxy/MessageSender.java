@@ -0,0 +1,449 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.boot.HBot;
+import io.github.happysnaker.hbotcore.logger.Logger;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+import io.github.happysnaker.hbotcore.utils.HashedWheelTimer;
+import io.github.happysnaker.hbotcore.utils.StringUtil;
+import net.mamoe.mirai.Bot;
+import net.mamoe.mirai.contact.*;
+import net.mamoe.mirai.event.events.EventCancelledException;
+import net.mamoe.mirai.message.data.MessageChain;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消息发送队列，{@link Context} 的回复与 {@link io.github.happysnaker.hbotcore.utils.HBotUtil#sendMsgAsync} 都经由此类发送
+ * <p>每个联系人（群、好友、群临时会话）拥有一个先进先出的队列，同一个联系人的消息严格按照入队顺序发送；不同联系人的消息由发送线程池并行发送，
+ * 事件线程只需入队即可返回，不会被网络阻塞</p>
+ * <p>同一个机器人的所有消息共享一个令牌桶，每秒至多发送 {@link #permitsPerSecond} 条，允许 {@link #burst} 条的突发，以避免触发风控；
+ * 令牌不足时队列会在令牌补充后继续发送</p>
+ * <p>发送失败时按指数退避重试 {@link #maxRetries} 次，重试期间同一个联系人后续的消息会等待，以保证顺序；消息过长、机器人被禁言、
+ * 发送事件被取消等重试也无法成功的失败不会重试，参见 {@link #isTransient(Throwable)}；仍然失败或者队列已满的消息会写入
+ * {@link #deadLetterFile}，文件超过 {@link #deadLetterMaxSize} 时会被转存为 .1 文件，因此至多占用两倍的空间</p>
+ * <p>多个机器人位于同一个群时，{@link #routing} 为 {@link Routing#BALANCED} 则发往群的消息不再固定由收到事件的机器人发送：
+ * 同一个群的消息共用一个队列，每条消息发送前在群中在线、未被禁言且最近没有发送失败的机器人中选择令牌最多的一个，
+ * 从而将发送压力分摊到多个账号上；发送失败的机器人在 {@link #failureCooldownMillis} 毫秒内不会被选择</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public class MessageSender {
+    /**
+     * 发往群的消息由哪个机器人发送
+     */
+    public enum Routing {
+        /**
+         * 由收到事件的机器人发送
+         */
+        NONE,
+        /**
+         * 在群中可用的机器人之间均衡
+         */
+        BALANCED
+    }
+
+    /**
+     * 是否异步发送回复，关闭后 Context 会在事件线程中同步发送
+     */
+    public static boolean async = true;
+    /**
+     * 发送线程数
+     */
+    public static int threads = 4;
+    /**
+     * 每个机器人每秒至多发送的消息数，小于等于 0 表示不限制
+     */
+    public static double permitsPerSecond = 5;
+    /**
+     * 令牌桶容量，即允许的突发消息数
+     */
+    public static int burst = 10;
+    /**
+     * 每个联系人的队列容量，超过后新消息直接写入死信文件
+     */
+    public static int queueCapacity = 256;
+    /**
+     * 最大重试次数
+     */
+    public static int maxRetries = 3;
+    /**
+     * 第一次重试前等待的毫秒数，此后每次翻倍
+     */
+    public static long retryBackoffMillis = 1000;
+    public static Routing routing = Routing.NONE;
+    /**
+     * BALANCED 模式下，发送失败的机器人暂停被选择的毫秒数
+     */
+    public static long failureCooldownMillis = 30_000;
+    public static String deadLetterFile = HBot.joinPath(HBot.DATA_DIR, "dead_letter.log");
+    public static long deadLetterMaxSize = 1024 * 1024;
+
+    private static final int BATCH = 16;
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Map<Key, ContactQueue> queues = new ConcurrentHashMap<>();
+    private static final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private static final HashedWheelTimer timer = new HashedWheelTimer("hbot-sender-timer", 10, TimeUnit.MILLISECONDS, 512);
+    private static final LongAdder retries = Metrics.counter("sender.retries");
+    private static final LongAdder deadLetters = Metrics.counter("sender.deadLetters");
+    private static final LongAdder rerouted = Metrics.counter("sender.rerouted");
+    private static volatile Executor executor;
+
+    static {
+        Metrics.gauge("sender.queued", MessageSender::getQueuedCount);
+    }
+
+    /**
+     * 将消息加入联系人的发送队列
+     *
+     * @param contact 联系人
+     * @param chains  消息，按顺序发送，null 或空消息会被忽略
+     * @return 所有消息都发送成功后完成；任意一条消息最终发送失败时以 {@link java.util.concurrent.CompletionException} 完成，
+     * 但其余的消息仍会继续发送
+     */
+    public static CompletableFuture<Void> send(Contact contact, List<MessageChain> chains) {
+        if (chains == null || chains.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ContactQueue queue = queues.computeIfAbsent(Key.of(contact), ContactQueue::new);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[chains.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = queue.offer(contact, chains.get(i));
+        }
+        return futures.length == 1 ? futures[0].thenApply(v -> null) : CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * 将一条消息加入联系人的发送队列
+     *
+     * @see #send(Contact, List)
+     */
+    public static CompletableFuture<Void> send(Contact contact, MessageChain chain) {
+        return send(contact, List.of(chain));
+    }
+
+    /**
+     * @return 所有联系人队列中等待发送的消息总数
+     */
+    public static int getQueuedCount() {
+        int c = 0;
+        for (ContactQueue queue : queues.values()) {
+            c += queue.size();
+        }
+        return c;
+    }
+
+    /**
+     * @return 写入死信文件的消息总数
+     */
+    public static long getDeadLetterCount() {
+        return deadLetters.sum();
+    }
+
+    private static Executor executor() {
+        Executor e = executor;
+        if (e == null) {
+            synchronized (MessageSender.class) {
+                if ((e = executor) == null) {
+                    AtomicInteger id = new AtomicInteger();
+                    executor = e = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+                        Thread t = new Thread(r, "hbot-sender-" + id.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return e;
+    }
+
+    private static TokenBucket bucket(long botId) {
+        return buckets.computeIfAbsent(botId, k -> new TokenBucket());
+    }
+
+    /**
+     * 选择发送群消息的机器人
+     *
+     * @return 群中可用且令牌最多的机器人对应的群对象，没有可用的机器人时返回 fallback
+     */
+    private static Contact route(Group fallback) {
+        long groupId = fallback.getId(), now = System.nanoTime();
+        Group best = null;
+        double bestTokens = 0;
+        for (Bot bot : Bot.getInstances()) {
+            Group group;
+            if (!bot.isOnline() || (group = bot.getGroup(groupId)) == null) {
+                continue;
+            }
+            if (group.getBotMuteRemaining() > 0
+                    || (group.getSettings().isMuteAll() && group.getBotPermission() == MemberPermission.MEMBER)) {
+                continue;
+            }
+            TokenBucket bucket = bucket(bot.getId());
+            if (now - bucket.failedAt < TimeUnit.MILLISECONDS.toNanos(failureCooldownMillis)) {
+                continue;
+            }
+            double tokens = bucket.available();
+            // 令牌相同时优先由收到事件的机器人发送
+            if (best == null || tokens > bestTokens || (tokens == bestTokens && bot.getId() == fallback.getBot().getId())) {
+                best = group;
+                bestTokens = tokens;
+            }
+        }
+        if (best == null) {
+            return fallback;
+        }
+        if (best.getBot().getId() != fallback.getBot().getId()) {
+            rerouted.increment();
+        }
+        return best;
+    }
+
+    /**
+     * 判断发送失败是否值得重试
+     *
+     * @return 消息过长、机器人被禁言或没有权限、发送事件被拦截器取消以及参数错误时返回 false，这些失败重试也不会成功；其余如网络异常、
+     * 机器人掉线等返回 true
+     */
+    static boolean isTransient(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return !(e instanceof MessageTooLargeException
+                || e instanceof BotIsBeingMutedException
+                || e instanceof PermissionDeniedException
+                || e instanceof EventCancelledException
+                || e instanceof IllegalArgumentException);
+    }
+
+    /**
+     * 写入死信文件，文件过大时转存
+     */
+    private static synchronized void deadLetter(Key key, MessageChain chain, int attempts, String reason) {
+        deadLetters.increment();
+        Metrics.REPLY_FAILURES.increment();
+        Logger.warning("发送给 %s 的消息在 %d 次尝试后失败，已写入死信文件：%s", key, attempts, reason);
+        String line = String.format("[%s] %s attempts=%d reason=%s -> %s%n",
+                TIME_FORMATTER.format(LocalDateTime.now()), key, attempts,
+                reason, chain.serializeToMiraiCode().replace('\n', ' '));
+        try {
+            File file = new File(deadLetterFile);
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            if (file.length() > deadLetterMaxSize) {
+                File old = new File(deadLetterFile + ".1");
+                old.delete();
+                file.renameTo(old);
+            }
+            try (OutputStream out = new FileOutputStream(file, true)) {
+                out.write(line.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            Logger.error(e);
+        }
+    }
+
+
+    /**
+     * 联系人的标识，同一个人的好友会话与群临时会话是不同的联系人
+     *
+     * @param kind g 表示群，m 表示群临时会话（group 为所在的群），f 表示好友等其他联系人
+     */
+    record Key(long botId, char kind, long id, long group) {
+        static Key of(Contact contact) {
+            Bot bot = contact.getBot();
+            long botId = bot == null ? 0 : bot.getId();
+            if (contact instanceof Group) {
+                // 均衡模式下同一个群的消息不区分机器人，发送时再决定
+                return new Key(routing == Routing.BALANCED ? 0 : botId, 'g', contact.getId(), 0);
+            }
+            if (contact instanceof Member member) {
+                return new Key(botId, 'm', member.getId(), member.getGroup().getId());
+            }
+            return new Key(botId, 'f', contact.getId(), 0);
+        }
+
+        @Override
+        public String toString() {
+            return switch (kind) {
+                case 'g' -> (botId == 0 ? "bot=* group=" : "bot=" + botId + " group=") + id;
+                case 'm' -> "bot=" + botId + " group=" + group + " member=" + id;
+                default -> "bot=" + botId + " friend=" + id;
+            };
+        }
+    }
+
+    /**
+     * 待发送的一条消息
+     */
+    private static final class Outgoing {
+        final Contact contact;
+        final MessageChain chain;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        int attempts;
+
+        Outgoing(Contact contact, MessageChain chain) {
+            this.contact = contact;
+            this.chain = chain;
+        }
+    }
+
+    /**
+     * 令牌桶，按时间惰性补充令牌
+     */
+    static final class TokenBucket {
+        private double tokens = burst;
+        private long last = System.nanoTime();
+        /**
+         * 最近一次发送失败的时间
+         */
+        volatile long failedAt = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+
+        /**
+         * 尝试获取一个令牌
+         *
+         * @return 0 表示获取成功，否则为令牌补充所需等待的纳秒数
+         */
+        synchronized long acquire() {
+            double rate = permitsPerSecond;
+            if (rate <= 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(Math.max(1, burst), tokens + (now - last) * rate / 1e9);
+            last = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) * 1e9 / rate);
+        }
+
+        /**
+         * @return 当前可用的令牌数，不消耗令牌
+         */
+        synchronized double available() {
+            double rate = permitsPerSecond;
+            if (rate <= 0) {
+                return Double.MAX_VALUE;
+            }
+            return Math.min(Math.max(1, burst), tokens + (System.nanoTime() - last) * rate / 1e9);
+        }
+    }
+
+    /**
+     * 单个联系人的发送队列，至多只有一个线程在发送此队列中的消息；等待令牌或重试退避时队列仍处于调度状态，由定时器唤醒
+     */
+    private static final class ContactQueue implements Runnable {
+        private final Key key;
+        private final ArrayDeque<Outgoing> pending = new ArrayDeque<>();
+        private boolean scheduled;
+
+        ContactQueue(Key key) {
+            this.key = key;
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        CompletableFuture<Void> offer(Contact contact, MessageChain chain) {
+            Outgoing out = new Outgoing(contact, chain);
+            if (chain == null || chain.isEmpty()) {
+                out.future.complete(null);
+                return out.future;
+            }
+            boolean schedule = false, rejected = false;
+            synchronized (this) {
+                if (pending.size() >= queueCapacity) {
+                    rejected = true;
+                } else {
+                    pending.add(out);
+                    if (!scheduled) {
+                        scheduled = schedule = true;
+                    }
+                }
+            }
+            if (rejected) {
+                deadLetter(key, chain, 0, "queue is full");
+                out.future.completeExceptionally(new RejectedExecutionException("The send queue of " + key + " is full"));
+            } else if (schedule) {
+                executor().execute(this);
+            }
+            return out.future;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Outgoing out;
+                synchronized (this) {
+                    out = pending.peek();
+                    if (out == null) {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                Contact contact = routing == Routing.BALANCED && out.contact instanceof Group group ? route(group) : out.contact;
+                Bot bot = contact.getBot();
+                TokenBucket bucket = bucket(bot == null ? 0 : bot.getId());
+                long wait = bucket.acquire();
+                if (wait > 0) {
+                    later(wait);
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    out.attempts++;
+                    contact.sendMessage(out.chain);
+                    Metrics.REPLY.recordSince(start);
+                    complete();
+                    out.future.complete(null);
+                } catch (Throwable e) {
+                    boolean retry = isTransient(e);
+                    // 消息本身的问题不应影响机器人的选择
+                    if (retry || e instanceof BotIsBeingMutedException) {
+                        bucket.failedAt = System.nanoTime();
+                    }
+                    if (retry && out.attempts <= maxRetries) {
+                        retries.increment();
+                        Logger.debug("发送给 %s 的消息失败，第 %d 次重试：%s", key, out.attempts, e.getMessage());
+                        later(TimeUnit.MILLISECONDS.toNanos(retryBackoffMillis << Math.min(out.attempts - 1, 16)));
+                        return;
+                    }
+                    complete();
+                    deadLetter(key, out.chain, out.attempts, StringUtil.isNullOrEmpty(e.getMessage()) ? e.toString() : e.getMessage());
+                    out.future.completeExceptionally(e);
+                }
+            }
+            // 让出线程，队列仍处于调度状态
+            executor().execute(this);
+        }
+
+        /**
+         * 移除队首已完成的消息
+         */
+        private synchronized void complete() {
+            pending.poll();
+        }
+
+        private void later(long nanos) {
+            timer.schedule(() -> executor().execute(this), nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
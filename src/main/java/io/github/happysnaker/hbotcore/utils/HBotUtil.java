@@ -1,28 +1,23 @@
 package io.github.happysnaker.hbotcore.utils;
 
 
-import com.alibaba.fastjson.JSONObject;
 import io.github.happysnaker.hbotcore.exception.CanNotSendMessageException;
 import io.github.happysnaker.hbotcore.exception.FileUploadException;
+import io.github.happysnaker.hbotcore.proxy.EventView;
+import io.github.happysnaker.hbotcore.proxy.MessageSender;
 import net.mamoe.mirai.Bot;
 import net.mamoe.mirai.contact.Contact;
 import net.mamoe.mirai.contact.Group;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
 import net.mamoe.mirai.event.events.MessageEvent;
-import net.mamoe.mirai.message.code.MiraiCode;
 import net.mamoe.mirai.message.data.*;
-import net.mamoe.mirai.utils.ExternalResource;
 
 import javax.naming.CannotProceedException;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -33,8 +28,6 @@ import java.util.stream.Collectors;
  */
 public class HBotUtil {
 
-    private static final String TAG_PATTERN = "(\\[hrobot::\\$.*?])(\\((.*?)\\))";
-
     /**
      * 读取机器人所有的群
      *
@@ -53,6 +46,7 @@ public class HBotUtil {
 
     /**
      * 从事件中提取消息，并将该消息转换为 mirai 码
+     * <p>命令消息返回去除命令前缀后的 mirai 码，与旧版本一致，见 {@link EventView#getContent()}；需要带前缀的原始 mirai 码时请使用 {@link EventView#getMiraiCode()}</p>
      *
      * @param event 消息事件
      * @return mirai 编码消息
@@ -61,6 +55,9 @@ public class HBotUtil {
         if (event == null) {
             return null;
         }
+        if (event instanceof GroupMessageEvent groupEvent) {
+            return EventView.of(groupEvent).getContent();
+        }
         return getContent(event.getMessage());
     }
 
@@ -88,23 +85,6 @@ public class HBotUtil {
         return null;
     }
 
-    /**
-     * 提取 HRobot 中的 tag 和 val
-     *
-     * @param matcher matcher
-     * @return tag-val 键值对
-     */
-    private static Pair<String, String> findValidTagAndVal(Matcher matcher) {
-        String tag = matcher.group(1);
-        String val = matcher.group(2);
-        tag = tag.substring(10, tag.length() - 1);
-        val = val.substring(1, val.length() - 1);
-        if (tag.isEmpty()) {
-            return null;
-        }
-        return Pair.of(tag, val);
-    }
-
     /**
      * 从 mirai 编码转换为 MessageChain，同时这个函数将会解析 HRobot 自带的标签
      *
@@ -114,76 +94,7 @@ public class HBotUtil {
      * @throws CannotProceedException 解析 HRobot 标签出错时抛出
      */
     public static MessageChain parseMiraiCode(String content, MessageEvent event) throws CannotProceedException {
-        Pattern pattern = Pattern.compile(TAG_PATTERN);
-        Matcher matcher = pattern.matcher(content);
-        int fromIndex = 0;
-        MessageChainBuilder builder = new MessageChainBuilder();
-        while (matcher.find()) {
-            Pair<String, String> pair = findValidTagAndVal(matcher);
-            if (pair == null) continue;
-            String tag = pair.getKey(), val = pair.getValue();
-            builder.append(MiraiCode.deserializeMiraiCode(content.substring(fromIndex, matcher.start())));
-            fromIndex = matcher.end();
-            try {
-                String lowerCase = tag.toLowerCase();
-                if (lowerCase.startsWith("map")) {
-                    List<String> ps = new ArrayList<>();
-                    String key = lowerCase.substring("map".length());
-                    while (key.contains("[")) {
-                        int x = key.indexOf('[');
-                        int y = key.indexOf(']');
-                        ps.add(key.substring(x + 1, y).trim());
-                        key = key.substring(y + 1);
-                    }
-                    MapGetter mg = null;
-                    if (val.startsWith("http")) {
-                        mg = IOUtil.sendAndGetResponseMapGetter(new URL(val), "GET", null, null);
-                    } else {
-                        mg = new MapGetter(JSONObject.parseObject(IOUtil.readFile(new File(val)), Map.class));
-                    }
-                    for (int i = 0; i < ps.size(); i++) {
-                        if (i == ps.size() - 1) {
-                            builder.append(mg.getString(ps.get(i), true));
-                        } else {
-                            mg = mg.getMapGetter(ps.get(i));
-                        }
-                    }
-                    continue;
-                }
-                switch (lowerCase) {
-                    case "img" -> {
-                        if (val.startsWith("http")) {
-                            builder.append(uploadImage(event, new URL(val)));
-                        } else {
-                            builder.append(uploadImage(event, val));
-                        }
-                    }
-                    case "text" -> {
-                        if (val.startsWith("http")) {
-                            builder.append(IOUtil.sendAndGetResponseString(new URL(val), "GET", null, null));
-                        } else {
-                            builder.append(Files.readString(Path.of(val)));
-                        }
-                    }
-                    case "quote" -> {
-                        builder.append(getQuoteReply(event));
-                    }
-                    case "at" -> {
-                        if (val.equals("sender")) {
-                            builder.append(new At(getSenderIdAsLong(event)));
-                        } else {
-                            builder.append(Long.parseLong(val) == -1L ? AtAll.INSTANCE : new At(Long.parseLong(val)));
-                        }
-                    }
-                    default ->
-                            builder.append(MiraiCode.deserializeMiraiCode(content.substring(matcher.start(), matcher.end())));
-                }
-            } catch (Exception e) {
-                throw new CannotProceedException(String.format("解析语义标签 %s 出错，异常原因 %s, 可能是网络超时或者值的格式不正确", matcher.group(0), e.getMessage()));
-            }
-        }
-        builder.append(MiraiCode.deserializeMiraiCode(content.substring(fromIndex)));
-        return builder.build();
+        return MessageTemplate.of(content).render(event);
     }
 
     /**
@@ -196,81 +107,13 @@ public class HBotUtil {
      * @throws CannotProceedException 解析 HRobot 标签出错时抛出
      */
     public static MessageChain parseMiraiCode(String content) throws CannotProceedException {
-        Contact contact = null;
-        Pattern pattern = Pattern.compile(TAG_PATTERN);
-        Matcher matcher = pattern.matcher(content);
-        int fromIndex = 0;
-        MessageChainBuilder builder = new MessageChainBuilder();
-        while (matcher.find()) {
-            Pair<String, String> pair = findValidTagAndVal(matcher);
-            if (pair == null) continue;
-            String tag = pair.getKey(), val = pair.getValue();
-            builder.append(MiraiCode.deserializeMiraiCode(content.substring(fromIndex, matcher.start())));
-            fromIndex = matcher.end();
-            try {
-                String lowerCase = tag.toLowerCase();
-                if (lowerCase.startsWith("map")) {
-                    List<String> ps = new ArrayList<>();
-                    String key = lowerCase.substring("map".length());
-                    while (key.contains("[")) {
-                        int x = key.indexOf('[');
-                        int y = key.indexOf(']');
-                        ps.add(key.substring(x + 1, y).trim());
-                        key = key.substring(y + 1);
-                    }
-                    MapGetter mg = null;
-                    if (val.startsWith("http")) {
-                        mg = IOUtil.sendAndGetResponseMapGetter(new URL(val), "GET", null, null);
-                    } else {
-                        mg = new MapGetter(JSONObject.parseObject(IOUtil.readFile(new File(val)), Map.class));
-                    }
-                    for (int i = 0; i < ps.size(); i++) {
-                        if (i == ps.size() - 1) {
-                            builder.append(mg.getString(ps.get(i), true));
-                        } else {
-                            mg = mg.getMapGetter(ps.get(i));
-                        }
-                    }
-                    continue;
-                }
-                switch (lowerCase) {
-                    case "img" -> {
-                        if (contact == null) {
-                            contact = getAdaptContact();
-                        }
-                        if (val.startsWith("http")) {
-                            builder.append(uploadImage(contact, new URL(val)));
-                        } else {
-                            builder.append(uploadImage(contact, val));
-                        }
-                    }
-                    case "at" -> {
-                        if (val.equals("sender")) {
-                            throw new CannotProceedException("没有消息源，无法引用发送人");
-                        }
-                        builder.append(Long.parseLong(val) == -1L ? AtAll.INSTANCE : new At(Long.parseLong(val)));
-                    }
-                    case "text" -> {
-                        if (val.startsWith("http")) {
-                            builder.append(IOUtil.sendAndGetResponseString(new URL(val), "GET", null, null));
-                        } else {
-                            builder.append(Files.readString(Path.of(val)));
-                        }
-                    }
-                    case "quote" -> throw new CannotProceedException("没有消息源，无法引用发送人");
-                    default ->
-                            builder.append(MiraiCode.deserializeMiraiCode(content.substring(matcher.start(), matcher.end())));
-                }
-            } catch (Exception e) {
-                throw new CannotProceedException(String.format("解析语义标签 %s 出错，异常原因 %s, 可能是网络超时或者值的格式不正确", matcher.group(0), e.getMessage()));
-            }
-        }
-        builder.append(MiraiCode.deserializeMiraiCode(content.substring(fromIndex)));
-        return builder.build();
+        return MessageTemplate.of(content).render(null);
     }
 
     /**
      * 从事件中提取消息，该消息仅包含纯文本内容
+     * <p>与旧版本相同，返回的文本去除了首尾空格。以命令前缀开头的群消息返回去除前缀后的文本：旧版本由代理直接修改事件中的文本，
+     * 现在事件不再被修改，因此在代理之外（例如自行订阅的 mirai 监听器中）调用时同样不含前缀。需要原始文本时请使用 {@link EventView#getRawPlain()}</p>
      *
      * @param event 消息事件
      * @return 去除了表情、图片、at 等其他元素的纯文本消息
@@ -280,6 +123,9 @@ public class HBotUtil {
         if (event == null) {
             return null;
         }
+        if (event instanceof GroupMessageEvent groupEvent) {
+            return EventView.of(groupEvent).getPlain();
+        }
         StringBuilder sb = new StringBuilder();
         for (SingleMessage singleMessage : event.getMessage()) {
             if (singleMessage instanceof PlainText) {
@@ -290,7 +136,7 @@ public class HBotUtil {
     }
 
     /**
-     * 读取文件（图片）并上传至腾讯服务器
+     * 读取文件（图片）并上传至腾讯服务器，相同内容的图片只会上传一次，见 {@link ImageCache}
      *
      * @param event    对应事件
      * @param filename 图片文件路径名
@@ -298,14 +144,14 @@ public class HBotUtil {
      */
     public static Image uploadImage(MessageEvent event, String filename) throws FileUploadException {
         try {
-            return ExternalResource.uploadAsImage(new File(filename), event.getSubject());
+            return ImageCache.upload(event.getSubject(), new File(filename));
         } catch (Exception e) {
-            throw new FileUploadException("无法上传文件: " + filename + "，可能的原因是 " + e.getCause().toString());
+            throw new FileUploadException("无法上传文件: " + filename + "，可能的原因是 " + (e.getCause() == null ? e : e.getCause()));
         }
     }
 
     /**
-     * 读取文件（图片）并上传至腾讯服务器
+     * 读取文件（图片）并上传至腾讯服务器，相同内容的图片只会上传一次，见 {@link ImageCache}
      *
      * @param contact  上传对象，上传对象可以是任意对象，仅上传并不会发送图片
      * @param filename 图片文件路径名
@@ -313,14 +159,14 @@ public class HBotUtil {
      */
     public static Image uploadImage(Contact contact, String filename) throws FileUploadException {
         try {
-            return ExternalResource.uploadAsImage(new File(filename), contact);
+            return ImageCache.upload(contact, new File(filename));
         } catch (Exception e) {
-            throw new FileUploadException("无法上传文件: " + filename + "，可能的原因是 " + e.getCause().toString());
+            throw new FileUploadException("无法上传文件: " + filename + "，可能的原因是 " + (e.getCause() == null ? e : e.getCause()));
         }
     }
 
     /**
-     * 网络图片并上传至腾讯服务器
+     * 网络图片并上传至腾讯服务器，服务端允许缓存时图片内容由 {@link ResourceCache} 缓存，否则每次都会重新下载；相同内容的图片只会上传一次
      *
      * @param event 对应事件
      * @param url   网络图片 URL
@@ -332,7 +178,7 @@ public class HBotUtil {
 
 
     /**
-     * 网络图片并上传至腾讯服务器
+     * 网络图片并上传至腾讯服务器，服务端允许缓存时图片内容由 {@link ResourceCache} 缓存，否则每次都会重新下载；相同内容的图片只会上传一次
      *
      * @param url 网络图片 URL
      * @return net.mamoe.mirai.message.data.Image
@@ -342,20 +188,15 @@ public class HBotUtil {
     }
 
     /**
-     * 网络图片并上传至腾讯服务器
+     * 网络图片并上传至腾讯服务器，服务端允许缓存时图片内容由 {@link ResourceCache} 缓存，否则每次都会重新下载；相同内容的图片只会上传一次
      *
      * @param contact 要发送的对象，仅会上传而不会实际发送
      * @param url     网络图片 URL
      * @return net.mamoe.mirai.message.data.Image
      */
     public static Image uploadImage(Contact contact, URL url) throws FileUploadException {
-        try (InputStream stream = IOUtil.sendAndGetResponseStream(
-                url,
-                "GET",
-                null,
-                null
-        )) {
-            return Contact.uploadImage(contact, stream);
+        try {
+            return ImageCache.upload(contact, ResourceCache.getBytes(url.toString(), ResourceCache.DEFAULT_TTL));
         } catch (IOException e) {
             throw new FileUploadException(e);
         }
@@ -525,19 +366,14 @@ public class HBotUtil {
 
 
     /**
-     * 异步发送多条消息，<strong>注意此方法并不能保证发送消息的顺序<strong/>
+     * 异步发送多条消息，消息会加入联系人的发送队列，与同一联系人的其他消息按入队顺序发送，失败时会自动重试
      *
      * @param msg     消息链
      * @param contact 发送对象
+     * @see MessageSender
      */
     public static CompletableFuture<Void> sendMsgAsync(List<MessageChain> msg, Contact contact) throws CanNotSendMessageException {
-        return CompletableFuture.runAsync(() -> {
-            try {
-                sendMsg(msg, contact);
-            } catch (CanNotSendMessageException e) {
-                throw new RuntimeException(e);
-            }
-        });
+        return MessageSender.send(contact, msg);
     }
 
     /**
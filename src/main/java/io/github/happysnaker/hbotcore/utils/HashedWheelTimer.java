@@ -0,0 +1,158 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import io.github.happysnaker.hbotcore.logger.Logger;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮，适用于大量、低精度、经常被取消的超时任务，添加与取消都是 O(1)
+ * <p>时间轮由一个守护线程驱动，第一次添加任务时启动；所有格子只由该线程访问，其他线程添加的任务先进入无锁队列，在下一个 tick 中被放入格子</p>
+ * <p>任务在工作线程中执行，因此任务应当足够轻量，例如完成一个 Future 或者移除一个注册项</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class HashedWheelTimer {
+    private final String name;
+    private final long tickNanos;
+    private final ArrayDeque<Timeout>[] wheel;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private volatile Thread worker;
+    private long startNanos;
+
+    /**
+     * @param name       工作线程名
+     * @param tick       每一格的时长
+     * @param unit       时长单位
+     * @param wheelSize  格子数，会被向上取整为 2 的幂
+     */
+    public HashedWheelTimer(String name, long tick, TimeUnit unit, int wheelSize) {
+        if (tick <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tick and wheelSize must be positive");
+        }
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.tickNanos = unit.toNanos(tick);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Timeout>[] wheel = new ArrayDeque[size];
+        this.wheel = wheel;
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 添加一个延迟任务
+     *
+     * @param task  任务
+     * @param delay 延迟
+     * @param unit  延迟单位
+     * @return 任务句柄，可用于取消
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+        Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(Math.max(0, delay)));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private void start() {
+        if (worker != null) {
+            return;
+        }
+        synchronized (this) {
+            if (worker == null) {
+                startNanos = System.nanoTime();
+                Thread t = new Thread(this::loop, name);
+                t.setDaemon(true);
+                t.start();
+                worker = t;
+            }
+        }
+    }
+
+    private void loop() {
+        long tick = 0;
+        while (true) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            transferPending(tick);
+            expire(wheel[(int) (tick & mask)], tick);
+            tick++;
+        }
+    }
+
+    private void transferPending(long currentTick) {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long ticks = Math.max(currentTick, (timeout.deadline - startNanos) / tickNanos);
+            timeout.rounds = (ticks - currentTick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket, long tick) {
+        for (Iterator<Timeout> it = bucket.iterator(); it.hasNext(); ) {
+            Timeout timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                it.remove();
+                try {
+                    timeout.task.run();
+                } catch (Throwable e) {
+                    Logger.error(e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 定时任务句柄
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消任务，已取消的任务会在经过它的格子时被移除
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import io.github.happysnaker.hbotcore.boot.HBot;
+import io.github.happysnaker.hbotcore.logger.Logger;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+import net.mamoe.mirai.contact.Contact;
+import net.mamoe.mirai.message.data.Image;
+import net.mamoe.mirai.utils.ExternalResource;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已上传图片的缓存，以图片内容的 MD5 为键保存腾讯服务器返回的图片 ID，相同内容的图片只会上传一次
+ * <p>本地文件还会以路径、修改时间与大小为键记录其 MD5，文件未变化时无需重新读取</p>
+ * <p>索引保存在 DATA_DIR/image_cache.idx 中，每行一条记录，重启后仍然有效。上传时间超过 {@link #maxAgeHours} 的图片会重新上传，
+ * 以免服务器已清理该图片；记录数超过 {@link #maxEntries} 时淘汰最久未使用的记录</p>
+ * <p>新记录只会被追加到索引文件末尾，读取时后出现的记录覆盖先出现的记录；追加的记录数超过 {@link #maxEntries} 时才重写一次索引文件，
+ * 清理已被覆盖或淘汰的记录。文件读写在缓存的锁之外进行，不会阻塞其他线程查询缓存</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see HBotUtil#uploadImage(Contact, String)
+ */
+public class ImageCache {
+    /**
+     * 是否启用缓存
+     */
+    public static boolean enable = true;
+    /**
+     * 最多记录的图片数
+     */
+    public static int maxEntries = 4096;
+    /**
+     * 图片上传后可以复用的小时数
+     */
+    public static long maxAgeHours = 72;
+
+    private static final String INDEX_FILE = "image_cache.idx";
+    private static final LongAdder hits = Metrics.counter("image.hits");
+    private static final LongAdder uploads = Metrics.counter("image.uploads");
+    /**
+     * md5 -> 图片，按访问顺序排列
+     */
+    private static final LinkedHashMap<String, Uploaded> images = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * 本地文件 -> md5
+     */
+    private static final Map<String, Source> sources = new HashMap<>();
+    private static boolean loaded;
+    /**
+     * 上次重写索引文件之后追加的记录数
+     */
+    private static int appended;
+    /**
+     * 索引文件的锁，需要同时持有缓存的锁时，先获取此锁
+     */
+    private static final Object FILE_LOCK = new Object();
+
+    /**
+     * 上传本地图片，文件内容已上传过时直接复用
+     *
+     * @param contact 上传对象
+     * @param file    图片文件
+     * @return 图片
+     */
+    public static Image upload(Contact contact, File file) throws IOException {
+        if (!enable) {
+            return upload0(contact, Files.readAllBytes(file.toPath()));
+        }
+        String path = file.getAbsolutePath();
+        long mtime = file.lastModified(), length = file.length();
+        Source source;
+        synchronized (ImageCache.class) {
+            load();
+            source = sources.get(path);
+        }
+        if (source != null && source.mtime == mtime && source.length == length) {
+            Image image = lookup(source.md5);
+            if (image != null) {
+                return image;
+            }
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        String md5 = md5(data);
+        source = new Source(md5, mtime, length);
+        synchronized (ImageCache.class) {
+            sources.put(path, source);
+        }
+        persist(record(path, source));
+        return upload(contact, data, md5);
+    }
+
+    /**
+     * 上传图片，内容已上传过时直接复用
+     *
+     * @param contact 上传对象
+     * @param data    图片内容
+     * @return 图片
+     */
+    public static Image upload(Contact contact, byte[] data) throws IOException {
+        if (!enable) {
+            return upload0(contact, data);
+        }
+        return upload(contact, data, md5(data));
+    }
+
+    /**
+     * 清空缓存，同时删除索引文件
+     */
+    public static void invalidate() {
+        synchronized (FILE_LOCK) {
+            synchronized (ImageCache.class) {
+                images.clear();
+                sources.clear();
+                loaded = true;
+                appended = 0;
+            }
+            new File(HBot.joinPath(HBot.DATA_DIR, INDEX_FILE)).delete();
+        }
+    }
+
+    /**
+     * @return 记录的图片数
+     */
+    public static synchronized int getCachedCount() {
+        load();
+        return images.size();
+    }
+
+    private static Image upload(Contact contact, byte[] data, String md5) throws IOException {
+        Image image = lookup(md5);
+        if (image != null) {
+            return image;
+        }
+        image = upload0(contact, data);
+        long now = System.currentTimeMillis();
+        Uploaded uploaded = new Uploaded(image.getImageId(), data.length, now, now);
+        synchronized (ImageCache.class) {
+            images.put(md5, uploaded);
+            evict(now);
+        }
+        persist(record(md5, uploaded));
+        return image;
+    }
+
+    private static Image upload0(Contact contact, byte[] data) throws IOException {
+        uploads.increment();
+        try (ExternalResource resource = ExternalResource.create(data)) {
+            return contact.uploadImage(resource);
+        }
+    }
+
+    private static Image lookup(String md5) {
+        Uploaded uploaded;
+        long now = System.currentTimeMillis();
+        synchronized (ImageCache.class) {
+            load();
+            uploaded = images.get(md5);
+            if (uploaded == null) {
+                return null;
+            }
+            if (now - uploaded.created > TimeUnit.HOURS.toMillis(maxAgeHours)) {
+                images.remove(md5);
+                return null;
+            }
+            uploaded.used = now;
+        }
+        hits.increment();
+        return Image.fromId(uploaded.imageId);
+    }
+
+    /**
+     * 淘汰过期与超出数量的记录，需持有锁
+     */
+    private static void evict(long now) {
+        long maxAge = TimeUnit.HOURS.toMillis(maxAgeHours);
+        images.values().removeIf(it -> now - it.created > maxAge);
+        Iterator<Uploaded> it = images.values().iterator();
+        while (images.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        sources.values().removeIf(source -> !images.containsKey(source.md5));
+    }
+
+    /**
+     * 读取索引文件，需持有锁
+     * <p>格式：图片记录为 <code>md5 大小 上传时间 最近使用时间 图片ID</code>；文件记录以 @ 开头，为 <code>@ md5 修改时间 大小 路径</code></p>
+     */
+    private static void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        File file = new File(HBot.joinPath(HBot.DATA_DIR, INDEX_FILE));
+        if (!file.exists()) {
+            return;
+        }
+        List<Map.Entry<String, Uploaded>> list = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] s = line.split(" ", 5);
+                // 追加过程中退出可能留下不完整的行，跳过即可
+                if (s.length < 5) {
+                    continue;
+                }
+                try {
+                    if (s[0].equals("@")) {
+                        sources.put(s[4], new Source(s[1], Long.parseLong(s[2]), Long.parseLong(s[3])));
+                    } else {
+                        list.add(Map.entry(s[0], new Uploaded(s[4], Long.parseLong(s[1]), Long.parseLong(s[2]), Long.parseLong(s[3]))));
+                    }
+                } catch (NumberFormatException ignored) {
+                    // 同上
+                }
+            }
+        } catch (Exception e) {
+            Logger.warning("图片缓存索引 %s 读取失败，将重新上传图片：%s", file, e.getMessage());
+            sources.clear();
+            return;
+        }
+        // 按最近使用时间恢复访问顺序，同一张图片的多条记录以最近的为准
+        list.sort(Comparator.comparingLong(it -> it.getValue().used));
+        for (Map.Entry<String, Uploaded> it : list) {
+            images.put(it.getKey(), it.getValue());
+        }
+        evict(System.currentTimeMillis());
+    }
+
+    /**
+     * 将一条记录追加到索引文件，追加的记录过多时改为重写整个索引文件；不能持有缓存的锁
+     */
+    private static void persist(String record) {
+        File file = new File(HBot.joinPath(HBot.DATA_DIR, INDEX_FILE));
+        synchronized (FILE_LOCK) {
+            List<String> snapshot = null;
+            synchronized (ImageCache.class) {
+                if (++appended > maxEntries) {
+                    appended = 0;
+                    snapshot = new ArrayList<>(images.size() + sources.size());
+                    for (Map.Entry<String, Uploaded> it : images.entrySet()) {
+                        snapshot.add(record(it.getKey(), it.getValue()));
+                    }
+                    for (Map.Entry<String, Source> it : sources.entrySet()) {
+                        snapshot.add(record(it.getKey(), it.getValue()));
+                    }
+                }
+            }
+            try {
+                File parent = file.getParentFile();
+                if (parent != null && !parent.exists()) {
+                    parent.mkdirs();
+                }
+                if (snapshot == null) {
+                    Files.writeString(file.toPath(), record, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    return;
+                }
+                File tmp = new File(file.getPath() + ".tmp");
+                Files.writeString(tmp.toPath(), String.join("", snapshot), StandardCharsets.UTF_8);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Logger.warning("图片缓存索引 %s 写入失败：%s", file, e.getMessage());
+            }
+        }
+    }
+
+    private static String record(String md5, Uploaded u) {
+        return md5 + " " + u.size + " " + u.created + " " + u.used + " " + u.imageId + "\n";
+    }
+
+    private static String record(String path, Source s) {
+        return "@ " + s.md5 + " " + s.mtime + " " + s.length + " " + path + "\n";
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            StringBuilder sb = new StringBuilder(32);
+            for (byte b : MessageDigest.getInstance("MD5").digest(data)) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    private static final class Uploaded {
+        final String imageId;
+        final long size;
+        final long created;
+        long used;
+
+        Uploaded(String imageId, long size, long created, long used) {
+            this.imageId = imageId;
+            this.size = size;
+            this.created = created;
+            this.used = used;
+        }
+    }
+
+    private record Source(String md5, long mtime, long length) {
+    }
+}
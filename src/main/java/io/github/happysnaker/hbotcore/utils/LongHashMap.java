@@ -0,0 +1,138 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import java.util.Arrays;
+
+/**
+ * 以基本类型 long 为键、int 为值的开放寻址哈希表，避免 QQ 号、群号等 id 的装箱与字符串转换
+ * <p>此类不是线程安全的，通常在构建完成后只读地发布给多个线程使用</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class LongHashMap {
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    public LongHashMap() {
+        this(8);
+    }
+
+    public LongHashMap(int expected) {
+        int cap = 8;
+        while (cap < expected * 2) {
+            cap <<= 1;
+        }
+        keys = new long[cap];
+        values = new int[cap];
+        used = new boolean[cap];
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * 放入键值对
+     *
+     * @return 旧值，不存在则返回 -1
+     */
+    public int put(long key, int value) {
+        int i = slotOf(key);
+        if (used[i]) {
+            int old = values[i];
+            values[i] = value;
+            return old;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return -1;
+    }
+
+    /**
+     * 仅当键不存在时放入
+     *
+     * @return 已存在的值，不存在则放入并返回 -1
+     */
+    public int putIfAbsent(long key, int value) {
+        int i = slotOf(key);
+        if (used[i]) {
+            return values[i];
+        }
+        return put(key, value);
+    }
+
+    /**
+     * 获取键对应的值
+     *
+     * @return 值，不存在则返回 -1
+     */
+    public int get(long key) {
+        int i = slotOf(key);
+        return used[i] ? values[i] : -1;
+    }
+
+    public boolean containsKey(long key) {
+        return used[slotOf(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return 所有的键，顺序不确定
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int k = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                result[k++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[oldKeys.length << 1];
+        values = new int[oldKeys.length << 1];
+        used = new boolean[oldKeys.length << 1];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = slotOf(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LongHashMap" + Arrays.toString(keys());
+    }
+}
@@ -0,0 +1,213 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import net.mamoe.mirai.contact.Group;
+import net.mamoe.mirai.contact.Member;
+import net.mamoe.mirai.contact.NormalMember;
+import net.mamoe.mirai.event.GlobalEventChannel;
+import net.mamoe.mirai.event.events.*;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 群成员目录，为每个群维护 QQ 号到群成员、群名片（为空时为昵称）到 QQ 号的索引
+ * <p>目录在第一次查询某个群时由群成员列表构建，此后由成员入群、退群、修改群名片事件增量维护；机器人重新登录或者退出群时目录会被丢弃。
+ * 成员修改昵称没有对应的事件，因此命中的成员会再次核对名字，未命中时会遍历一次成员列表并修正索引。与逐个成员查询资料相比，所有查询都不需要访问网络</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see io.github.happysnaker.hbotcore.handler.GroupMessageEventHandler
+ */
+public class MemberDirectory {
+    private static final Map<Key, Directory> directories = new ConcurrentHashMap<>();
+    private static volatile boolean subscribed;
+
+    /**
+     * 订阅群成员变化事件，HBot 启动时自动调用
+     */
+    public static synchronized void subscribe() {
+        if (subscribed) {
+            return;
+        }
+        subscribed = true;
+        GlobalEventChannel.INSTANCE.subscribeAlways(MemberJoinEvent.class, event -> {
+            Directory directory = directories.get(Key.of(event.getGroup()));
+            if (directory != null) {
+                directory.put(event.getMember());
+            }
+        });
+        GlobalEventChannel.INSTANCE.subscribeAlways(MemberLeaveEvent.class, event -> {
+            Directory directory = directories.get(Key.of(event.getGroup()));
+            if (directory != null) {
+                directory.remove(event.getMember().getId());
+            }
+        });
+        GlobalEventChannel.INSTANCE.subscribeAlways(MemberCardChangeEvent.class, event -> {
+            Directory directory = directories.get(Key.of(event.getGroup()));
+            if (directory != null) {
+                directory.put(event.getMember());
+            }
+        });
+        GlobalEventChannel.INSTANCE.subscribeAlways(BotLeaveEvent.class, event -> invalidate(event.getGroup()));
+        GlobalEventChannel.INSTANCE.subscribeAlways(BotJoinGroupEvent.class, event -> invalidate(event.getGroup()));
+        GlobalEventChannel.INSTANCE.subscribeAlways(BotOnlineEvent.class, event -> {
+            long botId = event.getBot().getId();
+            directories.keySet().removeIf(key -> key.botId() == botId);
+        });
+    }
+
+    /**
+     * 成员在群中显示的名字
+     *
+     * @return 群名片，未设置群名片时为昵称
+     */
+    public static String getDisplayName(Member member) {
+        String name = member.getNameCard();
+        return name == null || name.isEmpty() ? member.getNick() : name;
+    }
+
+    /**
+     * 按 QQ 号查找群成员
+     *
+     * @return 群成员，不存在时返回 null
+     */
+    public static NormalMember getMember(Group group, long id) {
+        return directory(group).get(group, id);
+    }
+
+    /**
+     * 按群名片或昵称查找群成员，存在重名时返回其中之一
+     *
+     * @param name 群名片，如果成员未设置群名片，则为昵称
+     * @return 群成员的 QQ，不存在时返回 -1
+     */
+    public static long getMemberId(Group group, String name) {
+        return directory(group).find(group, name);
+    }
+
+    /**
+     * @return 所有群成员显示的名字，不包含机器人
+     */
+    public static List<String> getDisplayNames(Group group) {
+        return directory(group).names();
+    }
+
+    /**
+     * 丢弃群的目录，下次查询时重新构建
+     */
+    public static void invalidate(Group group) {
+        directories.remove(Key.of(group));
+    }
+
+    /**
+     * 丢弃所有目录
+     */
+    public static void invalidate() {
+        directories.clear();
+    }
+
+    private static Directory directory(Group group) {
+        return directories.computeIfAbsent(Key.of(group), k -> new Directory(group));
+    }
+
+
+    /**
+     * 同一个群在不同机器人中是不同的对象
+     */
+    private record Key(long botId, long groupId) {
+        static Key of(Group group) {
+            return new Key(group.getBot().getId(), group.getId());
+        }
+    }
+
+    private static final class Directory {
+        private final Map<Long, NormalMember> members = new LinkedHashMap<>();
+        private final Map<Long, String> names = new HashMap<>();
+        private final Map<String, Long> ids = new HashMap<>();
+
+        Directory(Group group) {
+            for (NormalMember member : group.getMembers()) {
+                put(member);
+            }
+        }
+
+        NormalMember get(Group group, long id) {
+            NormalMember member;
+            synchronized (this) {
+                member = members.get(id);
+            }
+            if (member == null && (member = group.get(id)) != null) {
+                // 错过了入群事件
+                put(member);
+            }
+            return member;
+        }
+
+        synchronized List<String> names() {
+            List<String> list = new ArrayList<>(members.size());
+            for (NormalMember member : members.values()) {
+                list.add(getDisplayName(member));
+            }
+            return list;
+        }
+
+        long find(Group group, String name) {
+            NormalMember hit = null;
+            synchronized (this) {
+                Long id = ids.get(name);
+                if (id != null) {
+                    hit = members.get(id);
+                }
+            }
+            if (hit != null) {
+                if (getDisplayName(hit).equals(name)) {
+                    return hit.getId();
+                }
+                put(hit);
+            }
+            // 昵称可能已经改变
+            for (NormalMember member : group.getMembers()) {
+                if (getDisplayName(member).equals(name)) {
+                    put(member);
+                    return member.getId();
+                }
+            }
+            return -1;
+        }
+
+        synchronized void put(NormalMember member) {
+            long id = member.getId();
+            String name = getDisplayName(member);
+            String old = names.put(id, name);
+            if (old != null && !old.equals(name)) {
+                unlink(old, id);
+            }
+            members.put(id, member);
+            ids.putIfAbsent(name, id);
+        }
+
+        synchronized void remove(long id) {
+            members.remove(id);
+            String old = names.remove(id);
+            if (old != null) {
+                unlink(old, id);
+            }
+        }
+
+        /**
+         * 名字不再指向 id，若有重名的成员则改为指向该成员
+         */
+        private void unlink(String name, long id) {
+            if (!ids.remove(name, id)) {
+                return;
+            }
+            for (Map.Entry<Long, String> it : names.entrySet()) {
+                if (it.getValue().equals(name)) {
+                    ids.put(name, it.getKey());
+                    return;
+                }
+            }
+        }
+    }
+}
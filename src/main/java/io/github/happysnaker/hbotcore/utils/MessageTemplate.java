@@ -0,0 +1,618 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+import net.mamoe.mirai.contact.Contact;
+import net.mamoe.mirai.contact.Member;
+import net.mamoe.mirai.contact.User;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.event.events.MessageEvent;
+import net.mamoe.mirai.message.code.MiraiCode;
+import net.mamoe.mirai.message.data.*;
+
+import javax.naming.CannotProceedException;
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的回复模板，{@link HBotUtil#parseMiraiCode} 通过此类解析
+ * <p>模板只会被解析一次：不含变量的 mirai 码片段与参数固定的 at 标签会预先反序列化为消息元素，quote、img、text、map 等动态标签被编译为对应的节点，
+ * 每次渲染只需执行动态节点。编译结果以模板字符串为键缓存，{@link io.github.happysnaker.hbotcore.handler.InterestFilter#output()} 等配置中的模板因此不会被重复解析</p>
+ * <p>模板中可以使用以下变量，变量也可以出现在标签的参数中，例如 <code>[hrobot::$img](https://example.com/{senderId}.png)</code>：
+ * <ul>
+ *     <li>{sender}：发送人的群名片，为空时为昵称</li>
+ *     <li>{senderId}：发送人 QQ 号</li>
+ *     <li>{group}：群名称</li>
+ *     <li>{groupId}：群号</li>
+ *     <li>{time}：当前时间，格式为 yyyy-MM-dd HH:mm:ss</li>
+ * </ul>
+ * 其他花括号内容会原样保留</p>
+ * <p>模板中的 img、text、map 标签会在独立的线程中并发执行（JDK 21 以上使用虚拟线程），全部完成后按原始顺序拼接，整个模板至多等待
+ * {@link #deadlineMillis} 毫秒，只有一个标签时同样受此限制。标签名后可以用 |替代文本 指定执行失败或超时时的输出，例如 <code>[hrobot::$text|今日运势获取失败](url)</code>，
+ * 未指定时抛出异常。替代文本中不能包含 ]</p>
+ * <p>img、text、map 标签引用的资源由 {@link ResourceCache} 缓存，已上传的图片由 {@link ImageCache} 复用，可以在标签名后以 @秒数 指定缓存时间，例如 <code>[hrobot::$map[data][name]@600](url)</code></p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see io.github.happysnaker.hbotcore.handler.InterestFilter
+ */
+public final class MessageTemplate {
+    /**
+     * 缓存的模板数量上限，超过后清空缓存，小于等于 0 表示不缓存
+     */
+    public static int cacheSize = 1024;
+    /**
+     * 并发执行资源标签时，整个模板的最长等待毫秒数，超时的标签使用替代文本或者抛出异常，小于等于 0 表示不限制
+     */
+    public static long deadlineMillis = 5000;
+    /**
+     * 不支持虚拟线程时，执行资源标签的最大线程数
+     */
+    public static int threads = 64;
+
+    private static final Pattern TAG_PATTERN = Pattern.compile("(\\[hrobot::\\$.*?])(\\((.*?)\\))");
+    /**
+     * text、map、img 标签可以以 @秒数 结尾指定资源的缓存时间
+     */
+    private static final Pattern TTL_PATTERN = Pattern.compile("@(\\d{1,9})$");
+    private static final Pattern VAR_PATTERN = Pattern.compile("\\{(sender|senderId|group|groupId|time)}");
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final Map<String, MessageTemplate> cache = new ConcurrentHashMap<>();
+    private static final LongAdder fallbacks = Metrics.counter("template.fallbacks");
+    private static volatile Executor executor;
+
+    private final String content;
+    private final Node[] nodes;
+    /**
+     * 模板不含动态节点时为渲染结果，否则为 null
+     */
+    private final MessageChain constant;
+    /**
+     * 资源节点数
+     */
+    private final int resources;
+
+    private MessageTemplate(String content, Node[] nodes) {
+        this.content = content;
+        this.nodes = nodes;
+        if (nodes.length == 0) {
+            this.constant = MessageUtils.emptyMessageChain();
+        } else if (nodes.length == 1 && nodes[0] instanceof Static s) {
+            this.constant = s.chain;
+        } else {
+            this.constant = null;
+        }
+        int resources = 0;
+        for (Node node : nodes) {
+            if (node instanceof Resource) {
+                resources++;
+            }
+        }
+        this.resources = resources;
+    }
+
+    /**
+     * 获取编译后的模板，优先从缓存中读取
+     *
+     * @param content 模板内容
+     * @return 编译后的模板
+     */
+    public static MessageTemplate of(String content) {
+        if (cacheSize <= 0) {
+            return compile(content);
+        }
+        MessageTemplate template = cache.get(content);
+        if (template == null) {
+            template = compile(content);
+            if (cache.size() >= cacheSize) {
+                cache.clear();
+            }
+            cache.put(content, template);
+        }
+        return template;
+    }
+
+    /**
+     * 编译模板，不使用缓存
+     *
+     * @param content 模板内容
+     * @return 编译后的模板
+     */
+    public static MessageTemplate compile(String content) {
+        List<Node> nodes = new ArrayList<>();
+        MessageChainBuilder statics = new MessageChainBuilder();
+        Matcher matcher = TAG_PATTERN.matcher(content);
+        int fromIndex = 0;
+        while (matcher.find()) {
+            String tag = matcher.group(1);
+            tag = tag.substring(10, tag.length() - 1);
+            if (tag.isEmpty()) {
+                continue;
+            }
+            String val = matcher.group(2);
+            val = val.substring(1, val.length() - 1);
+            compileCode(content.substring(fromIndex, matcher.start()), nodes, statics);
+            fromIndex = matcher.end();
+            compileTag(matcher.group(0), tag, val, nodes, statics);
+        }
+        compileCode(content.substring(fromIndex), nodes, statics);
+        flush(nodes, statics);
+        return new MessageTemplate(content, nodes.toArray(new Node[0]));
+    }
+
+    /**
+     * 清空模板缓存
+     */
+    public static void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * 渲染模板
+     *
+     * @param event 消息源，at、quote 与变量等动态元素需要知道具体的事件源，如果模板不带有与事件源相关的元素，则此参数可置空；
+     *              为空时 img 标签会使用 {@link HBotUtil#getAdaptContact()} 上传图片
+     * @return 渲染出的消息链
+     * @throws CannotProceedException 解析 HRobot 标签出错时抛出
+     */
+    public MessageChain render(MessageEvent event) throws CannotProceedException {
+        if (constant != null) {
+            return constant;
+        }
+        // 只有一个资源节点且不限制时间时没有必要切换线程
+        if (resources > 1 || (resources == 1 && deadlineMillis > 0)) {
+            return renderConcurrently(event);
+        }
+        MessageChainBuilder builder = new MessageChainBuilder();
+        for (Node node : nodes) {
+            try {
+                node.render(event, builder);
+            } catch (Exception e) {
+                if (!(node instanceof Resource r) || r.fallback() == null) {
+                    throw error(node, e);
+                }
+                fallbacks.increment();
+                builder.append(new PlainText(r.fallback()));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 并发执行所有的资源节点，全部完成后按原始顺序拼接，超过 {@link #deadlineMillis} 仍未完成的节点使用替代文本
+     */
+    private MessageChain renderConcurrently(MessageEvent event) throws CannotProceedException {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] instanceof Resource node) {
+                futures[i] = CompletableFuture.supplyAsync(() -> {
+                    MessageChainBuilder part = new MessageChainBuilder();
+                    try {
+                        node.render(event, part);
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                    return part.build();
+                }, executor());
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        MessageChainBuilder builder = new MessageChainBuilder();
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                Node node = nodes[i];
+                if (futures[i] == null) {
+                    try {
+                        node.render(event, builder);
+                    } catch (Exception e) {
+                        throw error(node, e);
+                    }
+                    continue;
+                }
+                try {
+                    builder.addAll((MessageChain) (deadlineMillis > 0
+                            ? futures[i].get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                            : futures[i].get()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw error(node, e);
+                } catch (ExecutionException | TimeoutException e) {
+                    Exception cause = e instanceof ExecutionException && e.getCause() instanceof Exception c ? c
+                            : new TimeoutException("超过 " + deadlineMillis + " 毫秒未完成");
+                    String fallback = ((Resource) node).fallback();
+                    if (fallback == null) {
+                        throw error(node, cause);
+                    }
+                    fallbacks.increment();
+                    builder.append(new PlainText(fallback));
+                }
+            }
+        } finally {
+            for (CompletableFuture<?> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private static CannotProceedException error(Node node, Exception e) {
+        return new CannotProceedException(String.format("解析语义标签 %s 出错，异常原因 %s, 可能是网络超时或者值的格式不正确", node.raw(), e.getMessage()));
+    }
+
+    private static Executor executor() {
+        Executor e = executor;
+        if (e == null) {
+            synchronized (MessageTemplate.class) {
+                if ((e = executor) == null) {
+                    executor = e = createExecutor();
+                }
+            }
+        }
+        return e;
+    }
+
+    private static Executor createExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ignored) {
+            // JDK 21 以下没有虚拟线程
+        }
+        AtomicInteger id = new AtomicInteger();
+        // 线程耗尽时由调用者执行，退化为顺序执行
+        return new ThreadPoolExecutor(0, Math.max(1, threads), 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "hbot-template-" + id.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * @return 模板是否不含任何动态元素，此时每次渲染都返回同一个消息链
+     */
+    public boolean isStatic() {
+        return constant != null;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    @Override
+    public String toString() {
+        return content;
+    }
+
+    /**
+     * 编译标签之间的 mirai 码，不含变量的部分累积到 statics 中
+     */
+    private static void compileCode(String code, List<Node> nodes, MessageChainBuilder statics) {
+        if (code.isEmpty()) {
+            return;
+        }
+        Str str = Str.compile(code);
+        if (str.isConstant()) {
+            statics.append(MiraiCode.deserializeMiraiCode(code));
+            return;
+        }
+        if (code.contains("[mirai:")) {
+            // 变量可能出现在 mirai 码内部，只能在渲染时替换后再反序列化
+            flush(nodes, statics);
+            nodes.add(new Code(str));
+            return;
+        }
+        for (int i = 0; i < str.vars.length; i++) {
+            if (!str.texts[i].isEmpty()) {
+                statics.append(MiraiCode.deserializeMiraiCode(str.texts[i]));
+            }
+            flush(nodes, statics);
+            nodes.add(new Variable(str.vars[i]));
+        }
+        String tail = str.texts[str.vars.length];
+        if (!tail.isEmpty()) {
+            statics.append(MiraiCode.deserializeMiraiCode(tail));
+        }
+    }
+
+    private static void compileTag(String raw, String tag, String val, List<Node> nodes, MessageChainBuilder statics) {
+        Str str = Str.compile(val);
+        Node node;
+        String fallback = null;
+        int bar = tag.indexOf('|');
+        if (bar >= 0) {
+            fallback = tag.substring(bar + 1);
+            tag = tag.substring(0, bar);
+        }
+        tag = tag.toLowerCase();
+        long ttl = ResourceCache.DEFAULT_TTL;
+        Matcher ttlMatcher = TTL_PATTERN.matcher(tag);
+        if (ttlMatcher.find()) {
+            ttl = Long.parseLong(ttlMatcher.group(1));
+            tag = tag.substring(0, ttlMatcher.start());
+        }
+        if (tag.startsWith("map")) {
+            List<String> ps = new ArrayList<>();
+            String key = tag.substring("map".length());
+            try {
+                while (key.contains("[")) {
+                    int x = key.indexOf('[');
+                    int y = key.indexOf(']');
+                    ps.add(key.substring(x + 1, y).trim());
+                    key = key.substring(y + 1);
+                }
+                node = new MapTag(raw, str, ps.toArray(new String[0]), ttl, fallback);
+            } catch (RuntimeException e) {
+                // 渲染时抛出异常，与未编译时的行为保持一致
+                node = new Invalid(raw, e.toString());
+            }
+        } else {
+            switch (tag) {
+                case "img" -> node = new ImgTag(raw, str, ttl, fallback);
+                case "text" -> node = new TextTag(raw, str, ttl, fallback);
+                case "quote" -> node = new QuoteTag(raw);
+                case "at" -> {
+                    if (str.isConstant() && !val.equals("sender")) {
+                        try {
+                            long id = Long.parseLong(val);
+                            statics.append(id == -1L ? AtAll.INSTANCE : new At(id));
+                            return;
+                        } catch (NumberFormatException ignored) {
+                            // 渲染时抛出异常，与未编译时的行为保持一致
+                        }
+                    }
+                    node = new AtTag(raw, str);
+                }
+                default -> {
+                    statics.append(MiraiCode.deserializeMiraiCode(raw));
+                    return;
+                }
+            }
+        }
+        flush(nodes, statics);
+        nodes.add(node);
+    }
+
+    private static void flush(List<Node> nodes, MessageChainBuilder statics) {
+        if (!statics.isEmpty()) {
+            nodes.add(new Static(statics.build()));
+            statics.clear();
+        }
+    }
+
+    /**
+     * 读取变量的值
+     */
+    static String variable(String name, MessageEvent event) throws CannotProceedException {
+        if (name.equals("time")) {
+            return LocalDateTime.now().format(TIME_FORMATTER);
+        }
+        if (event == null) {
+            throw new CannotProceedException("没有消息源，无法解析变量 {" + name + "}");
+        }
+        User sender = event.getSender();
+        switch (name) {
+            case "sender":
+                if (sender instanceof Member member && !member.getNameCard().isEmpty()) {
+                    return member.getNameCard();
+                }
+                return Objects.requireNonNullElse(sender.getNick(), "");
+            case "senderId":
+                return String.valueOf(sender.getId());
+            default:
+                if (!(event instanceof GroupMessageEvent groupEvent)) {
+                    throw new CannotProceedException("不是群消息，无法解析变量 {" + name + "}");
+                }
+                return name.equals("group") ? Objects.requireNonNullElse(groupEvent.getGroup().getName(), "") : String.valueOf(groupEvent.getGroup().getId());
+        }
+    }
+
+    /**
+     * 转义 mirai 码中的特殊字符
+     */
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '[', ']', ':', ',', '\\' -> sb.append('\\').append(c);
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * 可能含有变量的字符串，texts 的长度总是比 vars 多 1，两者交替拼接
+     */
+    private static final class Str {
+        final String[] texts;
+        final String[] vars;
+
+        Str(String[] texts, String[] vars) {
+            this.texts = texts;
+            this.vars = vars;
+        }
+
+        static Str compile(String s) {
+            Matcher matcher = VAR_PATTERN.matcher(s);
+            List<String> texts = new ArrayList<>(), vars = new ArrayList<>();
+            int fromIndex = 0;
+            while (matcher.find()) {
+                texts.add(s.substring(fromIndex, matcher.start()));
+                vars.add(matcher.group(1));
+                fromIndex = matcher.end();
+            }
+            texts.add(s.substring(fromIndex));
+            return new Str(texts.toArray(new String[0]), vars.toArray(new String[0]));
+        }
+
+        boolean isConstant() {
+            return vars.length == 0;
+        }
+
+        String resolve(MessageEvent event, boolean escape) throws CannotProceedException {
+            if (vars.length == 0) {
+                return texts[0];
+            }
+            StringBuilder sb = new StringBuilder(texts[0]);
+            for (int i = 0; i < vars.length; i++) {
+                String value = variable(vars[i], event);
+                sb.append(escape ? escape(value) : value).append(texts[i + 1]);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(texts[0]);
+            for (int i = 0; i < vars.length; i++) {
+                sb.append('{').append(vars[i]).append('}').append(texts[i + 1]);
+            }
+            return sb.toString();
+        }
+    }
+
+    private interface Node {
+        void render(MessageEvent event, MessageChainBuilder builder) throws Exception;
+
+        /**
+         * @return 节点在模板中的原文，用于错误提示
+         */
+        String raw();
+    }
+
+    /**
+     * 需要读取网络或文件的节点，一个模板中有多个此类节点时会并发执行
+     */
+    private interface Resource extends Node {
+        /**
+         * @return 执行失败或者超时时的替代文本，为 null 时抛出异常
+         */
+        String fallback();
+    }
+
+    /**
+     * 预先反序列化的消息元素
+     */
+    private record Static(MessageChain chain) implements Node {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) {
+            builder.addAll(chain);
+        }
+
+        @Override
+        public String raw() {
+            return chain.serializeToMiraiCode();
+        }
+    }
+
+    private record Variable(String name) implements Node {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            builder.append(new PlainText(variable(name, event)));
+        }
+
+        @Override
+        public String raw() {
+            return "{" + name + "}";
+        }
+    }
+
+    /**
+     * 变量位于 mirai 码中，替换后再反序列化
+     */
+    private record Code(Str code) implements Node {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            builder.addAll(MiraiCode.deserializeMiraiCode(code.resolve(event, true)));
+        }
+
+        @Override
+        public String raw() {
+            return code.toString();
+        }
+    }
+
+    private record AtTag(String raw, Str val) implements Node {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            String v = val.resolve(event, false);
+            if (v.equals("sender")) {
+                if (event == null) {
+                    throw new CannotProceedException("没有消息源，无法引用发送人");
+                }
+                builder.append(new At(HBotUtil.getSenderIdAsLong(event)));
+            } else {
+                builder.append(Long.parseLong(v) == -1L ? AtAll.INSTANCE : new At(Long.parseLong(v)));
+            }
+        }
+    }
+
+    private record QuoteTag(String raw) implements Node {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            if (event == null) {
+                throw new CannotProceedException("没有消息源，无法引用发送人");
+            }
+            builder.append(HBotUtil.getQuoteReply(event));
+        }
+    }
+
+    private record ImgTag(String raw, Str val, long ttl, String fallback) implements Resource {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            Contact contact = event == null ? HBotUtil.getAdaptContact() : event.getSubject();
+            String v = val.resolve(event, false);
+            if (v.startsWith("http")) {
+                builder.append(ImageCache.upload(contact, ResourceCache.getBytes(v, ttl)));
+            } else {
+                builder.append(ImageCache.upload(contact, new File(v)));
+            }
+        }
+    }
+
+    private record TextTag(String raw, Str val, long ttl, String fallback) implements Resource {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            builder.append(ResourceCache.getString(val.resolve(event, false), ttl));
+        }
+    }
+
+    /**
+     * 格式错误的标签，渲染时抛出异常
+     */
+    private record Invalid(String raw, String reason) implements Node {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            throw new CannotProceedException(reason);
+        }
+    }
+
+    private record MapTag(String raw, Str val, String[] path, long ttl, String fallback) implements Resource {
+        @Override
+        public void render(MessageEvent event, MessageChainBuilder builder) throws Exception {
+            MapGetter mg = new MapGetter(ResourceCache.getJson(val.resolve(event, false), ttl));
+            for (int i = 0; i < path.length; i++) {
+                if (i == path.length - 1) {
+                    builder.append(mg.getString(path[i], true));
+                } else {
+                    mg = mg.getMapGetter(path[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import com.alibaba.fastjson.JSONObject;
+import io.github.happysnaker.hbotcore.boot.HBot;
+import io.github.happysnaker.hbotcore.logger.Logger;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模板中 text、map、img 标签所引用资源（网络地址或本地文件）的缓存
+ * <p>资源按访问顺序淘汰，数量不超过 {@link #maxEntries}，总大小不超过 {@link #maxSize}。缓存过期后不会直接丢弃，而是重新验证：
+ * 网络资源携带 ETag 与 Last-Modified 发送条件请求，服务端返回 304 时继续使用缓存；本地文件比较修改时间与大小。重新验证失败时会继续使用旧的内容</p>
+ * <p>未指定过期时间时，网络资源只有在服务端允许时才会缓存：响应携带 Cache-Control: max-age 时按 max-age 缓存，否则携带 ETag 或
+ * Last-Modified 时缓存 {@link #ttlSeconds} 秒，过期后重新验证；没有这些响应头、声明了 no-store、no-cache 或者发生了重定向时每次都会重新请求，
+ * 例如随机图片、随机语录等接口每次都应返回新的内容。本地文件每次读取前都会比较修改时间与大小，内容不变时才使用缓存。
+ * 模板中可以通过 <code>[hrobot::$text@600](url)</code> 为单个标签指定过期时间（秒），此时忽略服务端的声明，0 表示不缓存</p>
+ * <p>开启 {@link #diskCache} 后网络资源还会保存在 DATA_DIR/resource_cache 中，重启后仍然可以使用并重新验证</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ * @see MessageTemplate
+ */
+public class ResourceCache {
+    /**
+     * 表示使用默认的过期时间
+     */
+    public static final long DEFAULT_TTL = -1;
+    /**
+     * 未指定过期时间时，携带 ETag 或 Last-Modified 但没有 max-age 的网络资源的过期时间（秒），过期后重新验证
+     */
+    public static long ttlSeconds = 60;
+    /**
+     * 最多缓存的资源数
+     */
+    public static int maxEntries = 256;
+    /**
+     * 缓存的总字节数上限，超过此值的单个资源不会被缓存
+     */
+    public static long maxSize = 32 * 1024 * 1024;
+    /**
+     * 是否将网络资源保存到磁盘
+     */
+    public static boolean diskCache = false;
+    /**
+     * 磁盘中至多保存的资源数，超过后删除最早写入的一半
+     */
+    public static int diskMaxEntries = 1024;
+
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private static final LongAdder hits = Metrics.counter("resource.hits");
+    private static final LongAdder misses = Metrics.counter("resource.misses");
+    private static final LongAdder notModified = Metrics.counter("resource.notModified");
+    private static final AtomicInteger diskWrites = new AtomicInteger();
+    private static long size;
+
+    /**
+     * 读取资源的原始字节
+     *
+     * @param source     http 开头的网络地址或者本地文件路径
+     * @param ttlSeconds 过期时间（秒），{@link #DEFAULT_TTL} 表示使用默认值，0 表示不缓存
+     * @return 资源内容，调用者不应修改返回的数组
+     * @throws IOException 读取失败且没有旧的缓存时抛出
+     */
+    public static byte[] getBytes(String source, long ttlSeconds) throws IOException {
+        return get(source, ttlSeconds).data;
+    }
+
+    /**
+     * 以 UTF-8 读取文本资源，网络资源的换行符会统一为 \n，且每一行都以 \n 结尾
+     *
+     * @see #getBytes(String, long)
+     */
+    public static String getString(String source, long ttlSeconds) throws IOException {
+        Entry entry = get(source, ttlSeconds);
+        String text = entry.text;
+        if (text == null) {
+            text = new String(entry.data, StandardCharsets.UTF_8);
+            if (isHttp(source)) {
+                StringBuilder sb = new StringBuilder(text.length() + 1);
+                try (BufferedReader reader = new BufferedReader(new StringReader(text))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        sb.append(line).append('\n');
+                    }
+                }
+                text = sb.toString();
+            }
+            entry.text = text;
+        }
+        return text;
+    }
+
+    /**
+     * 读取 JSON 资源并解析为 Map，同一份内容只会解析一次；网络资源若不含 code 字段，会以 HTTP 状态码填充
+     *
+     * @return 解析结果，多个调用者共享同一个对象，不应修改
+     * @see #getBytes(String, long)
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> getJson(String source, long ttlSeconds) throws IOException {
+        Entry entry = get(source, ttlSeconds);
+        Map<String, Object> json = entry.json;
+        if (json == null) {
+            json = JSONObject.parseObject(new String(entry.data, StandardCharsets.UTF_8), Map.class);
+            if (json == null) {
+                json = new HashMap<>();
+            }
+            if (isHttp(source) && !json.containsKey("code")) {
+                json.put("code", entry.status);
+            }
+            entry.json = json;
+        }
+        return json;
+    }
+
+    /**
+     * 清空内存中的缓存
+     */
+    public static void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @return 内存中缓存的资源数
+     */
+    public static int getCachedCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static boolean isHttp(String source) {
+        return source.startsWith("http");
+    }
+
+    private static Entry get(String source, long ttlSeconds) throws IOException {
+        if (ttlSeconds == 0 || maxEntries <= 0) {
+            misses.increment();
+            return fetch(source, null, 0);
+        }
+        Entry old = lookup(source);
+        if (old != null && System.currentTimeMillis() < old.expiresAt) {
+            hits.increment();
+            return old;
+        }
+        CompletableFuture<Entry> future = new CompletableFuture<>();
+        CompletableFuture<Entry> prev = loading.putIfAbsent(source, future);
+        if (prev != null) {
+            // 其他线程正在加载同一个资源
+            try {
+                return prev.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            }
+        }
+        try {
+            Entry entry;
+            try {
+                entry = fetch(source, old, ttlSeconds);
+                if (entry == old) {
+                    notModified.increment();
+                } else {
+                    misses.increment();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (old == null) {
+                    throw e;
+                }
+                Logger.warning("重新验证资源 %s 失败，继续使用旧的缓存：%s", source, e.getMessage());
+                old.expiresAt = System.currentTimeMillis() + Math.min(old.ttlMillis, 10_000L);
+                entry = old;
+            }
+            if (entry.ttlMillis > 0 && entry.data.length <= maxSize) {
+                store(source, entry);
+            }
+            future.complete(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(source, future);
+        }
+    }
+
+    private static Entry lookup(String source) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(source);
+        }
+        if (entry == null && diskCache && isHttp(source)) {
+            entry = readDisk(source);
+            if (entry != null) {
+                store(source, entry);
+            }
+        }
+        return entry;
+    }
+
+    private static void store(String source, Entry entry) {
+        synchronized (entries) {
+            Entry prev = entries.put(source, entry);
+            if (prev != null) {
+                size -= prev.data.length;
+            }
+            size += entry.data.length;
+            Iterator<Entry> it = entries.values().iterator();
+            while ((entries.size() > maxEntries || size > maxSize) && it.hasNext()) {
+                size -= it.next().data.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 读取资源
+     *
+     * @param old 过期的缓存，不为 null 时发送条件请求或比较文件修改时间，资源未变化时刷新并返回 old
+     */
+    private static Entry fetch(String source, Entry old, long ttlSeconds) throws IOException {
+        long now = System.currentTimeMillis();
+        long ttl = ttlSeconds < 0 ? ResourceCache.ttlSeconds * 1000 : ttlSeconds * 1000;
+        if (!isHttp(source)) {
+            File file = new File(source);
+            long mtime = file.lastModified(), length = file.length();
+            // 未指定过期时间时每次都比较修改时间与大小，文件修改后立即生效
+            long expiresAt = ttlSeconds < 0 ? now : now + ttl;
+            if (old != null && old.mtime == mtime && old.data.length == length) {
+                old.expiresAt = expiresAt;
+                return old;
+            }
+            byte[] data = Files.readAllBytes(file.toPath());
+            return new Entry(data, 200, null, null, mtime, ttl, expiresAt);
+        }
+
+        URL url = new URL(source);
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("User-Agent", "Happysnaker-HPRobot-v1.002");
+            conn.setInstanceFollowRedirects(true);
+            int timeout = (int) IOUtil.getDefaultTimeout();
+            conn.setConnectTimeout(timeout);
+            conn.setReadTimeout(timeout);
+            if (old != null) {
+                if (old.etag != null) {
+                    conn.setRequestProperty("If-None-Match", old.etag);
+                }
+                if (old.lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", old.lastModified);
+                }
+            }
+            int code = conn.getResponseCode();
+            if (ttlSeconds < 0) {
+                ttl = httpTtl(conn, url, ttl, code == HttpURLConnection.HTTP_NOT_MODIFIED ? old : null);
+            }
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && old != null) {
+                old.expiresAt = now + ttl;
+                return old;
+            }
+            if (code >= 400) {
+                throw new IOException("Server returned HTTP response code: " + code + " for URL: " + source);
+            }
+            byte[] data;
+            try (InputStream in = conn.getInputStream()) {
+                data = in.readAllBytes();
+            }
+            Entry entry = new Entry(data, code, conn.getHeaderField("ETag"), conn.getHeaderField("Last-Modified"), 0, ttl, now + ttl);
+            Logger.debug("Fetch resource %s, %d bytes, ttl %d ms", source, data.length, ttl);
+            if (diskCache && ttl > 0 && data.length <= maxSize) {
+                writeDisk(source, entry);
+            }
+            return entry;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * 根据响应头决定默认的过期时间，服务端没有声明 max-age 也没有提供 ETag 或 Last-Modified 时不缓存
+     *
+     * @param old 服务端返回 304 时为被重新验证的缓存，304 响应可能不再携带 ETag 等响应头
+     */
+    private static long httpTtl(HttpURLConnection conn, URL url, long ttl, Entry old) {
+        if (!conn.getURL().equals(url)) {
+            return 0;
+        }
+        boolean validators = conn.getHeaderField("ETag") != null || conn.getHeaderField("Last-Modified") != null
+                || (old != null && (old.etag != null || old.lastModified != null));
+        String cacheControl = conn.getHeaderField("Cache-Control");
+        if (cacheControl == null) {
+            return validators ? ttl : 0;
+        }
+        for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-store") || directive.equals("no-cache")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                } catch (NumberFormatException ignored) {
+                    // 使用默认值
+                }
+            }
+        }
+        return validators ? ttl : 0;
+    }
+
+    private static File diskFile(String source, String suffix) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest(source.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(String.format("%02x", b));
+            }
+            return new File(HBot.joinPath(HBot.DATA_DIR, "resource_cache"), sb + suffix);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Entry readDisk(String source) {
+        File meta = diskFile(source, ".json"), bin = diskFile(source, ".bin");
+        if (!meta.exists() || !bin.exists()) {
+            return null;
+        }
+        try {
+            MapGetter mg = new MapGetter(JSONObject.parseObject(Files.readString(meta.toPath()), Map.class));
+            if (!source.equals(mg.getString("source"))) {
+                return null;
+            }
+            return new Entry(Files.readAllBytes(bin.toPath()), mg.getInt("status"), mg.getString("etag"), mg.getString("lastModified"),
+                    0, mg.getLong("ttl"), mg.getLong("expiresAt"));
+        } catch (Exception e) {
+            Logger.debug("Can not read cached resource %s: %s", source, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeDisk(String source, Entry entry) {
+        File meta = diskFile(source, ".json"), bin = diskFile(source, ".bin");
+        try {
+            File dir = meta.getParentFile();
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+            JSONObject json = new JSONObject();
+            json.put("source", source);
+            json.put("status", entry.status);
+            json.put("etag", entry.etag);
+            json.put("lastModified", entry.lastModified);
+            json.put("ttl", entry.ttlMillis);
+            json.put("expiresAt", entry.expiresAt);
+            Files.write(bin.toPath(), entry.data);
+            Files.writeString(meta.toPath(), json.toJSONString());
+            if (diskWrites.incrementAndGet() % 64 == 0) {
+                pruneDisk(dir);
+            }
+        } catch (IOException e) {
+            Logger.warning("Can not write cached resource %s: %s", source, e.getMessage());
+        }
+    }
+
+    private static void pruneDisk(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".json"));
+        if (files == null || files.length <= diskMaxEntries) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length / 2; i++) {
+            String name = files[i].getName();
+            files[i].delete();
+            new File(dir, name.substring(0, name.length() - ".json".length()) + ".bin").delete();
+        }
+    }
+
+
+    private static final class Entry {
+        final byte[] data;
+        final int status;
+        final String etag;
+        final String lastModified;
+        /**
+         * 本地文件的修改时间
+         */
+        final long mtime;
+        final long ttlMillis;
+        volatile long expiresAt;
+        /**
+         * 由 data 派生的内容，按需计算
+         */
+        volatile String text;
+        volatile Map<String, Object> json;
+
+        Entry(byte[] data, int status, String etag, String lastModified, long mtime, long ttlMillis, long expiresAt) {
+            this.data = data;
+            this.status = status;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.mtime = mtime;
+            this.ttlMillis = ttlMillis;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
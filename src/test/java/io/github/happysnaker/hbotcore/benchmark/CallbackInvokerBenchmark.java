@@ -0,0 +1,125 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.handler.CallbackInvoker;
+import io.github.happysnaker.hbotcore.handler.Interest;
+import io.github.happysnaker.hbotcore.permisson.Permission;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.event.events.MessageEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较 {@link CallbackInvoker} 与原先每次反射查找回调函数的开销
+ * <p>运行：mvn -P benchmark test -Djmh.args="CallbackInvoker -f 1"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackInvokerBenchmark {
+    public static class Handler {
+        private Object exact(Interest.DispatchArgs args) {
+            return args.getMethodName();
+        }
+
+        private Object injected(GroupMessageEvent event, String extra, Interest.DispatchArgs args) {
+            return extra;
+        }
+    }
+
+    private final Handler handler = new Handler();
+    private Object[] exactArgs;
+    private Object[] injectedArgs;
+
+    @Setup
+    public void setup() {
+        Interest.DispatchArgs dispatchArgs = Interest.DispatchArgs.builder().methodName("exact").handler(handler).build();
+        exactArgs = new Object[]{dispatchArgs};
+        injectedArgs = new Object[]{dispatchArgs, "extra"};
+    }
+
+    @Benchmark
+    public Object direct() {
+        return handler.exact((Interest.DispatchArgs) exactArgs[0]);
+    }
+
+    @Benchmark
+    public Object invokerExact() throws Exception {
+        return CallbackInvoker.resolve(Handler.class, "exact", exactArgs).invoke(handler, null, exactArgs);
+    }
+
+    @Benchmark
+    public Object reflectionExact() throws Exception {
+        return reflect(handler, "exact", exactArgs);
+    }
+
+    @Benchmark
+    public Object invokerInjected() throws Exception {
+        return CallbackInvoker.resolve(Handler.class, "injected", injectedArgs).invoke(handler, null, injectedArgs);
+    }
+
+    @Benchmark
+    public Object reflectionInjected() throws Exception {
+        return reflect(handler, "injected", injectedArgs);
+    }
+
+    /**
+     * 原先 {@link Interest#action(GroupMessageEvent, Object, Object...)} 中的反射路径（不含权限检查）
+     */
+    private static Object reflect(Object proxy, String methodName, Object[] args) throws Exception {
+        Class[] clazz = Arrays.stream(args)
+                .map(Object::getClass)
+                .toArray(Class[]::new);
+        Method declaredMethod = null;
+        try {
+            declaredMethod = proxy.getClass().getDeclaredMethod(methodName, clazz);
+        } catch (NoSuchMethodException e) {
+            Object[] oldArgs = args.clone();
+            for (Method method : proxy.getClass().getDeclaredMethods()) {
+                if (!method.getName().equals(methodName)) {
+                    continue;
+                }
+                Parameter[] parameters = method.getParameters();
+                args = new Object[parameters.length];
+                for (int i = 0; i < parameters.length; i++) {
+                    var parameter = parameters[i];
+                    if (parameter.getType().equals(GroupMessageEvent.class)
+                            || parameter.getType().equals(MessageEvent.class)) {
+                        // 基准测试中没有真实事件，用 DispatchArgs 占位以保持相同的扫描开销
+                        args[i] = oldArgs[0];
+                    } else {
+                        for (Object oldArg : oldArgs) {
+                            if (oldArg.getClass().equals(parameter.getType())) {
+                                args[i] = oldArg;
+                                break;
+                            }
+                        }
+                    }
+                    if (args[i] == null) {
+                        break;
+                    }
+                }
+                if (args[parameters.length - 1] != null) {
+                    declaredMethod = method;
+                    break;
+                }
+            }
+        }
+        declaredMethod.setAccessible(true);
+        declaredMethod.getAnnotation(Permission.class);
+        if (declaredMethod.getParameterTypes()[0] == GroupMessageEvent.class) {
+            args[0] = null;
+        }
+        return declaredMethod.invoke(proxy, args);
+    }
+}
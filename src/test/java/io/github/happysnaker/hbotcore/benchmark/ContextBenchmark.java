@@ -0,0 +1,81 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.handler.MessageEventHandler;
+import io.github.happysnaker.hbotcore.intercept.Interceptor;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+import io.github.happysnaker.hbotcore.proxy.Context;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.MessageChain;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Context#execute(GroupMessageEvent)} 在不同处理器数量下的开销
+ * <p>每个处理器只对以自己的关键字开头的消息感兴趣，与大多数基于前缀的处理器一致；消息分别命中最后一个处理器与全部未命中，
+ * 两者都需要询问所有处理器。与线上一样，每个事件都会创建一个新的 Context；metrics 参数对比开启指标记录的额外开销</p>
+ * <p>运行：mvn -P benchmark test -Djmh.args="ContextBenchmark -prof gc"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextBenchmark {
+    public static class KeywordHandler implements MessageEventHandler {
+        private final String keyword;
+
+        KeywordHandler(String keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        public List<MessageChain> handleMessageEvent(GroupMessageEvent event, Context ctx) {
+            return null;
+        }
+
+        @Override
+        public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
+            return ctx.getView().getPlain().startsWith(keyword);
+        }
+    }
+
+    @Param({"10", "100", "1000"})
+    public int handlers;
+
+    @Param({"true", "false"})
+    public boolean metrics;
+
+    private List<MessageEventHandler> handlerList;
+    private final List<Interceptor> interceptors = List.of();
+    private GroupMessageEvent last;
+    private GroupMessageEvent miss;
+
+    @Setup
+    public void setup() {
+        Metrics.enable = metrics;
+        handlerList = new ArrayList<>(handlers);
+        for (int i = 0; i < handlers; i++) {
+            handlerList.add(new KeywordHandler("命令" + i));
+        }
+        last = FakeEvents.groupMessage(100000L, 20000L, "命令" + (handlers - 1) + " 参数");
+        miss = FakeEvents.groupMessage(100000L, 20000L, "一条普通的聊天消息");
+    }
+
+    @Benchmark
+    public int executeLast() {
+        return new Context(handlerList, interceptors, interceptors).execute(last);
+    }
+
+    @Benchmark
+    public int executeMiss() {
+        return new Context(handlerList, interceptors, interceptors).execute(miss);
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.proxy.ContinuousDialogue;
+import io.github.happysnaker.hbotcore.proxy.Conversation;
+import io.github.happysnaker.hbotcore.proxy.EventDispatcher;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量同时打开的 {@link Conversation} 下，路由一条应答消息的开销
+ * <p>每个对话都在无限地等待同一个人的下一条消息，应答后重新等待，因此对话数在测试期间保持不变；
+ * 测试在 64MB 的堆中运行（一个等待中的对话约占用 700 字节），可配合 -prof gc 观察每次应答的分配量</p>
+ * <p>运行：mvn -P benchmark test -Djmh.args="Conversation -prof gc"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx64m", "-Xms64m"})
+public class ConversationBenchmark {
+    private static final long GROUP = 100000L;
+
+    @Param({"1000", "10000"})
+    public int dialogues;
+
+    private GroupMessageEvent[] replies;
+    private GroupMessageEvent unrelated;
+    private int next;
+
+    @Setup
+    public void setup() {
+        // 在当前线程中执行对话的每一步，避免测试线程池的调度开销
+        EventDispatcher.mode = EventDispatcher.Mode.SYNC;
+        replies = new GroupMessageEvent[dialogues];
+        for (int i = 0; i < dialogues; i++) {
+            // 同一个事件既用于开启对话，也作为之后的应答，以减少测试夹具本身占用的堆
+            replies[i] = FakeEvents.groupMessage(GROUP, 10000L + i, "应答");
+            Conversation.with(replies[i])
+                    .timeout(-1)
+                    .expect((s, reply) -> false)
+                    .start();
+        }
+        unrelated = FakeEvents.groupMessage(GROUP + 1, 1L, "无关消息");
+        if (ContinuousDialogue.getPendingCount() < dialogues) {
+            throw new IllegalStateException("dialogues are not registered");
+        }
+    }
+
+    @Benchmark
+    public boolean reply() {
+        GroupMessageEvent event = replies[next];
+        next = next + 1 == replies.length ? 0 : next + 1;
+        return ContinuousDialogue.checkContinuousDialogue(event);
+    }
+
+    @Benchmark
+    public boolean unrelatedMessage() {
+        return ContinuousDialogue.checkContinuousDialogue(unrelated);
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import net.mamoe.mirai.Bot;
+import net.mamoe.mirai.contact.Group;
+import net.mamoe.mirai.contact.Member;
+import net.mamoe.mirai.contact.MemberPermission;
+import net.mamoe.mirai.contact.NormalMember;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.*;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 基准测试使用的离线群消息事件，机器人、群与群成员由动态代理实现，只支持获取 id；向群发送的消息可以交给一个 sink 记录，其余操作返回 null
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public final class FakeEvents {
+    private FakeEvents() {
+    }
+
+    /**
+     * 构造一条群消息
+     *
+     * @param groupId  群号
+     * @param senderId 发送人
+     * @param messages 消息内容，String 会被转换为 {@link PlainText}
+     * @return 事件
+     */
+    public static GroupMessageEvent groupMessage(long groupId, long senderId, Object... messages) {
+        return groupMessage(null, groupId, senderId, null, messages);
+    }
+
+    /**
+     * 构造一个机器人，只支持获取 id 与昵称，不会被注册到 {@link Bot#getInstances()}
+     */
+    public static Bot bot(long id) {
+        return (Bot) Proxy.newProxyInstance(FakeEvents.class.getClassLoader(), new Class[]{Bot.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> id;
+                    case "getNick" -> "bot" + id;
+                    case "isOnline" -> true;
+                    case "hashCode" -> Long.hashCode(id);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "Bot(" + id + ")";
+                    default -> null;
+                });
+    }
+
+    /**
+     * 构造一条群消息，向群发送的消息会交给 sink
+     *
+     * @param bot      机器人，可以为 null
+     * @param groupId  群号
+     * @param senderId 发送人
+     * @param sink     接收发送到群中的消息，可以为 null
+     * @param messages 消息内容，String 会被转换为 {@link PlainText}
+     * @return 事件
+     */
+    public static GroupMessageEvent groupMessage(Bot bot, long groupId, long senderId, Consumer<MessageChain> sink, Object... messages) {
+        Group group = (Group) Proxy.newProxyInstance(FakeEvents.class.getClassLoader(), new Class[]{Group.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> groupId;
+                    case "getBot" -> bot;
+                    case "sendMessage" -> {
+                        if (sink != null) {
+                            sink.accept(args[0] instanceof Message m ? MessageUtils.newChain(m) : MessageUtils.newChain(new PlainText(String.valueOf(args[0]))));
+                        }
+                        yield null;
+                    }
+                    case "hashCode" -> Long.hashCode(groupId);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "Group(" + groupId + ")";
+                    default -> null;
+                });
+        Member sender = (Member) Proxy.newProxyInstance(FakeEvents.class.getClassLoader(), new Class[]{NormalMember.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getId" -> senderId;
+                    case "getGroup" -> group;
+                    case "getBot" -> bot;
+                    case "getNick", "getNameCard", "getSpecialTitle", "getRemark" -> "member" + senderId;
+                    case "hashCode" -> Long.hashCode(senderId);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "Member(" + senderId + ")";
+                    default -> null;
+                });
+        MessageChain[] original = new MessageChain[1];
+        MessageSource source = new OnlineMessageSource.Incoming.FromGroup() {
+            @Override
+            public Member getSender() {
+                return sender;
+            }
+
+            @Override
+            public Group getSubject() {
+                return group;
+            }
+
+            @Override
+            public Bot getBot() {
+                return bot;
+            }
+
+            @Override
+            public int[] getIds() {
+                return new int[]{1};
+            }
+
+            @Override
+            public int[] getInternalIds() {
+                return new int[]{1};
+            }
+
+            @Override
+            public int getTime() {
+                return 0;
+            }
+
+            @Override
+            public MessageChain getOriginalMessage() {
+                return original[0];
+            }
+
+            @Override
+            public boolean isOriginalMessageInitialized() {
+                return true;
+            }
+        };
+        List<Message> list = new ArrayList<>();
+        list.add(source);
+        for (Object m : messages) {
+            list.add(m instanceof Message message ? message : new PlainText(String.valueOf(m)));
+        }
+        MessageChain chain = MessageUtils.newChain(list);
+        original[0] = chain;
+        return new GroupMessageEvent("member" + senderId, MemberPermission.MEMBER, sender, chain, 0);
+    }
+}
@@ -0,0 +1,95 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.handler.Interest;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Interest#isInterest(GroupMessageEvent)} 与 {@link Interest#action(GroupMessageEvent, Object, Object...)} 的开销
+ * <p>兴趣条件模拟一个常见的娱乐机器人：若干前缀命令、关键词、完全匹配、正则，以及一个限定群与发送人的嵌套条件；
+ * 消息分别命中前缀、命中正则与全部未命中</p>
+ * <p>运行：mvn -P benchmark test -Djmh.args="InterestBenchmark -prof gc"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterestBenchmark {
+    public static class Handler {
+        public Object reply(Interest.DispatchArgs args) {
+            return args.getCondition();
+        }
+    }
+
+    private static final long GROUP = 100000L;
+    private static final long SENDER = 20000L;
+
+    private final Handler handler = new Handler();
+    private Interest interest;
+    private GroupMessageEvent prefixHit;
+    private GroupMessageEvent regexHit;
+    private GroupMessageEvent miss;
+
+    @Setup
+    public void setup() {
+        Interest admin = Interest.builder()
+                .onCondition(Interest.MODE.GROUP, String.valueOf(GROUP))
+                .onCondition(Interest.MODE.SENDER, "1234567")
+                .onCondition(Interest.MODE.PREFIX, "管理")
+                .matchAll(true, "reply", true)
+                .builder();
+        interest = Interest.builder()
+                .onCondition(Interest.MODE.PREFIX, "音乐", "reply")
+                .onCondition(Interest.MODE.PREFIX, "天气", "reply")
+                .onCondition(Interest.MODE.PREFIX, "翻译", "reply")
+                .onCondition(Interest.MODE.PREFIX, "百科", "reply")
+                .onCondition(Interest.MODE.PREFIX, "签到", "reply")
+                .onCondition(Interest.MODE.EQUALS, "菜单", "reply")
+                .onCondition(Interest.MODE.EQUALS, "帮助", "reply")
+                .onCondition(Interest.MODE.EQUALS, "状态", "reply")
+                .onCondition(Interest.MODE.CONTAINS, "早上好", "reply")
+                .onCondition(Interest.MODE.CONTAINS, "晚安", "reply")
+                .onCondition(Interest.MODE.SUFFIX, "是什么", "reply")
+                .onCondition(Interest.MODE.REGEX, "^\\d+[+\\-*/]\\d+$", "reply")
+                .onCondition(Interest.MODE.REGEX, "牛.+", "reply")
+                .onCondition(Interest.MODE.REGEX, "(?i)^bv[0-9a-z]{10}$", "reply")
+                .onCondition(admin, "reply")
+                .builder();
+        prefixHit = FakeEvents.groupMessage(GROUP, SENDER, "签到 今天也要加油");
+        regexHit = FakeEvents.groupMessage(GROUP, SENDER, "BV1xx411c7mD");
+        miss = FakeEvents.groupMessage(GROUP, SENDER, "今天中午吃什么呢，有没有人推荐一下附近的餐馆");
+    }
+
+    @Benchmark
+    public boolean isInterestPrefix() {
+        return interest.isInterest(prefixHit);
+    }
+
+    @Benchmark
+    public boolean isInterestRegex() {
+        return interest.isInterest(regexHit);
+    }
+
+    @Benchmark
+    public boolean isInterestMiss() {
+        return interest.isInterest(miss);
+    }
+
+    @Benchmark
+    public Object actionPrefix() throws Exception {
+        return interest.action(prefixHit, handler);
+    }
+
+    @Benchmark
+    public Object actionRegex() throws Exception {
+        return interest.action(regexHit, handler);
+    }
+}
@@ -0,0 +1,346 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.boot.HBot;
+import io.github.happysnaker.hbotcore.command.CommandView;
+import io.github.happysnaker.hbotcore.command.HBotCommandEventHandlerManager;
+import io.github.happysnaker.hbotcore.handler.AdaptInterestMessageEventHandler;
+import io.github.happysnaker.hbotcore.handler.GroupMessageEventHandler;
+import io.github.happysnaker.hbotcore.handler.Interest;
+import io.github.happysnaker.hbotcore.handler.handler;
+import io.github.happysnaker.hbotcore.logger.Logger;
+import io.github.happysnaker.hbotcore.metrics.Histogram;
+import io.github.happysnaker.hbotcore.metrics.HistogramSnapshot;
+import io.github.happysnaker.hbotcore.metrics.Metrics;
+import io.github.happysnaker.hbotcore.metrics.MetricsCommandHandler;
+import io.github.happysnaker.hbotcore.proxy.Context;
+import io.github.happysnaker.hbotcore.proxy.EventDispatcher;
+import io.github.happysnaker.hbotcore.proxy.MessageHandlerProxy;
+import io.github.happysnaker.hbotcore.proxy.MessageSender;
+import net.mamoe.mirai.Bot;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.At;
+import net.mamoe.mirai.message.data.MessageChain;
+import net.mamoe.mirai.utils.SilentLogger;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 离线压测工具，不需要登录 QQ，以可控的速率驱动完整的 {@link MessageHandlerProxy#dispatch} → {@link Context#execute} → 回复 链路
+ * <p>机器人、群与群成员均为内存中的替身（见 {@link FakeEvents}），发送到群中的消息会被记录下来，用于计算从消息到达到回复发出的端到端延迟。
+ * 内置四个处理器：echo 命令、at 机器人的应答、由 keywords 个前缀条件组成的兴趣处理器，以及一个总是回复的兜底处理器（类似 ChatGPT 处理器），
+ * 因此每条消息恰好产生一条回复</p>
+ * <p>指定 rate 时为开环压测，延迟从消息计划发出的时间算起，因此系统跟不上时排队的时间也会计入延迟；rate 为 0 时尽可能快地发送，
+ * 此时分发队列使用 BLOCK 策略形成背压</p>
+ * <p>运行：mvn -P loadtest test -Dload.args="--rate=20000 --seconds=30 --groups=200"，支持的参数：
+ * <ul>
+ *     <li>--groups=50 --senders=200：群数与每个群的发送人数</li>
+ *     <li>--rate=0：每秒发送的消息数，0 表示不限速</li>
+ *     <li>--seconds=10 --warmup=3：压测与预热的秒数</li>
+ *     <li>--producers=1：发送线程数</li>
+ *     <li>--sizes=8:60,32:30,256:10：消息长度分布，长度:权重</li>
+ *     <li>--commandRatio=0.1 --atBotRatio=0.05 --keywordRatio=0.2 --keywords=20：命令、at 机器人、命中关键词的比例与关键词数</li>
+ *     <li>--mode=pool --threads=0：分发模式与线程数，见 {@link EventDispatcher}</li>
+ *     <li>--sendRate=0：每个机器人每秒至多发送的回复数，0 表示不限制，见 {@link MessageSender}</li>
+ * </ul>
+ * </p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+public class LoadGenerator {
+    static final long BOT_ID = 10000L;
+    static final long GROUP_BASE = 100000L;
+    static final long SENDER_BASE = 20000L;
+    private static final String ALPHABET = "的一是在不了有和人这中大为上个国我以要他时来用们生到作地于出就分对成会可主发年动同工也能下过子说产种面而方后多定行学法所民得经";
+
+    static int keywords = 20;
+
+    private final Map<String, String> options;
+    private final int groups;
+    private final int senders;
+    private final int rate;
+    private final int seconds;
+    private final int warmup;
+    private final int producers;
+    private final double commandRatio;
+    private final double atBotRatio;
+    private final double keywordRatio;
+    private final int[] sizes;
+    private final int[] sizeWeights;
+    private final int totalWeight;
+
+    private final Bot bot = FakeEvents.bot(BOT_ID);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder replied = new LongAdder();
+    private final Histogram latency = Metrics.histogram("loadtest.e2e");
+    private MessageHandlerProxy proxy;
+
+    public LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.groups = intOption("groups", 50);
+        this.senders = intOption("senders", 200);
+        this.rate = intOption("rate", 0);
+        this.seconds = intOption("seconds", 10);
+        this.warmup = intOption("warmup", 3);
+        this.producers = intOption("producers", 1);
+        this.commandRatio = Double.parseDouble(options.getOrDefault("commandRatio", "0.1"));
+        this.atBotRatio = Double.parseDouble(options.getOrDefault("atBotRatio", "0.05"));
+        this.keywordRatio = Double.parseDouble(options.getOrDefault("keywordRatio", "0.2"));
+        keywords = intOption("keywords", 20);
+        String[] dist = options.getOrDefault("sizes", "8:60,32:30,256:10").split(",");
+        this.sizes = new int[dist.length];
+        this.sizeWeights = new int[dist.length];
+        int total = 0;
+        for (int i = 0; i < dist.length; i++) {
+            String[] kv = dist[i].split(":");
+            sizes[i] = Integer.parseInt(kv[0].trim());
+            total += kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            sizeWeights[i] = total;
+        }
+        this.totalWeight = total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            }
+        }
+        new LoadGenerator(options).run();
+        System.exit(0);
+    }
+
+    private int intOption(String name, int def) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(def)));
+    }
+
+    public void run() throws Exception {
+        HBot.LOGGER = SilentLogger.INSTANCE;
+        Logger.logLevel = Logger.WARNING;
+        EventDispatcher.mode = EventDispatcher.Mode.valueOf(options.getOrDefault("mode", "pool").toUpperCase(Locale.ROOT));
+        if (intOption("threads", 0) > 0) {
+            EventDispatcher.threads = intOption("threads", 0);
+        }
+        // 压测关注框架本身的开销，默认不限制发送速率
+        MessageSender.permitsPerSecond = Double.parseDouble(options.getOrDefault("sendRate", "0"));
+        if (rate == 0) {
+            EventDispatcher.overflowPolicy = EventDispatcher.OverflowPolicy.BLOCK;
+            EventDispatcher.blockTimeoutMillis = TimeUnit.MINUTES.toMillis(1);
+        }
+
+        AnnotationConfigApplicationContext spring = new AnnotationConfigApplicationContext();
+        spring.register(EchoCommandHandler.class, AtBotHandler.class, KeywordHandler.class, FallbackHandler.class);
+        spring.refresh();
+        HBot.applicationContext = spring;
+        proxy = new MessageHandlerProxy();
+
+        System.out.printf("groups=%d senders=%d rate=%s producers=%d mode=%s threads=%d commandRatio=%.2f atBotRatio=%.2f keywordRatio=%.2f keywords=%d%n",
+                groups, senders, rate == 0 ? "unlimited" : rate, producers, EventDispatcher.mode, EventDispatcher.threads,
+                commandRatio, atBotRatio, keywordRatio, keywords);
+        System.out.printf("warming up for %ds...%n", warmup);
+        drive(warmup);
+        drain();
+        Metrics.reset();
+        sent.reset();
+        replied.reset();
+
+        System.out.printf("running for %ds...%n", seconds);
+        long start = System.nanoTime();
+        drive(seconds);
+        boolean drained = drain();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        HistogramSnapshot e2e = latency.snapshot();
+        System.out.printf("sent=%d replied=%d dropped=%d%s%n", sent.sum(), replied.sum(), EventDispatcher.getDroppedCount(),
+                drained ? "" : " (not drained)");
+        System.out.printf("throughput=%.0f msg/s%n", replied.sum() / elapsed);
+        System.out.printf("latency p50=%s p99=%s p999=%s max=%s%n",
+                Metrics.formatNanos(e2e.percentile(50)), Metrics.formatNanos(e2e.percentile(99)),
+                Metrics.formatNanos(e2e.percentile(99.9)), Metrics.formatNanos(e2e.getMax()));
+        System.out.println(MetricsCommandHandler.report(Metrics.snapshot(), null));
+        spring.close();
+    }
+
+    /**
+     * 以 producers 个线程发送 seconds 秒
+     */
+    private void drive(int seconds) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long seed = p * 31L + seconds;
+            Thread t = new Thread(() -> produce(new Random(seed), end), "load-producer-" + p);
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    private void produce(Random random, long end) {
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * producers / rate : 0;
+        long next = System.nanoTime();
+        while (true) {
+            Probe probe = new Probe();
+            GroupMessageEvent event = nextEvent(random, probe);
+            long now = System.nanoTime();
+            if (interval > 0) {
+                next += interval;
+                while (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    now = System.nanoTime();
+                }
+                // 以计划时间为起点，系统跟不上时的排队时间同样计入延迟
+                probe.start = next;
+            } else {
+                probe.start = now;
+            }
+            if (now >= end) {
+                break;
+            }
+            sent.increment();
+            proxy.dispatch(event);
+        }
+    }
+
+    private GroupMessageEvent nextEvent(Random random, Probe probe) {
+        long group = GROUP_BASE + random.nextInt(groups);
+        long sender = SENDER_BASE + random.nextInt(senders);
+        String text = randomText(random, nextSize(random));
+        double r = random.nextDouble();
+        if (r < commandRatio) {
+            return FakeEvents.groupMessage(bot, group, sender, probe, HBotCommandEventHandlerManager.prefix + "echo " + text);
+        }
+        r -= commandRatio;
+        if (r < atBotRatio) {
+            return FakeEvents.groupMessage(bot, group, sender, probe, new At(BOT_ID), " " + text);
+        }
+        r -= atBotRatio;
+        if (r < keywordRatio) {
+            return FakeEvents.groupMessage(bot, group, sender, probe, KeywordHandler.keyword(random.nextInt(keywords)) + text);
+        }
+        return FakeEvents.groupMessage(bot, group, sender, probe, text);
+    }
+
+    private int nextSize(Random random) {
+        int w = random.nextInt(totalWeight);
+        for (int i = 0; i < sizes.length; i++) {
+            if (w < sizeWeights[i]) {
+                return sizes[i];
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    private static String randomText(Random random, int len) {
+        char[] chars = new char[len];
+        for (int i = 0; i < len; i++) {
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 等待已发送的消息全部得到回复
+     */
+    private boolean drain() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (replied.sum() + EventDispatcher.getDroppedCount() < sent.sum()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return true;
+    }
+
+    /**
+     * 记录一条消息的第一条回复
+     */
+    private class Probe implements Consumer<MessageChain> {
+        volatile long start;
+        private boolean replied0;
+
+        @Override
+        public void accept(MessageChain chain) {
+            if (!replied0) {
+                replied0 = true;
+                latency.recordSince(start);
+                replied.increment();
+            }
+        }
+    }
+
+    @handler(isCommandHandler = true, commands = "echo")
+    public static class EchoCommandHandler extends HBotCommandEventHandlerManager {
+        @Override
+        public List<MessageChain> parseCommand(GroupMessageEvent event, Context context) {
+            return buildMessageChainAsSingletonList(getQuoteReply(event), context.getView().getCommand().getArgs());
+        }
+
+        @Override
+        public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
+            CommandView command = ctx.getView().getCommand();
+            return command != null && command.getName().equals("echo");
+        }
+
+        @Override
+        public void success(GroupMessageEvent event) {
+            // 不记录命令缓存
+        }
+    }
+
+    @handler(priority = 100)
+    public static class AtBotHandler extends GroupMessageEventHandler {
+        @Override
+        public List<MessageChain> handleMessageEvent(GroupMessageEvent event, Context ctx) {
+            return buildMessageChainAsSingletonList(new At(ctx.getView().getSenderId()), " 在的");
+        }
+
+        @Override
+        public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
+            return ctx.getView().isAt(BOT_ID);
+        }
+    }
+
+    @handler(priority = 10)
+    public static class KeywordHandler extends AdaptInterestMessageEventHandler {
+        static String keyword(int i) {
+            return "关键词" + i + " ";
+        }
+
+        public KeywordHandler() {
+            Interest.InterestBuilder builder = Interest.builder();
+            for (int i = 0; i < keywords; i++) {
+                builder.onCondition(Interest.MODE.PREFIX, keyword(i).trim(), "[hrobot::$quote]()收到关键词" + i, false);
+            }
+            setInterest(builder.builder());
+        }
+    }
+
+    @handler(priority = -1)
+    public static class FallbackHandler extends GroupMessageEventHandler {
+        @Override
+        public List<MessageChain> handleMessageEvent(GroupMessageEvent event, Context ctx) {
+            return buildMessageChainAsSingletonList("收到");
+        }
+
+        @Override
+        public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.boot.HBot;
+import io.github.happysnaker.hbotcore.logger.FileAppender;
+import io.github.happysnaker.hbotcore.logger.Logger;
+import net.mamoe.mirai.utils.SilentLogger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Logger} 的吞吐量
+ * <p>控制台输出被替换为 {@link SilentLogger}，因此测得的是格式化与写文件的开销；disabled 为级别被禁用时的开销，应当不分配任何内存。
+ * 写文件的测试以 4 个线程并发写入，callerInfo 参数对比是否记录调用者</p>
+ * <p>运行：mvn -P benchmark test -Djmh.args="LoggerBenchmark -prof gc"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+    @Param({"true", "false"})
+    public boolean callerInfo;
+
+    private File dir;
+    private int n;
+
+    @Setup
+    public void setup() throws Exception {
+        HBot.LOGGER = SilentLogger.INSTANCE;
+        dir = Files.createTempDirectory("hbot-log-bench").toFile();
+        Logger.logLevel = Logger.INFO;
+        Logger.toFileMod = Logger.ALL_TO_FILE;
+        Logger.logFile = new File(dir, "bench").getPath();
+        Logger.fileSizeHolder = 64 * 1024 * 1024;
+        Logger.callerInfo = callerInfo;
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileAppender.getInstance().flush(10_000);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public void disabled() {
+        Logger.debug("收到消息 {}，来自 {}", n, "group");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void toFile() {
+        Logger.info("收到消息 {}，来自 {}", n++, "group");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void structuredToFile() {
+        Logger.atInfo().with("seq", n++).with("group", 100000L).log("收到消息");
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.utils.HBotUtil;
+import io.github.happysnaker.hbotcore.utils.MessageTemplate;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.MessageChain;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HBotUtil#parseMiraiCode(String, net.mamoe.mirai.event.events.MessageEvent)} 解析回复模板的开销
+ * <p>分别为纯文本、含 mirai 码的文本、含有 quote、at 两个 HRobot 标签的模板，以及含有变量的模板；img、text、map 等标签需要访问网络或文件，不在此测试。
+ * 模板编译后会被缓存，compile 为不使用缓存时编译模板的开销</p>
+ * <p>运行：mvn -P benchmark test -Djmh.args="MiraiCodeBenchmark -prof gc"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MiraiCodeBenchmark {
+    private static final String STATIC = "欢迎新人入群，请先阅读群公告，有问题可以发送 #帮助 查看命令列表";
+    private static final String MIRAI_CODE = "[mirai:at:20000] 欢迎新人入群[mirai:face:14]，请先阅读群公告";
+    private static final String TAGGED = "[hrobot::$quote]()[hrobot::$at](sender) 签到成功，今天也要加油哦";
+    private static final String VARIABLES = "[hrobot::$at](sender) {sender} 于 {time} 签到成功，群号 {groupId}";
+
+    private GroupMessageEvent event;
+
+    @Setup
+    public void setup() {
+        event = FakeEvents.groupMessage(100000L, 20000L, "签到");
+    }
+
+    @Benchmark
+    public MessageChain staticText() throws Exception {
+        return HBotUtil.parseMiraiCode(STATIC, event);
+    }
+
+    @Benchmark
+    public MessageChain miraiCode() throws Exception {
+        return HBotUtil.parseMiraiCode(MIRAI_CODE, event);
+    }
+
+    @Benchmark
+    public MessageChain tagged() throws Exception {
+        return HBotUtil.parseMiraiCode(TAGGED, event);
+    }
+
+    @Benchmark
+    public MessageChain variables() throws Exception {
+        return HBotUtil.parseMiraiCode(VARIABLES, event);
+    }
+
+    @Benchmark
+    public MessageTemplate compile() {
+        return MessageTemplate.compile(TAGGED);
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.config.ConfigManager;
+import io.github.happysnaker.hbotcore.permisson.DefaultPermissionManager;
+import io.github.happysnaker.hbotcore.permisson.PermissionManager;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DefaultPermissionManager#hasPermission(int, GroupMessageEvent)} 的开销，配置中的管理员数由 admins 参数指定
+ * <p>运行：mvn -P benchmark test -Djmh.args="PermissionBenchmark -prof gc"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PermissionBenchmark {
+    /**
+     * 按照 HBot 的约定定义的配置类
+     */
+    public static class Config {
+        public static String botSuperAdministrator = "10000";
+        public static List<String> botAdministrator = new ArrayList<>();
+        public static Map<String, List<String>> botGroupAdministrator = new HashMap<>();
+    }
+
+    private static final long GROUP = 100000L;
+
+    @Param({"10", "1000"})
+    public int admins;
+
+    private final DefaultPermissionManager manager = new DefaultPermissionManager();
+    private GroupMessageEvent superAdmin;
+    private GroupMessageEvent admin;
+    private GroupMessageEvent groupAdmin;
+    private GroupMessageEvent member;
+
+    @Setup
+    public void setup() {
+        Config.botAdministrator.clear();
+        Config.botGroupAdministrator.clear();
+        for (int i = 0; i < admins; i++) {
+            Config.botAdministrator.add(String.valueOf(20000 + i));
+            Config.botGroupAdministrator.put(String.valueOf(30000 + i), List.of(String.valueOf(GROUP), String.valueOf(GROUP + i)));
+        }
+        ConfigManager.setConfigClass(Config.class);
+        manager.invalidate();
+        superAdmin = FakeEvents.groupMessage(GROUP, 10000L, "#命令");
+        admin = FakeEvents.groupMessage(GROUP, 20000L + admins - 1, "#命令");
+        groupAdmin = FakeEvents.groupMessage(GROUP, 30000L + admins - 1, "#命令");
+        member = FakeEvents.groupMessage(GROUP, 40000L, "#命令");
+    }
+
+    @Benchmark
+    public boolean superAdministrator() {
+        return manager.hasPermission(PermissionManager.BOT_SUPER_ADMINISTRATOR, superAdmin);
+    }
+
+    @Benchmark
+    public boolean administrator() {
+        return manager.hasPermission(PermissionManager.BOT_ADMINISTRATOR, admin);
+    }
+
+    @Benchmark
+    public boolean groupAdministrator() {
+        return manager.hasPermission(PermissionManager.BOT_GROUP_ADMINISTRATOR, groupAdmin);
+    }
+
+    @Benchmark
+    public boolean denied() {
+        return manager.hasPermission(PermissionManager.BOT_GROUP_ADMINISTRATOR, member);
+    }
+}
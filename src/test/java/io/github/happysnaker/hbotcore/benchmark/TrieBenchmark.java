@@ -0,0 +1,78 @@
+package io.github.happysnaker.hbotcore.benchmark;
+
+import io.github.happysnaker.hbotcore.utils.Trie;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Trie} 的查找开销，词典为随机生成的中文词与英文命令
+ * <p>运行：mvn -P benchmark test -Djmh.args="TrieBenchmark -prof gc"</p>
+ *
+ * @Author happysnaker
+ * @Date 2023/6/10
+ * @Email happysnaker@foxmail.com
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrieBenchmark {
+    @Param({"100", "10000"})
+    public int words;
+
+    private Trie trie;
+    private String[] hits;
+    private String[] misses;
+    private int next;
+
+    @Setup
+    public void setup() {
+        trie = new Trie();
+        Random random = new Random(42);
+        hits = new String[words];
+        misses = new String[words];
+        for (int i = 0; i < words; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 2 + random.nextInt(6);
+            for (int j = 0; j < len; j++) {
+                // 常用汉字区间与小写字母混合
+                sb.append(random.nextInt(4) == 0 ? (char) ('a' + random.nextInt(26)) : (char) (0x4e00 + random.nextInt(512)));
+            }
+            hits[i] = sb.toString();
+            misses[i] = sb.append('#').toString();
+            trie.insert(hits[i]);
+        }
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == words ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public boolean existHit() {
+        return trie.exist(hits[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean existMiss() {
+        return trie.exist(misses[nextIndex()]);
+    }
+
+    @Benchmark
+    public int startsWith() {
+        String word = hits[nextIndex()];
+        return trie.startsWith(word.substring(0, 1));
+    }
+
+    @Benchmark
+    public Set<String> prefixStrings() {
+        return trie.getPrefixStringList(misses[nextIndex()]);
+    }
+}
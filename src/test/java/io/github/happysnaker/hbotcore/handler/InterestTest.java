@@ -0,0 +1,136 @@
+package io.github.happysnaker.hbotcore.handler;
+
+import io.github.happysnaker.hbotcore.utils.Pair;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Interest 编译结果的缓存与失效
+ */
+public class InterestTest {
+    private static final long SENDER = 10001, GROUP = 20001;
+
+    @Test
+    public void compileIsCachedUntilModified() {
+        Interest interest = Interest.builder()
+                .onCondition(Interest.MODE.CONTAINS, "hello")
+                .builder();
+        InterestMatcher matcher = interest.compile();
+        assertSame(matcher, interest.compile());
+        assertTrue(matcher.matches("say hello", SENDER, GROUP));
+    }
+
+    @Test
+    public void setterInvalidatesCompiledMatcher() {
+        Interest interest = Interest.builder()
+                .onCondition(Interest.MODE.CONTAINS, "hello")
+                .onCondition(Interest.MODE.GROUP, String.valueOf(GROUP))
+                .builder();
+        assertTrue(interest.compile().matches("bye", SENDER, GROUP));
+
+        interest.setMatchAll(true);
+        assertFalse(interest.compile().matches("bye", SENDER, GROUP));
+        assertTrue(interest.compile().matches("hello", SENDER, GROUP));
+
+        Map<String, Pair<String, Boolean>> contains = new HashMap<>();
+        contains.put("bye", null);
+        interest.setMatchAnyContains(contains);
+        assertTrue(interest.compile().matches("bye", SENDER, GROUP));
+        assertFalse(interest.compile().matches("hello", SENDER, GROUP));
+    }
+
+    @Test
+    public void builderAfterCompileInvalidatesCompiledMatcher() {
+        Interest.InterestBuilder builder = Interest.builder().onCondition(Interest.MODE.PREFIX, "#");
+        Interest interest = builder.builder();
+        assertFalse(interest.compile().matches("!help", SENDER, GROUP));
+
+        builder.onCondition(Interest.MODE.PREFIX, "!");
+        assertTrue(interest.compile().matches("!help", SENDER, GROUP));
+        assertTrue(interest.compile().matches("#help", SENDER, GROUP));
+    }
+
+    @Test
+    public void mapsModifiedAfterCompileInvalidateCompiledMatcher() {
+        Interest interest = Interest.builder()
+                .onCondition(Interest.MODE.EQUALS, "ping")
+                .builder();
+        interest.getMatchAnyEquals().put("pong", null);
+        assertTrue(interest.compile().matches("pong", SENDER, GROUP));
+
+        interest.getMatchAnyEquals().put("foo", null);
+        interest.getMatchAnyContains().put("bar", null);
+        assertTrue(interest.compile().matches("foo", SENDER, GROUP));
+        assertTrue(interest.compile().matches("a bar", SENDER, GROUP));
+
+        interest.getMatchAnyEquals().keySet().remove("pong");
+        interest.getMatchAnyContains().entrySet().removeIf(e -> e.getKey().equals("bar"));
+        assertFalse(interest.compile().matches("pong", SENDER, GROUP));
+        assertFalse(interest.compile().matches("a bar", SENDER, GROUP));
+
+        // setter 复制传入的 Map，之后修改原 Map 不影响条件
+        Map<String, Pair<String, Boolean>> prefix = new HashMap<>();
+        interest.setMatchAnyPrefix(prefix);
+        prefix.put("#", null);
+        assertFalse(interest.compile().matches("#help", SENDER, GROUP));
+        interest.getMatchAnyPrefix().put("#", null);
+        assertTrue(interest.compile().matches("#help", SENDER, GROUP));
+    }
+
+    @Test
+    public void modifyingNestedInterestInvalidatesParent() {
+        Interest.InterestBuilder childBuilder = Interest.builder().onCondition(Interest.MODE.SUFFIX, "?");
+        Interest child = childBuilder.builder();
+        Interest parent = Interest.builder()
+                .onCondition(Interest.MODE.EQUALS, "ping")
+                .onCondition(child)
+                .builder();
+        assertTrue(parent.compile().matches("why?", SENDER, GROUP));
+        assertFalse(parent.compile().matches("why!", SENDER, GROUP));
+
+        childBuilder.onCondition(Interest.MODE.SUFFIX, "!");
+        assertTrue(parent.compile().matches("why!", SENDER, GROUP));
+
+        child.getMatchAnySuffix().put("~", null);
+        assertTrue(parent.compile().matches("why~", SENDER, GROUP));
+
+        child.setMatchAnySuffix(new HashMap<>());
+        assertFalse(parent.compile().matches("why?", SENDER, GROUP));
+    }
+
+    @Test
+    public void modifyingAnotherInterestKeepsCacheValid() {
+        Interest compiled = Interest.builder().onCondition(Interest.MODE.CONTAINS, "a").builder();
+        InterestMatcher matcher = compiled.compile();
+
+        Interest other = Interest.builder().onCondition(Interest.MODE.CONTAINS, "b").builder();
+        other.compile();
+        other.setMatchAll(true);
+        other.getMatchAnyContains().put("c", null);
+        assertSame(matcher, compiled.compile());
+    }
+
+    @Test
+    public void concurrentModificationIsNeverLost() throws Exception {
+        Interest interest = Interest.builder().onCondition(Interest.MODE.CONTAINS, "a").builder();
+        Thread compiler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                interest.compile();
+            }
+        });
+        compiler.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                interest.getMatchAnyContains().put("k" + i, null);
+                assertTrue(interest.compile().matches("k" + i, SENDER, GROUP));
+            }
+        } finally {
+            compiler.interrupt();
+            compiler.join();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.happysnaker.hbotcore.handler;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * RegexCondition 的字面量预过滤不能改变 {@link String#matches(String)} 的语义
+ */
+public class RegexConditionTest {
+    private static final String[] PATTERNS = {
+            "abc", ".*hello.*", "hello.*world", "a+b", "ab?c", "a{2}b", "colou?r", "[abc]xyz", "\\d+元",
+            "hello|world", "(foo|bar)baz", ".*\\.txt$", "a\\.b", "x*y+z?", "(?i)abc", "\\Qa.b\\E", "ab*+c", "ab*?c",
+            "\\tab", "[\\]a]b", "^abc$", "a(b(c)d)e", "签到.*", ".*[?？]", "\\s*help\\s*",
+            "\\x41bc.*", "\\x{41}bc", "\\u0041bc", "\\0101bc", "\\cAbc", "(?<n>a)\\k<n>bc", "\\p{Lu}bc",
+            "\\P{Lu}bc", "\\N{LATIN CAPITAL LETTER A}bc", "(a)\\1bc", "(\\c)x)y", "[\\c]]z", "a\\b{g}c",
+    };
+    private static final String[] TEXTS = {
+            "", "abc", "Abc", "ABC", "aBc", "Abcdef", "Abc def", "abcd", "hello", "say hello", "hello world", "helloworld",
+            "world", "ab", "aab", "aaab", "ac", "abbbc", "colour", "color", "colr", "axyz", "bxyz", "xyz", "123元",
+            "元", "foobaz", "barbaz", "baz", "file.txt", "filetxt", "a.b", "axb", "yy", "xxyz", "a.b.", "\tab", "tab",
+            "]b", "ab", "abcde", "ae", "签到", "签到一下", "真的吗？", "真的吗?", "  help ", "help", "\u0001bc", "Xbc",
+            "xbc", "ixy", "\u0009z", "iz", "ac", "abc",
+    };
+
+    @Test
+    public void matchesAgreesWithStringMatches() {
+        for (String pattern : PATTERNS) {
+            RegexCondition condition = RegexCondition.of(pattern);
+            for (String text : TEXTS) {
+                assertEquals(text.matches(pattern), condition.matches(text),
+                        () -> "pattern " + pattern + " text " + text.replace("\t", "\\t"));
+            }
+        }
+    }
+
+    @Test
+    public void extractsLiteralsOfSimpleSequences() {
+        assertArrayEquals(new String[]{"abc"}, RegexCondition.requiredLiterals("abc"));
+        assertArrayEquals(new String[]{"hello", "world"}, RegexCondition.requiredLiterals("hello.*world"));
+        assertArrayEquals(new String[]{"colo", "r"}, RegexCondition.requiredLiterals("colou?r"));
+        assertArrayEquals(new String[]{"a", "b"}, RegexCondition.requiredLiterals("a+b"));
+        assertArrayEquals(new String[]{"元"}, RegexCondition.requiredLiterals("\\d+元"));
+        assertArrayEquals(new String[]{"a.b"}, RegexCondition.requiredLiterals("a\\.b"));
+        assertArrayEquals(new String[]{"xyz"}, RegexCondition.requiredLiterals("[abc]xyz"));
+        assertArrayEquals(new String[]{"a", "e"}, RegexCondition.requiredLiterals("a(b(c)d)e"));
+        assertArrayEquals(new String[]{"y"}, RegexCondition.requiredLiterals("(\\c)x)y"));
+        assertArrayEquals(new String[]{"z"}, RegexCondition.requiredLiterals("[\\c]]z"));
+    }
+
+    @Test
+    public void givesUpOnAmbiguousConstructs() {
+        String[] patterns = {
+                "hello|world", "(?i)abc", "\\Qa.b\\E", "\\x41bc.*", "\\u0041bc", "\\0101bc", "\\cAbc",
+                "(?<n>a)\\k<n>bc", "\\p{Lu}bc", "\\N{LATIN CAPITAL LETTER A}bc", "(a)\\1bc",
+        };
+        for (String pattern : patterns) {
+            assertEquals(0, RegexCondition.requiredLiterals(pattern).length, pattern);
+        }
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        int max = RegexCondition.maxCached;
+        try {
+            RegexCondition.maxCached = 2;
+            RegexCondition a = RegexCondition.of("cache-a.*");
+            assertSame(a, RegexCondition.of("cache-a.*"));
+            RegexCondition.of("cache-b.*");
+            // a 最近被获取过，淘汰的是 b
+            assertSame(a, RegexCondition.of("cache-a.*"));
+            RegexCondition.of("cache-c.*");
+            RegexCondition.of("cache-d.*");
+            assertNotSame(a, RegexCondition.of("cache-a.*"));
+            assertTrue(RegexCondition.statistics().size() <= 2);
+        } finally {
+            RegexCondition.maxCached = max;
+        }
+    }
+}
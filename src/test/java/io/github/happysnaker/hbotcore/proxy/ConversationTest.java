@@ -0,0 +1,164 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.benchmark.FakeEvents;
+import io.github.happysnaker.hbotcore.utils.HBotUtil;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.message.data.MessageChain;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 多轮对话的步骤顺序、执行线程与超时
+ */
+public class ConversationTest {
+    private static final long SENDER = 10001;
+
+    private static GroupMessageEvent message(long groupId, Consumer<MessageChain> sink, String text) {
+        return FakeEvents.groupMessage(null, groupId, SENDER, sink, text);
+    }
+
+    private static boolean deliver(GroupMessageEvent reply) {
+        return ContinuousDialogue.checkContinuousDialogue(EventView.of(reply));
+    }
+
+    private static void awaitPending(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ContinuousDialogue.getPendingCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(ContinuousDialogue.getPendingCount() >= count, "conversation is not waiting");
+    }
+
+    @Test
+    public void stepsRunInOrderOnTheGroupQueue() throws Exception {
+        long groupId = 30001;
+        List<String> trace = new CopyOnWriteArrayList<>();
+        Thread caller = Thread.currentThread();
+        Thread[] handlerThread = new Thread[1];
+        CompletableFuture<Conversation.Session> done = Conversation.with(message(groupId, chain -> trace.add("say:" + chain.contentToString()), "start"))
+                .then(s -> trace.add("then"))
+                .say("question")
+                .expect((s, reply) -> {
+                    handlerThread[0] = Thread.currentThread();
+                    trace.add("reply:" + HBotUtil.getOnlyPlainContent(reply));
+                    return true;
+                })
+                .then(s -> trace.add("end"))
+                .start();
+        awaitPending(1);
+
+        assertTrue(deliver(message(groupId, null, "answer")));
+        // 应答之后提交到同一个群的任务必须在应答处理之后执行
+        CountDownLatch marker = new CountDownLatch(1);
+        EventDispatcher.submit(groupId, () -> {
+            trace.add("next message");
+            marker.countDown();
+        });
+        Conversation.Session session = done.get(5, TimeUnit.SECONDS);
+        assertTrue(marker.await(5, TimeUnit.SECONDS));
+
+        assertTrue(trace.indexOf("reply:answer") < trace.indexOf("next message"), trace::toString);
+        trace.remove("next message");
+        assertEquals(List.of("then", "say:question", "reply:answer", "end"), trace);
+        assertNotSame(caller, handlerThread[0]);
+        assertEquals("answer", HBotUtil.getOnlyPlainContent(session.getLast()));
+    }
+
+    @Test
+    public void askReceivesAReplySentBeforeTheQuestionIsDelivered() throws Exception {
+        long groupId = 30002;
+        boolean[] consumed = new boolean[1];
+        // 问题一发出就立刻收到应答
+        Consumer<MessageChain> sink = chain -> consumed[0] = deliver(message(groupId, null, "Alice"));
+        CompletableFuture<Conversation.Session> done = Conversation.with(message(groupId, sink, "start"))
+                .timeout(5000)
+                .ask("你叫什么名字？", (s, reply) -> s.put("name", HBotUtil.getOnlyPlainContent(reply)))
+                .start();
+
+        Conversation.Session session = done.get(5, TimeUnit.SECONDS);
+        assertTrue(consumed[0]);
+        assertEquals("Alice", session.get("name"));
+    }
+
+    @Test
+    public void rejectedReplyRepeatsTheStep() throws Exception {
+        long groupId = 30003;
+        List<String> replies = new CopyOnWriteArrayList<>();
+        CompletableFuture<Conversation.Session> done = Conversation.with(message(groupId, null, "start"))
+                .expect((s, reply) -> {
+                    String text = HBotUtil.getOnlyPlainContent(reply);
+                    replies.add(text);
+                    return text.matches("\\d+");
+                })
+                .start();
+        awaitPending(1);
+        assertTrue(deliver(message(groupId, null, "abc")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (replies.size() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        awaitPending(1);
+        assertTrue(deliver(message(groupId, null, "18")));
+
+        done.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("abc", "18"), replies);
+    }
+
+    @Test
+    public void timeoutEndsTheConversation() throws Exception {
+        long groupId = 30004;
+        boolean[] later = new boolean[1];
+        CompletableFuture<Conversation.Session> done = Conversation.with(message(groupId, null, "start"))
+                .timeout(200)
+                .expect((s, reply) -> true)
+                .then(s -> later[0] = true)
+                .onTimeout(s -> s.put("timeout", true))
+                .start();
+
+        Conversation.Session session = done.get(5, TimeUnit.SECONDS);
+        assertTrue(session.isTimedOut());
+        assertEquals(Boolean.TRUE, session.get("timeout"));
+        assertFalse(later[0]);
+        assertFalse(deliver(message(groupId, null, "too late")));
+    }
+
+    @Test
+    public void stepsAreNotDroppedWhenTheQueueIsFull() throws Exception {
+        int capacity = EventDispatcher.queueCapacity;
+        EventDispatcher.OverflowPolicy policy = EventDispatcher.overflowPolicy;
+        long timeout = EventDispatcher.blockTimeoutMillis;
+        try {
+            EventDispatcher.queueCapacity = 1;
+            EventDispatcher.blockTimeoutMillis = 3000;
+            long groupId = 30005;
+            for (EventDispatcher.OverflowPolicy p : EventDispatcher.OverflowPolicy.values()) {
+                EventDispatcher.overflowPolicy = p;
+                List<String> trace = new CopyOnWriteArrayList<>();
+                long start = System.currentTimeMillis();
+                CompletableFuture<Conversation.Session> done = Conversation.with(message(groupId++, null, "start"))
+                        .then(s -> {
+                            // 占满队列，下一步只能在队列已满时提交
+                            EventDispatcher.submit(s.getOrigin().getGroup().getId(), () -> trace.add("other"));
+                            trace.add("first");
+                        })
+                        .then(s -> trace.add("second"))
+                        .start();
+                done.get(5, TimeUnit.SECONDS);
+                assertEquals(List.of("first", "other", "second"), trace, p::toString);
+                assertTrue(System.currentTimeMillis() - start < 2000, p::toString);
+            }
+        } finally {
+            EventDispatcher.queueCapacity = capacity;
+            EventDispatcher.overflowPolicy = policy;
+            EventDispatcher.blockTimeoutMillis = timeout;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.happysnaker.hbotcore.proxy;
+
+import io.github.happysnaker.hbotcore.handler.AdaptInterestMessageEventHandler;
+import io.github.happysnaker.hbotcore.handler.Interest;
+import io.github.happysnaker.hbotcore.handler.MessageEventHandler;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 候选处理器索引：被索引的处理器只有在可能感兴趣时才会被询问
+ */
+public class HandlerIndexTest {
+    private static final long GROUP = 111, OTHER_GROUP = 222, SENDER = 333, OTHER_SENDER = 444;
+
+    static class InterestHandler extends AdaptInterestMessageEventHandler {
+        InterestHandler(Interest interest) {
+            setInterest(interest);
+        }
+    }
+
+    static class CustomHandler extends AdaptInterestMessageEventHandler {
+        CustomHandler(Interest interest) {
+            setInterest(interest);
+        }
+
+        @Override
+        public boolean shouldHandle(GroupMessageEvent event, Context ctx) {
+            return true;
+        }
+    }
+
+    private static Interest.InterestBuilder interest() {
+        return Interest.builder();
+    }
+
+    @Test
+    public void groupScopedHandlerIsSkippedForOtherGroups() {
+        MessageEventHandler scoped = new InterestHandler(interest()
+                .onCondition(Interest.MODE.GROUP, String.valueOf(GROUP))
+                .builder());
+        HandlerIndex index = HandlerIndex.build(new MessageEventHandler[]{scoped});
+        assertEquals(1, index.getIndexedCount());
+
+        long[] other = index.candidates("anything", OTHER_GROUP, SENDER);
+        assertFalse(HandlerIndex.isCandidate(other, 0));
+        assertTrue(index.canSkip(other, 0, scoped));
+
+        long[] own = index.candidates("anything", GROUP, SENDER);
+        assertTrue(HandlerIndex.isCandidate(own, 0));
+        assertFalse(index.canSkip(own, 0, scoped));
+    }
+
+    @Test
+    public void matchAllWithGroupAndKeywordIsIndexedByGroup() {
+        MessageEventHandler scoped = new InterestHandler(interest()
+                .onCondition(Interest.MODE.GROUP, String.valueOf(GROUP))
+                .onCondition(Interest.MODE.REGEX, "签到.*")
+                .matchAll(true)
+                .builder());
+        HandlerIndex index = HandlerIndex.build(new MessageEventHandler[]{scoped});
+        assertTrue(index.canSkip(index.candidates("签到", OTHER_GROUP, SENDER), 0, scoped));
+        assertFalse(index.canSkip(index.candidates("签到", GROUP, SENDER), 0, scoped));
+    }
+
+    @Test
+    public void senderScopedHandlerIsSkippedForOtherSenders() {
+        MessageEventHandler scoped = new InterestHandler(interest()
+                .onCondition(Interest.MODE.SENDER, String.valueOf(SENDER))
+                .builder());
+        HandlerIndex index = HandlerIndex.build(new MessageEventHandler[]{scoped});
+        assertTrue(index.canSkip(index.candidates("hi", GROUP, OTHER_SENDER), 0, scoped));
+        assertFalse(index.canSkip(index.candidates("hi", GROUP, SENDER), 0, scoped));
+    }
+
+    @Test
+    public void keywordHandlersAreCandidatesOnlyWhenTheTextMatches() {
+        MessageEventHandler contains = new InterestHandler(interest().onCondition(Interest.MODE.CONTAINS, "天气").builder());
+        MessageEventHandler prefix = new InterestHandler(interest().onCondition(Interest.MODE.PREFIX, "查询").builder());
+        MessageEventHandler suffix = new InterestHandler(interest().onCondition(Interest.MODE.SUFFIX, "吗").builder());
+        MessageEventHandler equals = new InterestHandler(interest().onCondition(Interest.MODE.EQUALS, "菜单").builder());
+        MessageEventHandler[] handlers = {contains, prefix, suffix, equals};
+        HandlerIndex index = HandlerIndex.build(handlers);
+        assertEquals(4, index.getIndexedCount());
+
+        long[] bits = index.candidates("查询今天天气", GROUP, SENDER);
+        assertTrue(HandlerIndex.isCandidate(bits, 0));
+        assertTrue(HandlerIndex.isCandidate(bits, 1));
+        assertFalse(HandlerIndex.isCandidate(bits, 2));
+        assertFalse(HandlerIndex.isCandidate(bits, 3));
+
+        bits = index.candidates("菜单", GROUP, SENDER);
+        assertTrue(HandlerIndex.isCandidate(bits, 3));
+        assertTrue(index.canSkip(bits, 0, contains));
+    }
+
+    @Test
+    public void unscopedOrCustomHandlersAreAlwaysCandidates() {
+        MessageEventHandler regex = new InterestHandler(interest().onCondition(Interest.MODE.REGEX, "\\d+").builder());
+        MessageEventHandler mixed = new InterestHandler(interest()
+                .onCondition(Interest.MODE.GROUP, String.valueOf(GROUP))
+                .onCondition(Interest.MODE.CONTAINS, "hi")
+                .builder());
+        MessageEventHandler custom = new CustomHandler(interest()
+                .onCondition(Interest.MODE.GROUP, String.valueOf(GROUP))
+                .builder());
+        HandlerIndex index = HandlerIndex.build(new MessageEventHandler[]{regex, mixed, custom});
+        assertEquals(0, index.getIndexedCount());
+        long[] bits = index.candidates("bye", OTHER_GROUP, OTHER_SENDER);
+        for (int slot = 0; slot < 3; slot++) {
+            assertTrue(HandlerIndex.isCandidate(bits, slot));
+        }
+    }
+
+    @Test
+    public void modifiedInterestIsNoLongerSkipped() {
+        Interest interest = interest().onCondition(Interest.MODE.GROUP, String.valueOf(GROUP)).builder();
+        MessageEventHandler scoped = new InterestHandler(interest);
+        HandlerIndex index = HandlerIndex.build(new MessageEventHandler[]{scoped});
+        long[] other = index.candidates("anything", OTHER_GROUP, SENDER);
+        assertTrue(index.canSkip(other, 0, scoped));
+
+        interest.getMatchAnyGroup().clear();
+        interest.getMatchAnyContains().put("天气", null);
+        assertFalse(index.canSkip(other, 0, scoped));
+        assertTrue(index.isStale());
+
+        HandlerIndex updated = index.update();
+        assertNotSame(index, updated);
+        assertFalse(updated.isStale());
+        assertSame(updated, updated.update());
+        assertTrue(updated.canSkip(updated.candidates("hi", OTHER_GROUP, SENDER), 0, scoped));
+        assertFalse(updated.canSkip(updated.candidates("今天天气", OTHER_GROUP, SENDER), 0, scoped));
+    }
+
+    @Test
+    public void modifyingOneInterestKeepsOtherHandlersIndexed() {
+        Interest changed = interest().onCondition(Interest.MODE.CONTAINS, "天气").builder();
+        MessageEventHandler a = new InterestHandler(changed);
+        MessageEventHandler b = new InterestHandler(interest().onCondition(Interest.MODE.PREFIX, "查询").builder());
+        HandlerIndex index = HandlerIndex.build(new MessageEventHandler[]{a, b});
+
+        changed.getMatchAnyContains().put("下雨", null);
+        long[] bits = index.candidates("你好", GROUP, SENDER);
+        // 未修改的处理器仍然可以被跳过
+        assertTrue(index.canSkip(bits, 1, b));
+        assertFalse(index.isStale());
+        assertFalse(index.canSkip(bits, 0, a));
+        assertTrue(index.isStale());
+
+        HandlerIndex updated = index.update();
+        assertTrue(updated.canSkip(updated.candidates("你好", GROUP, SENDER), 0, a));
+        assertTrue(updated.canSkip(updated.candidates("你好", GROUP, SENDER), 1, b));
+        assertFalse(updated.canSkip(updated.candidates("要下雨了", GROUP, SENDER), 0, a));
+        assertFalse(updated.canSkip(updated.candidates("查询余额", GROUP, SENDER), 1, b));
+    }
+
+    @Test
+    public void incrementalBuildMatchesFullBuild() {
+        List<MessageEventHandler> registered = new ArrayList<>();
+        HandlerIndex index = HandlerIndex.build(new MessageEventHandler[0]);
+        for (int i = 0; i < 200; i++) {
+            // 新处理器插入到头部，所有旧处理器的位置都会移动
+            registered.add(0, new InterestHandler(interest()
+                    .onCondition(Interest.MODE.CONTAINS, "词" + i + "#")
+                    .onCondition(Interest.MODE.SUFFIX, "尾" + i)
+                    .builder()));
+            if (i % 3 == 2) {
+                registered.remove(registered.size() / 2);
+            }
+            MessageEventHandler[] handlers = registered.toArray(new MessageEventHandler[0]);
+            index = HandlerIndex.build(handlers, index);
+            HandlerIndex full = HandlerIndex.build(handlers);
+            for (String text : new String[]{"词0#", "前缀词" + i + "#", "尾" + (i / 2), "词" + (i / 3) + "#尾" + (i / 5), "无关"}) {
+                assertArrayEquals(full.candidates(text, GROUP, SENDER), index.candidates(text, GROUP, SENDER), text);
+            }
+        }
+    }
+}
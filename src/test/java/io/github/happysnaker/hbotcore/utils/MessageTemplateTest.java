@@ -0,0 +1,232 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpServer;
+import io.github.happysnaker.hbotcore.benchmark.FakeEvents;
+import io.github.happysnaker.hbotcore.boot.HBot;
+import net.mamoe.mirai.event.events.GroupMessageEvent;
+import net.mamoe.mirai.event.events.MessageEvent;
+import net.mamoe.mirai.message.code.MiraiCode;
+import net.mamoe.mirai.message.data.*;
+import net.mamoe.mirai.utils.SilentLogger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.naming.CannotProceedException;
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 编译后的模板必须与旧版本逐次解析的 {@link HBotUtil#parseMiraiCode(String, MessageEvent)} 输出相同的消息链
+ */
+public class MessageTemplateTest {
+    private static final long GROUP = 20001, SENDER = 10001;
+
+    private File text, json;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        HBot.LOGGER = SilentLogger.INSTANCE;
+        MessageTemplate.invalidate();
+        ResourceCache.invalidate();
+        text = File.createTempFile("hbot-template", ".txt");
+        Files.writeString(text.toPath(), "今天宜写代码\n忌发版");
+        json = File.createTempFile("hbot-template", ".json");
+        Files.writeString(json.toPath(), "{\"data\": {\"name\": \"hbot\", \"star\": 5}}");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        text.delete();
+        json.delete();
+        MessageTemplate.invalidate();
+        ResourceCache.invalidate();
+    }
+
+    private static GroupMessageEvent event() {
+        return FakeEvents.groupMessage(GROUP, SENDER, "原消息");
+    }
+
+    @Test
+    public void rendersTheSameChainAsTheLegacyParser() throws Exception {
+        String[] templates = {
+                "",
+                "hello world",
+                "第一行\\n第二行",
+                "[mirai:face:1]你好[mirai:at:123]",
+                "[hrobot::$at](456) 早上好",
+                "[hrobot::$at](sender) 你好",
+                "[hrobot::$at](-1)全体",
+                "[hrobot::$quote](x)收到",
+                "[hrobot::$AT](789)大写",
+                "[hrobot::$unknown](abc)后缀",
+                "[hrobot::$](x)空标签",
+                "{foo} 其他花括号原样保留 [hrobot::$at](1)",
+                "[hrobot::$text](" + text.getPath() + ")结尾",
+                "名称：[hrobot::$map[data][name]](" + json.getPath() + ")",
+                "[hrobot::$quote](x)[hrobot::$at](sender) 宜忌：[hrobot::$text](" + text.getPath() + ") 星级：[hrobot::$map[data][star]](" + json.getPath() + ")",
+        };
+        GroupMessageEvent event = event();
+        for (String template : templates) {
+            List<String> expected = normalize(legacyParse(template, event));
+            assertEquals(expected, normalize(HBotUtil.parseMiraiCode(template, event)), template);
+            // 第二次渲染使用缓存的编译结果
+            assertEquals(expected, normalize(HBotUtil.parseMiraiCode(template, event)), template);
+        }
+    }
+
+    @Test
+    public void invalidTagsFailLikeTheLegacyParser() {
+        String[] templates = {
+                "[hrobot::$at](abc)",
+                "[hrobot::$text](" + text.getPath() + ".missing)",
+                "[hrobot::$map[missing][name]](" + json.getPath() + ")",
+        };
+        GroupMessageEvent event = event();
+        for (String template : templates) {
+            assertThrows(CannotProceedException.class, () -> legacyParse(template, event), template);
+            assertThrows(CannotProceedException.class, () -> HBotUtil.parseMiraiCode(template, event), template);
+        }
+    }
+
+    @Test
+    public void staticTemplateIsRenderedOnce() throws Exception {
+        MessageTemplate template = MessageTemplate.of("[mirai:face:1]你好[hrobot::$at](456)");
+        assertTrue(template.isStatic());
+        assertSame(template, MessageTemplate.of("[mirai:face:1]你好[hrobot::$at](456)"));
+        assertSame(template.render(null), template.render(event()));
+        assertFalse(MessageTemplate.of("[hrobot::$at](sender)").isStatic());
+    }
+
+    @Test
+    public void variablesAreResolvedFromTheEvent() throws Exception {
+        GroupMessageEvent event = event();
+        assertEquals("member10001(10001) 在群 20001", HBotUtil.parseMiraiCode("{sender}({senderId}) 在群 {groupId}", event).contentToString());
+        MessageChain chain = HBotUtil.parseMiraiCode("[mirai:at:{senderId}] [hrobot::$at]({senderId})", event);
+        assertEquals(List.of(new At(SENDER), new PlainText(" "), new At(SENDER)), new ArrayList<>(chain));
+        assertThrows(CannotProceedException.class, () -> HBotUtil.parseMiraiCode("{sender}"));
+    }
+
+    @Test
+    public void singleResourceTagHonoursTheDeadline() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException ignored) {
+                // 服务器关闭
+            }
+            byte[] body = "太慢了".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        long deadline = MessageTemplate.deadlineMillis;
+        try {
+            MessageTemplate.deadlineMillis = 200;
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/slow";
+            long start = System.currentTimeMillis();
+            assertEquals("运势：获取失败", HBotUtil.parseMiraiCode("运势：[hrobot::$text|获取失败](" + url + ")").contentToString());
+            assertTrue(System.currentTimeMillis() - start < 1500);
+            assertThrows(CannotProceedException.class, () -> HBotUtil.parseMiraiCode("[hrobot::$text](" + url + "?again)"));
+        } finally {
+            MessageTemplate.deadlineMillis = deadline;
+            server.stop(0);
+        }
+    }
+
+    /**
+     * 合并相邻的纯文本，其余元素使用 toString，避免消息链的拆分方式影响比较
+     */
+    private static List<String> normalize(MessageChain chain) {
+        List<String> list = new ArrayList<>();
+        StringBuilder plain = new StringBuilder();
+        for (SingleMessage m : chain) {
+            if (m instanceof PlainText p) {
+                plain.append(p.getContent());
+                continue;
+            }
+            if (!plain.isEmpty()) {
+                list.add(plain.toString());
+                plain.setLength(0);
+            }
+            list.add(m.toString());
+        }
+        if (!plain.isEmpty()) {
+            list.add(plain.toString());
+        }
+        return list;
+    }
+
+    /**
+     * 旧版本的 parseMiraiCode，每次渲染都重新解析模板；img 标签需要上传图片，此处不支持
+     */
+    @SuppressWarnings("unchecked")
+    private static MessageChain legacyParse(String content, MessageEvent event) throws CannotProceedException {
+        Matcher matcher = Pattern.compile("(\\[hrobot::\\$.*?])(\\((.*?)\\))").matcher(content);
+        int fromIndex = 0;
+        MessageChainBuilder builder = new MessageChainBuilder();
+        while (matcher.find()) {
+            String tag = matcher.group(1), val = matcher.group(2);
+            tag = tag.substring(10, tag.length() - 1);
+            val = val.substring(1, val.length() - 1);
+            if (tag.isEmpty()) {
+                continue;
+            }
+            builder.append(MiraiCode.deserializeMiraiCode(content.substring(fromIndex, matcher.start())));
+            fromIndex = matcher.end();
+            try {
+                String lowerCase = tag.toLowerCase();
+                if (lowerCase.startsWith("map")) {
+                    List<String> ps = new ArrayList<>();
+                    String key = lowerCase.substring("map".length());
+                    while (key.contains("[")) {
+                        int x = key.indexOf('[');
+                        int y = key.indexOf(']');
+                        ps.add(key.substring(x + 1, y).trim());
+                        key = key.substring(y + 1);
+                    }
+                    MapGetter mg = new MapGetter(JSONObject.parseObject(Files.readString(Path.of(val)), Map.class));
+                    for (int i = 0; i < ps.size(); i++) {
+                        if (i == ps.size() - 1) {
+                            builder.append(mg.getString(ps.get(i), true));
+                        } else {
+                            mg = mg.getMapGetter(ps.get(i));
+                        }
+                    }
+                    continue;
+                }
+                switch (lowerCase) {
+                    case "text" -> builder.append(Files.readString(Path.of(val)));
+                    case "quote" -> builder.append(new QuoteReply(event.getMessage()));
+                    case "at" -> {
+                        if (val.equals("sender")) {
+                            builder.append(new At(event.getSender().getId()));
+                        } else {
+                            builder.append(Long.parseLong(val) == -1L ? AtAll.INSTANCE : new At(Long.parseLong(val)));
+                        }
+                    }
+                    default -> builder.append(MiraiCode.deserializeMiraiCode(content.substring(matcher.start(), matcher.end())));
+                }
+            } catch (Exception e) {
+                throw new CannotProceedException(e.getMessage());
+            }
+        }
+        builder.append(MiraiCode.deserializeMiraiCode(content.substring(fromIndex)));
+        return builder.build();
+    }
+}
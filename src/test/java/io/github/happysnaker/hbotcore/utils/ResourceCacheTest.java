@@ -0,0 +1,125 @@
+package io.github.happysnaker.hbotcore.utils;
+
+import com.sun.net.httpserver.HttpServer;
+import io.github.happysnaker.hbotcore.boot.HBot;
+import net.mamoe.mirai.utils.SilentLogger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 未指定过期时间时，只有服务端允许的资源才会被缓存
+ */
+public class ResourceCacheTest {
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeEach
+    public void start() throws Exception {
+        HBot.LOGGER = SilentLogger.INSTANCE;
+        ResourceCache.invalidate();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            int n = requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/etag")) {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+            } else if (path.equals("/max-age")) {
+                exchange.getResponseHeaders().add("Cache-Control", "public, max-age=600");
+            } else if (path.equals("/no-cache")) {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+            }
+            byte[] body = ("body-" + n).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stop() {
+        server.stop(0);
+        ResourceCache.invalidate();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Test
+    public void resourceWithoutValidatorsIsFetchedEveryTime() throws Exception {
+        assertEquals("body-1\n", ResourceCache.getString(url("/random"), ResourceCache.DEFAULT_TTL));
+        assertEquals("body-2\n", ResourceCache.getString(url("/random"), ResourceCache.DEFAULT_TTL));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void explicitTtlCachesResourceWithoutValidators() throws Exception {
+        assertEquals("body-1\n", ResourceCache.getString(url("/random"), 600));
+        assertEquals("body-1\n", ResourceCache.getString(url("/random"), 600));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void maxAgeIsCached() throws Exception {
+        assertEquals("body-1\n", ResourceCache.getString(url("/max-age"), ResourceCache.DEFAULT_TTL));
+        assertEquals("body-1\n", ResourceCache.getString(url("/max-age"), ResourceCache.DEFAULT_TTL));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void etagIsCachedAndRevalidated() throws Exception {
+        long ttl = ResourceCache.ttlSeconds;
+        try {
+            ResourceCache.ttlSeconds = 1;
+            assertEquals("body-1\n", ResourceCache.getString(url("/etag"), ResourceCache.DEFAULT_TTL));
+            assertEquals("body-1\n", ResourceCache.getString(url("/etag"), ResourceCache.DEFAULT_TTL));
+            assertEquals(1, requests.get());
+
+            // 过期后发送条件请求，304 时继续使用缓存
+            Thread.sleep(1100);
+            assertEquals("body-1\n", ResourceCache.getString(url("/etag"), ResourceCache.DEFAULT_TTL));
+            assertEquals(2, requests.get());
+        } finally {
+            ResourceCache.ttlSeconds = ttl;
+        }
+    }
+
+    @Test
+    public void noCacheIsFetchedEveryTime() throws Exception {
+        assertEquals("body-1\n", ResourceCache.getString(url("/no-cache"), ResourceCache.DEFAULT_TTL));
+        assertEquals("body-2\n", ResourceCache.getString(url("/no-cache"), ResourceCache.DEFAULT_TTL));
+    }
+
+    @Test
+    public void modifiedLocalFileIsReadAgain() throws Exception {
+        File file = File.createTempFile("hbot-resource", ".txt");
+        try {
+            Files.writeString(file.toPath(), "one");
+            assertEquals("one", ResourceCache.getString(file.getPath(), ResourceCache.DEFAULT_TTL));
+            assertEquals("one", ResourceCache.getString(file.getPath(), ResourceCache.DEFAULT_TTL));
+
+            Files.writeString(file.toPath(), "three");
+            assertEquals("three", ResourceCache.getString(file.getPath(), ResourceCache.DEFAULT_TTL));
+        } finally {
+            file.delete();
+        }
+    }
+}